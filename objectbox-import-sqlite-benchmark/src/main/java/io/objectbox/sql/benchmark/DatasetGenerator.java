@@ -0,0 +1,320 @@
+package io.objectbox.sql.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Creates SQLite database files with generated rows of a {@link DatasetSpec}. Values are random,
+ * but the same for equal specs.
+ * <p/>
+ * Rows are inserted with a single prepared statement per table, committing every
+ * {@link #TRANSACTION_ROWS} rows, with journaling and syncing turned off. This creates databases
+ * of tens of millions of rows in minutes instead of hours.
+ * <p/>
+ * Created files are kept in a cache directory and reused by later benchmark runs. The directory
+ * can be set with the {@value #CACHE_DIRECTORY_PROPERTY} system property, by default it is in the
+ * temp directory.
+ */
+class DatasetGenerator {
+
+    static final String CACHE_DIRECTORY_PROPERTY = "objectbox.benchmark.datasets";
+
+    /** Increase if generated contents change, so files created before are not reused. */
+    private static final int VERSION = 1;
+    private static final int TRANSACTION_ROWS = 100000;
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "0123456789 \u00e4\u00f6\u00fc\u00df";
+
+    /** Kinds of generated values. */
+    private enum Kind {
+        /** 0 to 999. */
+        QUANTITY,
+        /** 1 to 5. */
+        RATING,
+        INTEGER,
+        LONG,
+        /** 0 to 100. */
+        REAL,
+        BOOLEAN,
+        /** Milliseconds since 2017. */
+        DATE,
+        /** Up to 31 bytes. */
+        BLOB,
+        TEXT,
+        /** Id of a {@link io.objectbox.sql.benchmark.model.Mode}. */
+        MODE,
+        /** Id of a customer. */
+        CUSTOMER
+    }
+
+    private static class Column {
+        final String name;
+        final String type;
+        final Kind kind;
+
+        Column(String name, String type, Kind kind) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+        }
+    }
+
+    private final DatasetSpec spec;
+    private final Random random;
+
+    private DatasetGenerator(DatasetSpec spec) {
+        this.spec = spec;
+        this.random = new Random(spec.seed);
+    }
+
+    /**
+     * Returns the cached database file of the spec, creates it if it does not exist yet.
+     */
+    static File get(DatasetSpec spec) throws IOException, SQLException {
+        File directory = getCacheDirectory();
+        byte[] key = (VERSION + ": " + spec).getBytes(Charset.forName("UTF-8"));
+        String name = spec.shape.name().toLowerCase(Locale.US) + "-" + spec.rows + "-"
+                + UUID.nameUUIDFromBytes(key);
+        File file = new File(directory, name + ".db");
+        if (file.exists()) {
+            return file;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        // create under a temporary name, so an interrupted run does not leave an incomplete file
+        File tempFile = new File(directory, name + ".db-tmp");
+        if (tempFile.exists() && !tempFile.delete()) {
+            throw new IOException("Failed to delete " + tempFile);
+        }
+        boolean created = false;
+        try {
+            create(spec, tempFile);
+            created = true;
+        } finally {
+            if (!created) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+        return file;
+    }
+
+    static File getCacheDirectory() {
+        String path = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (path != null) {
+            return new File(path);
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "objectbox-import-sqlite-benchmark");
+    }
+
+    /**
+     * Creates a database file with the tables and rows of the spec.
+     */
+    static void create(DatasetSpec spec, File file) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            // a failed run deletes the file, so no journal is needed
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+            statement.close();
+            connection.setAutoCommit(false);
+            new DatasetGenerator(spec).insert(connection);
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void insert(Connection connection) throws SQLException {
+        List<Column> columns = selectColumns(getColumns(spec.shape));
+        if (spec.shape == Shape.FOREIGN_KEY) {
+            List<Column> customerColumns = Arrays.asList(new Column("name", "TEXT", Kind.TEXT));
+            createTable(connection, "Customer", customerColumns);
+            insertRows(connection, "Customer", customerColumns, spec.getCustomerCount());
+        }
+        createTable(connection, spec.shape.tableName, columns);
+        insertRows(connection, spec.shape.tableName, columns, spec.rows);
+    }
+
+    private static Column[] getColumns(Shape shape) {
+        switch (shape) {
+            case NARROW:
+                return new Column[]{
+                        new Column("quantity", "INTEGER", Kind.QUANTITY),
+                        new Column("rating", "INTEGER", Kind.RATING),
+                        new Column("amount", "REAL", Kind.REAL),
+                        new Column("flag", "INTEGER", Kind.BOOLEAN),
+                        new Column("created", "INTEGER", Kind.DATE)
+                };
+            case WIDE_TEXT:
+                Column[] columns = new Column[8];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = new Column("text" + (i + 1), "TEXT", Kind.TEXT);
+                }
+                return columns;
+            case CONVERTER:
+                return new Column[]{
+                        new Column("nullableInteger", "INTEGER", Kind.INTEGER),
+                        new Column("nullableLong", "INTEGER", Kind.LONG),
+                        new Column("nullableDouble", "REAL", Kind.REAL),
+                        new Column("nullableBoolean", "INTEGER", Kind.BOOLEAN),
+                        new Column("date", "INTEGER", Kind.DATE),
+                        new Column("byteArray", "BLOB", Kind.BLOB),
+                        new Column("text", "TEXT", Kind.TEXT),
+                        new Column("mode", "INTEGER", Kind.MODE)
+                };
+            case FOREIGN_KEY:
+                return new Column[]{
+                        new Column("text", "TEXT", Kind.TEXT),
+                        new Column("customer", "INTEGER", Kind.CUSTOMER),
+                        new Column("referrer", "INTEGER", Kind.CUSTOMER)
+                };
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * Returns the columns of the spec, in the order of the shape.
+     */
+    private List<Column> selectColumns(Column[] shapeColumns) {
+        List<Column> columns = new ArrayList<>();
+        List<String> names = spec.columns != null ? Arrays.asList(spec.columns) : null;
+        for (Column column : shapeColumns) {
+            if (names == null || names.contains(column.name)) {
+                columns.add(column);
+            }
+        }
+        if (names != null && columns.size() != names.size()) {
+            throw new IllegalArgumentException("Table " + spec.shape.tableName
+                    + " does not have all columns of " + names);
+        }
+        return columns;
+    }
+
+    private static void createTable(Connection connection, String tableName, List<Column> columns)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE TABLE \"").append(tableName)
+                .append("\" (_id INTEGER PRIMARY KEY");
+        for (Column column : columns) {
+            sql.append(", ").append(column.name).append(' ').append(column.type);
+        }
+        for (Column column : columns) {
+            if (column.kind == Kind.CUSTOMER) {
+                sql.append(", FOREIGN KEY(").append(column.name)
+                        .append(") REFERENCES Customer(_id)");
+            }
+        }
+        sql.append(")");
+        Statement statement = connection.createStatement();
+        statement.execute(sql.toString());
+        statement.close();
+    }
+
+    private void insertRows(Connection connection, String tableName, List<Column> columns,
+                            int rows) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO \"").append(tableName)
+                .append("\" VALUES (?");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(", ?");
+        }
+        sql.append(")");
+        PreparedStatement insert = connection.prepareStatement(sql.toString());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            for (int id = 1; id <= rows; id++) {
+                insert.setLong(1, id);
+                for (int i = 0; i < columns.size(); i++) {
+                    bindValue(insert, i + 2, columns.get(i).kind);
+                }
+                insert.executeUpdate();
+                if (id % TRANSACTION_ROWS == 0) {
+                    connection.commit();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private void bindValue(PreparedStatement insert, int index, Kind kind) throws SQLException {
+        if (spec.nullRatio > 0 && random.nextDouble() < spec.nullRatio) {
+            insert.setNull(index, Types.NULL);
+            return;
+        }
+        switch (kind) {
+            case QUANTITY:
+                insert.setInt(index, random.nextInt(1000));
+                break;
+            case RATING:
+                insert.setInt(index, random.nextInt(5) + 1);
+                break;
+            case INTEGER:
+                insert.setInt(index, random.nextInt());
+                break;
+            case LONG:
+                insert.setLong(index, random.nextLong());
+                break;
+            case REAL:
+                insert.setDouble(index, random.nextDouble() * 100);
+                break;
+            case BOOLEAN:
+                insert.setInt(index, random.nextBoolean() ? 1 : 0);
+                break;
+            case DATE:
+                insert.setLong(index, 1483228800000L + random.nextInt(Integer.MAX_VALUE));
+                break;
+            case BLOB:
+                byte[] bytes = new byte[random.nextInt(32)];
+                random.nextBytes(bytes);
+                insert.setBytes(index, bytes);
+                break;
+            case TEXT:
+                insert.setString(index, text());
+                break;
+            case MODE:
+                insert.setInt(index, random.nextInt(3));
+                break;
+            case CUSTOMER:
+                insert.setLong(index, random.nextInt(spec.getCustomerCount()) + 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    private String text() {
+        int range = spec.maxTextLength - spec.minTextLength + 1;
+        int length;
+        if (spec.textLengths == DatasetSpec.TextLengths.SKEWED) {
+            double value = random.nextDouble();
+            length = spec.minTextLength + (int) (range * value * value * value);
+        } else {
+            length = spec.minTextLength + random.nextInt(range);
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package io.objectbox.sql.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Parameters of a database created by {@link DatasetGenerator}. Databases created from equal specs
+ * have equal contents.
+ */
+final class DatasetSpec {
+
+    /** How the lengths of text values are distributed between the minimum and maximum length. */
+    enum TextLengths {
+        /** All lengths are equally likely. */
+        UNIFORM,
+        /** Most values are short, few are close to the maximum length. */
+        SKEWED
+    }
+
+    final Shape shape;
+    final int rows;
+    /** Columns of the benchmarked table to create, null to create all columns of the shape. */
+    final String[] columns;
+    final double nullRatio;
+    final int minTextLength;
+    final int maxTextLength;
+    final TextLengths textLengths;
+    final int fanOut;
+    final long seed;
+
+    private DatasetSpec(Builder builder) {
+        shape = builder.shape;
+        rows = builder.rows;
+        columns = builder.columns;
+        nullRatio = builder.nullRatio;
+        minTextLength = builder.minTextLength;
+        maxTextLength = builder.maxTextLength;
+        textLengths = builder.textLengths;
+        fanOut = builder.fanOut;
+        seed = builder.seed;
+    }
+
+    /**
+     * Returns the number of customers referenced by orders of the {@link Shape#FOREIGN_KEY} shape.
+     */
+    int getCustomerCount() {
+        return Math.max(1, (rows + fanOut - 1) / fanOut);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s, %d rows, columns %s, %.3f nulls, text %d-%d %s, fan-out %d, seed %d",
+                shape, rows, columns != null ? Arrays.toString(columns) : "all", nullRatio,
+                minTextLength, maxTextLength, textLengths, fanOut, seed);
+    }
+
+    static class Builder {
+
+        private final Shape shape;
+        private final int rows;
+        private String[] columns;
+        private double nullRatio = 0.1;
+        private int minTextLength = 5;
+        private int maxTextLength = 30;
+        private TextLengths textLengths = TextLengths.UNIFORM;
+        private int fanOut = 10;
+        private long seed = 42;
+
+        /**
+         * @param rows Number of rows of the table of the shape.
+         */
+        Builder(Shape shape, int rows) {
+            if (rows < 0) {
+                throw new IllegalArgumentException("rows must not be negative");
+            }
+            this.shape = shape;
+            this.rows = rows;
+        }
+
+        /**
+         * Only creates the given columns of the table of the shape (besides its {@code _id}), so
+         * properties of the other columns are not migrated. By default all columns are created.
+         */
+        Builder columns(String... columns) {
+            this.columns = columns.clone();
+            return this;
+        }
+
+        /**
+         * Ratio of values that are NULL, except for the {@code _id} column. Default 0.1.
+         */
+        Builder nullRatio(double nullRatio) {
+            if (nullRatio < 0 || nullRatio > 1) {
+                throw new IllegalArgumentException("nullRatio must be between 0 and 1");
+            }
+            this.nullRatio = nullRatio;
+            return this;
+        }
+
+        /**
+         * Number of characters of text values. Default 5 to 30, uniformly distributed.
+         */
+        Builder textLength(int minLength, int maxLength, TextLengths textLengths) {
+            if (minLength < 0 || maxLength < minLength) {
+                throw new IllegalArgumentException("Invalid text length " + minLength + "-"
+                        + maxLength);
+            }
+            this.minTextLength = minLength;
+            this.maxTextLength = maxLength;
+            this.textLengths = textLengths;
+            return this;
+        }
+
+        /**
+         * Average number of orders referencing a customer for the {@link Shape#FOREIGN_KEY} shape.
+         * Default 10.
+         */
+        Builder fanOut(int ordersPerCustomer) {
+            if (ordersPerCustomer < 1) {
+                throw new IllegalArgumentException("ordersPerCustomer must be at least 1");
+            }
+            this.fanOut = ordersPerCustomer;
+            return this;
+        }
+
+        /**
+         * Seed of the random values. Default 42.
+         */
+        Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        DatasetSpec build() {
+            return new DatasetSpec(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.objectbox.sql.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.objectbox.sql.ColumnMapping;
+import io.objectbox.sql.Row;
+import io.objectbox.sql.TableMapping;
+
+/**
+ * Measures mapping the two foreign key columns of an order to its {@code ToOne} properties, from
+ * rows copied into memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForeignKeyMapperBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private MigrationFixture fixture;
+    private TableMapping tableMapping;
+    private ColumnMapping[] foreignKeyColumns;
+    private MemoryRow[] rows;
+    private int nextRow;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        fixture = new MigrationFixture(Shape.FOREIGN_KEY, ROWS);
+        tableMapping = fixture.getTableMapping();
+        rows = fixture.copyRows();
+        List<ColumnMapping> columns = new ArrayList<>();
+        for (ColumnMapping column : tableMapping.getColumnMap().values()) {
+            if (column.getMapper() instanceof ColumnMapping.ForeignKeyMapper) {
+                columns.add(column);
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalStateException("No foreign key columns detected");
+        }
+        foreignKeyColumns = columns.toArray(new ColumnMapping[columns.size()]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public Object foreignKeyMapper() throws InstantiationException, IllegalAccessException {
+        Object entity = tableMapping.newEntity();
+        Row row = rows[nextRow];
+        nextRow = (nextRow + 1) % rows.length;
+        for (ColumnMapping column : foreignKeyColumns) {
+            column.getMapper().mapValue(column, row, entity);
+        }
+        return entity;
+    }
+}
@@ -0,0 +1,98 @@
+package io.objectbox.sql.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.objectbox.sql.ColumnMapping;
+import io.objectbox.sql.Row;
+import io.objectbox.sql.TableMapping;
+
+/**
+ * Measures mapping a row to an entity for each {@link Shape}. Rows are copied into memory first,
+ * so no time is spent reading from SQLite. Run with {@code -prof gc} to see allocations per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"NARROW", "WIDE_TEXT", "CONVERTER", "FOREIGN_KEY"})
+    public Shape shape;
+
+    private MigrationFixture fixture;
+    private TableMapping tableMapping;
+    private ColumnMapping[] defaultMapperColumns;
+    private MemoryRow[] rows;
+    private int nextRow;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        fixture = new MigrationFixture(shape, ROWS);
+        tableMapping = fixture.getTableMapping();
+        rows = fixture.copyRows();
+        List<ColumnMapping> columns = new ArrayList<>();
+        for (ColumnMapping column : tableMapping.getColumnMap().values()) {
+            if (column.getMapper() instanceof ColumnMapping.DefaultMapper) {
+                columns.add(column);
+            }
+        }
+        defaultMapperColumns = columns.toArray(new ColumnMapping[columns.size()]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private Row nextRow() {
+        Row row = rows[nextRow];
+        nextRow = (nextRow + 1) % rows.length;
+        return row;
+    }
+
+    /**
+     * Maps all columns like migration does: with the mapper compiled for each property type and,
+     * if generated, the RowMapper of the entity.
+     */
+    @Benchmark
+    public Object mapRow() throws InstantiationException, IllegalAccessException {
+        Object entity = tableMapping.newEntity();
+        tableMapping.mapRow(nextRow(), entity);
+        return entity;
+    }
+
+    /**
+     * Maps all columns that are not foreign keys with {@link ColumnMapping.DefaultMapper} itself,
+     * which checks the property type for each value.
+     */
+    @Benchmark
+    public Object defaultMapper() throws InstantiationException, IllegalAccessException {
+        Object entity = tableMapping.newEntity();
+        Row row = nextRow();
+        for (ColumnMapping column : defaultMapperColumns) {
+            column.getMapper().mapValue(column, row, entity);
+        }
+        return entity;
+    }
+}
@@ -0,0 +1,97 @@
+package io.objectbox.sql.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.objectbox.sql.Row;
+import io.objectbox.sql.Rows;
+
+/**
+ * A row copied into memory, so mapping can be measured without reading from SQLite. Each getter
+ * returns what the same getter returned for the copied row.
+ */
+class MemoryRow implements Row {
+
+    private final boolean[] nulls;
+    private final long[] longs;
+    private final double[] doubles;
+    private final String[] strings;
+    private final byte[][] blobs;
+
+    private MemoryRow(Row row) {
+        int columnCount = row.getColumnCount();
+        nulls = new boolean[columnCount];
+        longs = new long[columnCount];
+        doubles = new double[columnCount];
+        strings = new String[columnCount];
+        blobs = new byte[columnCount][];
+        for (int i = 0; i < columnCount; i++) {
+            nulls[i] = row.isNull(i);
+            longs[i] = row.getLong(i);
+            doubles[i] = row.getDouble(i);
+            strings[i] = row.getString(i);
+            blobs[i] = row.getBlob(i);
+        }
+    }
+
+    /**
+     * Copies all rows and closes them.
+     */
+    static MemoryRow[] copyAll(Rows rows) {
+        List<MemoryRow> copies = new ArrayList<>();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (rows.moveToNext()) {
+                copies.add(new MemoryRow(rows));
+            }
+        } finally {
+            rows.close();
+        }
+        return copies.toArray(new MemoryRow[copies.size()]);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return nulls.length;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return nulls[columnIndex];
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) longs[columnIndex];
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) longs[columnIndex];
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return longs[columnIndex];
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) doubles[columnIndex];
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return doubles[columnIndex];
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return strings[columnIndex];
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return blobs[columnIndex];
+    }
+}
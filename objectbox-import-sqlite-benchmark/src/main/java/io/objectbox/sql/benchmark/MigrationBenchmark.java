@@ -0,0 +1,70 @@
+package io.objectbox.sql.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full migration of a database file for each {@link Shape}, reading with JDBC and
+ * putting into a BoxStore on disk. Scores are rows of the benchmarked table per second, for
+ * {@link Shape#FOREIGN_KEY} the customers are migrated in addition.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MigrationBenchmark {
+
+    private static final int ROWS = 10000;
+
+    @Param({"NARROW", "WIDE_TEXT", "CONVERTER", "FOREIGN_KEY"})
+    public Shape shape;
+
+    /** 1 puts each entity separately. */
+    @Param({"1", "1000"})
+    public int batchSize;
+
+    private MigrationFixture fixture;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        fixture = new MigrationFixture(shape, ROWS);
+        fixture.migration.setBatchSize(batchSize);
+    }
+
+    /**
+     * Each migration starts with empty boxes, removing entities is not measured.
+     */
+    @Setup(Level.Invocation)
+    public void clearBoxes() {
+        fixture.clearBoxes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void migrate() {
+        fixture.migration.migrate(null);
+    }
+}
@@ -0,0 +1,67 @@
+package io.objectbox.sql.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import io.objectbox.BoxStore;
+import io.objectbox.sql.SqlMigration;
+import io.objectbox.sql.TableMapping;
+import io.objectbox.sql.benchmark.model.MyObjectBox;
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+/**
+ * A generated database of a {@link DatasetSpec}, an empty BoxStore and an auto-detected migration
+ * between them. The database is cached and only read, so it is kept on {@link #close()}.
+ */
+class MigrationFixture {
+
+    final Shape shape;
+    final JdbcRowSource source;
+    final BoxStore boxStore;
+    final SqlMigration migration;
+    private final File boxStoreDirectory;
+
+    MigrationFixture(Shape shape, int rows) throws IOException, SQLException {
+        this(new DatasetSpec.Builder(shape, rows).build());
+    }
+
+    MigrationFixture(DatasetSpec spec) throws IOException, SQLException {
+        this.shape = spec.shape;
+        File databaseFile = DatasetGenerator.get(spec);
+        boxStoreDirectory = File.createTempFile("benchmark-objectbox", "");
+        //noinspection ResultOfMethodCallIgnored only reserves a unique name for the directory
+        boxStoreDirectory.delete();
+        source = JdbcRowSource.open(databaseFile);
+        boxStore = MyObjectBox.builder().directory(boxStoreDirectory).build();
+        migration = new SqlMigration(source, boxStore);
+        // the database only has the tables of the shape and the columns of the spec
+        migration.autoDetect(false, false);
+    }
+
+    TableMapping getTableMapping() {
+        return migration.getTableMap().get(shape.tableName);
+    }
+
+    /**
+     * Returns the mapped columns of all rows of the table of the shape.
+     */
+    MemoryRow[] copyRows() {
+        return MemoryRow.copyAll(getTableMapping().query(source));
+    }
+
+    /**
+     * Removes all migrated entities.
+     */
+    void clearBoxes() {
+        for (Class<?> entityClass : shape.entityClasses) {
+            boxStore.boxFor(entityClass).removeAll();
+        }
+    }
+
+    void close() {
+        boxStore.close();
+        BoxStore.deleteAllFiles(boxStoreDirectory);
+        source.close();
+    }
+}
@@ -0,0 +1,75 @@
+package io.objectbox.sql.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to migrate all rows of a large database once, to find costs that grow faster
+ * than the number of rows. Databases are created on first use and cached, see
+ * {@link DatasetGenerator}. Pass other sizes with e.g. {@code -p rows=10000000,50000000}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ScalingBenchmark {
+
+    @Param({"FOREIGN_KEY"})
+    public Shape shape;
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"0.1"})
+    public double nullRatio;
+
+    /** Orders per customer, only used by {@link Shape#FOREIGN_KEY}. */
+    @Param({"10"})
+    public int fanOut;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private MigrationFixture fixture;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        fixture = new MigrationFixture(new DatasetSpec.Builder(shape, rows)
+                .nullRatio(nullRatio)
+                .fanOut(fanOut)
+                .build());
+        fixture.migration.setBatchSize(batchSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearBoxes() {
+        fixture.clearBoxes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void migrate() {
+        fixture.migration.migrate(null);
+    }
+}
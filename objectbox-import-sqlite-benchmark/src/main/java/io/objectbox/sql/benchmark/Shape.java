@@ -0,0 +1,31 @@
+package io.objectbox.sql.benchmark;
+
+import io.objectbox.sql.benchmark.model.Converted;
+import io.objectbox.sql.benchmark.model.Customer;
+import io.objectbox.sql.benchmark.model.Narrow;
+import io.objectbox.sql.benchmark.model.Order;
+import io.objectbox.sql.benchmark.model.Wide;
+
+/**
+ * Schema shapes to benchmark, see {@link DatasetGenerator} for their tables.
+ */
+public enum Shape {
+    /** Integer and real columns mapped to primitive properties. */
+    NARROW("Narrow", Narrow.class),
+    /** Eight text columns. */
+    WIDE_TEXT("Wide", Wide.class),
+    /** Nullable, date, blob and converted columns, similar to {@code SimpleEntity}. */
+    CONVERTER("Converted", Converted.class),
+    /** Orders with two foreign keys to customers. */
+    FOREIGN_KEY("Order", Order.class, Customer.class);
+
+    /** The table whose rows are benchmarked. */
+    final String tableName;
+    /** Entities of all tables of the shape. */
+    final Class<?>[] entityClasses;
+
+    Shape(String tableName, Class<?>... entityClasses) {
+        this.tableName = tableName;
+        this.entityClasses = entityClasses;
+    }
+}
@@ -0,0 +1,52 @@
+package io.objectbox.sql.benchmark.model;
+
+import java.util.Date;
+
+import io.objectbox.annotation.Convert;
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+import io.objectbox.converter.PropertyConverter;
+
+/**
+ * Boxed, date and converted properties, which are mapped using reflection or a converter.
+ */
+@Entity
+public class Converted {
+
+    @Id(assignable = true)
+    public long id;
+
+    public Integer nullableInteger;
+
+    public Long nullableLong;
+
+    public Double nullableDouble;
+
+    public Boolean nullableBoolean;
+
+    public Date date;
+
+    public byte[] byteArray;
+
+    public String text;
+
+    @Convert(converter = ModeConverter.class, dbType = Integer.class)
+    public Mode mode;
+
+    public static class ModeConverter implements PropertyConverter<Mode, Integer> {
+
+        @Override
+        public Mode convertToEntityProperty(Integer databaseValue) {
+            return Mode.fromId(databaseValue);
+        }
+
+        @Override
+        public Integer convertToDatabaseValue(Mode entityProperty) {
+            if (entityProperty == null) {
+                return Mode.NULL.toId();
+            } else {
+                return entityProperty.toId();
+            }
+        }
+    }
+}
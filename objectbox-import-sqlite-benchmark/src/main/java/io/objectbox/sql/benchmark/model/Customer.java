@@ -0,0 +1,14 @@
+package io.objectbox.sql.benchmark.model;
+
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+
+@Entity
+public class Customer {
+
+    @Id(assignable = true)
+    public long id;
+
+    public String name;
+
+}
@@ -0,0 +1,25 @@
+package io.objectbox.sql.benchmark.model;
+
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+
+/**
+ * Only primitive numeric properties.
+ */
+@Entity
+public class Narrow {
+
+    @Id(assignable = true)
+    public long id;
+
+    public long quantity;
+
+    public int rating;
+
+    public double amount;
+
+    public boolean flag;
+
+    public long created;
+
+}
@@ -0,0 +1,25 @@
+package io.objectbox.sql.benchmark.model;
+
+import io.objectbox.BoxStore;
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+import io.objectbox.relation.ToOne;
+
+/**
+ * Has two foreign keys. On the JVM relations are not initialized by the ObjectBox plugin.
+ */
+@Entity
+public class Order {
+
+    @Id(assignable = true)
+    public long id;
+
+    public String text;
+
+    public ToOne<Customer> customer = new ToOne<>(this, Order_.customer);
+
+    public ToOne<Customer> referrer = new ToOne<>(this, Order_.referrer);
+
+    transient BoxStore __boxStore;
+
+}
@@ -0,0 +1,24 @@
+package io.objectbox.sql.benchmark.model;
+
+import io.objectbox.annotation.Entity;
+import io.objectbox.annotation.Id;
+
+/**
+ * Many text properties.
+ */
+@Entity
+public class Wide {
+
+    @Id(assignable = true)
+    public long id;
+
+    public String text1;
+    public String text2;
+    public String text3;
+    public String text4;
+    public String text5;
+    public String text6;
+    public String text7;
+    public String text8;
+
+}
@@ -0,0 +1,216 @@
+package io.objectbox.sql.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+import io.objectbox.sql.Rows;
+import io.objectbox.sql.SqlMigration;
+import io.objectbox.sql.benchmark.model.Customer;
+import io.objectbox.sql.benchmark.model.MyObjectBox;
+import io.objectbox.sql.benchmark.model.Order;
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Migrates a SQLite file read with JDBC into ObjectBox for Linux, so the whole migration runs on
+ * the JVM without a device.
+ */
+public class SqlMigrationTest {
+
+    private static final int CUSTOMERS = 3;
+    /** More than one page of orders, see {@link #PAGE_SIZE}. */
+    private static final int ORDERS = 250;
+    private static final int PAGE_SIZE = 100;
+
+    private File databaseFile;
+    private File boxStoreDirectory;
+    private JdbcRowSource source;
+    private BoxStore boxStore;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        databaseFile = File.createTempFile("migration", ".db");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:"
+                + databaseFile.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE Customer (_id INTEGER PRIMARY KEY, name TEXT)");
+            statement.execute("CREATE TABLE \"Order\" (_id INTEGER PRIMARY KEY, text TEXT,"
+                    + " customer INTEGER REFERENCES Customer(_id),"
+                    + " referrer INTEGER REFERENCES Customer(_id))");
+            statement.close();
+            connection.setAutoCommit(false);
+            PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO Customer VALUES (?, ?)");
+            for (int id = 1; id <= CUSTOMERS; id++) {
+                insert.setLong(1, id);
+                insert.setString(2, "Customer " + id);
+                insert.execute();
+            }
+            insert.close();
+            insert = connection.prepareStatement("INSERT INTO \"Order\" VALUES (?, ?, ?, ?)");
+            for (int id = 1; id <= ORDERS; id++) {
+                insert.setLong(1, id);
+                insert.setString(2, "Order " + id);
+                insert.setLong(3, id % CUSTOMERS + 1);
+                if (id % 2 == 0) {
+                    insert.setLong(4, 1);
+                } else {
+                    insert.setNull(4, Types.INTEGER);
+                }
+                insert.execute();
+            }
+            insert.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+
+        boxStoreDirectory = File.createTempFile("migration-objectbox", "");
+        //noinspection ResultOfMethodCallIgnored only reserves a unique name for the directory
+        boxStoreDirectory.delete();
+        boxStore = MyObjectBox.builder().directory(boxStoreDirectory).build();
+        source = JdbcRowSource.open(databaseFile);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        boxStore.close();
+        BoxStore.deleteAllFiles(boxStoreDirectory);
+        //noinspection ResultOfMethodCallIgnored
+        databaseFile.delete();
+    }
+
+    @Test
+    public void migrate() {
+        SqlMigration migration = newMigration();
+        migration.migrate(null);
+
+        assertMigrated();
+    }
+
+    @Test
+    public void migratePipelined() {
+        SqlMigration migration = newMigration();
+        migration.setPipelined(2, 4);
+        migration.migrate(null);
+
+        assertMigrated();
+    }
+
+    @Test
+    public void migrateWithDirectRead() {
+        SqlMigration migration = newMigration();
+        migration.setDirectReadFile(databaseFile);
+        migration.migrate(null);
+
+        assertMigrated();
+    }
+
+    @Test
+    public void migrateWithDirectRead_stringFromReal() throws SQLException {
+        execute("UPDATE Customer SET name = 0.1 + 0.2 WHERE _id = 1");
+        execute("UPDATE Customer SET name = 1e20 WHERE _id = 2");
+        execute("UPDATE Customer SET name = 100.0 WHERE _id = 3");
+        execute("CREATE TABLE Customer2 (_id INTEGER PRIMARY KEY, name REAL)");
+        execute("INSERT INTO Customer2 SELECT * FROM Customer");
+        execute("DROP TABLE Customer");
+        execute("ALTER TABLE Customer2 RENAME TO Customer");
+        SqlMigration migration = newMigration();
+        migration.setDirectReadFile(databaseFile);
+        migration.migrate(null);
+
+        // the same strings as queried
+        Box<Customer> customerBox = boxStore.boxFor(Customer.class);
+        Rows rows = source.query("SELECT _id, name FROM Customer", null);
+        while (rows.moveToNext()) {
+            assertEquals(rows.getString(1), customerBox.get(rows.getLong(0)).name);
+        }
+        rows.close();
+        assertEquals("1.0e+20", customerBox.get(2).name);
+    }
+
+    @Test
+    public void migrateIncrementally_realMark() throws IOException, SQLException {
+        // marks like 0.1 have no exact decimal representation
+        execute("ALTER TABLE \"Order\" ADD COLUMN updated REAL");
+        execute("UPDATE \"Order\" SET updated = _id * 0.1");
+        File checkpointFile = File.createTempFile("migration", ".checkpoint");
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+        try {
+            SqlMigration migration = newMigration();
+            migration.modifyTableMapping("Order").highWaterMark("updated").build();
+            migration.setIncremental(true);
+            migration.setCheckpointFile(checkpointFile);
+            migration.migrate(null);
+            assertMigrated();
+
+            // only changed rows are migrated again, over more than one page
+            Box<Order> orderBox = boxStore.boxFor(Order.class);
+            orderBox.removeAll();
+            execute("UPDATE \"Order\" SET updated = updated + 100.1 WHERE _id > 100");
+            migration.migrate(null);
+            assertEquals(ORDERS - 100, orderBox.count());
+            assertEquals("Order 101", orderBox.get(101).text);
+
+            orderBox.removeAll();
+            migration.migrate(null);
+            assertEquals(0, orderBox.count());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            checkpointFile.delete();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:"
+                + databaseFile.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private SqlMigration newMigration() {
+        SqlMigration migration = new SqlMigration(source, boxStore);
+        // the database only has tables for customers and orders
+        migration.autoDetect(false, true);
+        migration.setPageSize(PAGE_SIZE);
+        return migration;
+    }
+
+    private void assertMigrated() {
+        Box<Customer> customerBox = boxStore.boxFor(Customer.class);
+        assertEquals(CUSTOMERS, customerBox.count());
+        assertEquals("Customer 2", customerBox.get(2).name);
+
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        assertEquals(ORDERS, orderBox.count());
+        for (long id = 1; id <= ORDERS; id++) {
+            Order order = orderBox.get(id);
+            assertEquals("Order " + id, order.text);
+            assertEquals(id % CUSTOMERS + 1, order.customer.getTargetId());
+            assertEquals(id % 2 == 0 ? 1 : 0, order.referrer.getTargetId());
+        }
+    }
+}
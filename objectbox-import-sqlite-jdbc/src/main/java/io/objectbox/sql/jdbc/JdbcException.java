@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown if reading from SQLite using JDBC fails, wraps the {@link SQLException}. Unchecked, like
+ * SQLite exceptions on Android.
+ */
+public class JdbcException extends RuntimeException {
+
+    public JdbcException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    public JdbcException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
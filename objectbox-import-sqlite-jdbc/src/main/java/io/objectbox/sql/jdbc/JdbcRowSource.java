@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql.jdbc;
+
+import android.support.annotation.Nullable;
+
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import io.objectbox.sql.RowSource;
+import io.objectbox.sql.Rows;
+
+/**
+ * Reads rows from a SQLite database using JDBC, so migration can run on a plain JVM, e.g. to
+ * convert a database on a build server:
+ * <pre>
+ * JdbcRowSource source = JdbcRowSource.open(new File("app.db"));
+ * SqlMigration migration = new SqlMigration(source, boxStore);
+ * migration.autoDetect();
+ * migration.migrate(null);
+ * source.close();
+ * </pre>
+ * Uses the SQLite JDBC driver by xerial.
+ */
+public class JdbcRowSource implements RowSource {
+
+    private static final String URL_PREFIX = "jdbc:sqlite:";
+
+    private final Connection connection;
+    @Nullable
+    private final File file;
+
+    /**
+     * Opens the database file read-only.
+     */
+    public static JdbcRowSource open(File file) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try {
+            return new JdbcRowSource(config.createConnection(URL_PREFIX + file.getPath()), file);
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to open " + file, e);
+        }
+    }
+
+    /**
+     * Reads from the given connection, which is not closed by {@link #close()}. Does not support
+     * {@link #openReadOnly()}.
+     */
+    public JdbcRowSource(Connection connection) {
+        this(connection, null);
+    }
+
+    private JdbcRowSource(Connection connection, @Nullable File file) {
+        this.connection = connection;
+        this.file = file;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public Rows query(String sql, @Nullable String[] args) {
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(sql);
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    statement.setString(i + 1, args[i]);
+                }
+            }
+            ResultSet resultSet = statement.executeQuery();
+            return new JdbcRows(statement, resultSet);
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            throw new JdbcException("Query failed: " + sql, e);
+        }
+    }
+
+    /**
+     * The SQLite JDBC driver steps the statement for each row, it does not buffer rows.
+     */
+    @Override
+    public Rows query(String sql, @Nullable String[] args, long windowSize) {
+        return query(sql, args);
+    }
+
+    /**
+     * Fails if opened with {@link #open(File)}, which is read-only. To write, pass a connection to
+     * {@link #JdbcRowSource(Connection)} instead.
+     */
+    @Override
+    public void execute(String sql) {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new JdbcException("Statement failed: " + sql, e);
+        } finally {
+            closeQuietly(statement);
+        }
+    }
+
+    @Override
+    public boolean supportsWindowSize() {
+        return false;
+    }
+
+    /**
+     * Only supported if opened with {@link #open(File)}. The database file is only read, so any
+     * number of connections can read it at the same time.
+     */
+    @Override
+    public boolean supportsReadOnlyConnections() {
+        return file != null;
+    }
+
+    @Override
+    public RowSource openReadOnly() {
+        if (file == null) {
+            throw new UnsupportedOperationException("Not opened from a file");
+        }
+        return open(file);
+    }
+
+    @Override
+    public void close() {
+        if (file == null) {
+            return; // connection is owned by the caller
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to close " + file, e);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
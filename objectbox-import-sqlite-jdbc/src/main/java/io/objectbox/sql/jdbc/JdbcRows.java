@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql.jdbc;
+
+import android.support.annotation.Nullable;
+
+import org.sqlite.core.Codes;
+import org.sqlite.core.CoreStatement;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import io.objectbox.sql.Rows;
+
+/**
+ * Reads rows from a JDBC {@link ResultSet}. Column indexes start at 0, like for Android cursors.
+ */
+class JdbcRows implements Rows {
+
+    private final PreparedStatement statement;
+    /** The statement of the SQLite driver, to get the storage class of values; or null. */
+    @Nullable private final CoreStatement coreStatement;
+    private final ResultSet resultSet;
+    private final int columnCount;
+
+    JdbcRows(PreparedStatement statement, ResultSet resultSet) throws SQLException {
+        this.statement = statement;
+        this.coreStatement = statement instanceof CoreStatement ? (CoreStatement) statement : null;
+        this.resultSet = resultSet;
+        this.columnCount = resultSet.getMetaData().getColumnCount();
+    }
+
+    @Override
+    public boolean moveToNext() {
+        try {
+            return resultSet.next();
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to move to next row", e);
+        }
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        try {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 0; i < columnCount; i++) {
+                if (columnName.equalsIgnoreCase(metaData.getColumnLabel(i + 1))) {
+                    return i;
+                }
+            }
+            return -1;
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to get column names", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            statement.close(); // also closes the result set
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to close query", e);
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        try {
+            if (coreStatement != null) {
+                // Like Cursor.isNull, without reading the value. The column type of the meta data
+                // can not be used, it is the declared type of the column, even for NULL values.
+                return coreStatement.getDatbase().column_type(coreStatement.pointer, columnIndex)
+                        == Codes.SQLITE_NULL;
+            }
+            return resultSet.getObject(columnIndex + 1) == null;
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        try {
+            return resultSet.getShort(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        try {
+            return resultSet.getInt(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        try {
+            return resultSet.getLong(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        try {
+            return resultSet.getFloat(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        try {
+            return resultSet.getDouble(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(int columnIndex) {
+        try {
+            return resultSet.getString(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        try {
+            return resultSet.getBytes(columnIndex + 1);
+        } catch (SQLException e) {
+            throw new JdbcException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileTableRowsTest {
+
+    private static final double[] REALS = {
+            0.1 + 0.2, 1e20, -1e20, 1e15, 1e14, 123456789012345.6, 0.5, -2.5, 100, 1e-4, 1e-5,
+            -1.2345e-7, 1e100, 1e-100, Double.MAX_VALUE, Double.MIN_VALUE, 1.0 / 3, 2.0 / 3,
+            9.9999999999999999, 0.000123456789012345678, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY
+    };
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("reals", ".db");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void getString_formatsRealLikeQuery() throws SQLException, IOException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE t (_id INTEGER PRIMARY KEY, r REAL)");
+            statement.close();
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO t (r) VALUES (?)");
+            for (double real : REALS) {
+                insert.setDouble(1, real);
+                insert.executeUpdate();
+            }
+            insert.close();
+        } finally {
+            connection.close();
+        }
+
+        JdbcRowSource source = JdbcRowSource.open(file);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            SchemaCatalog schemaCatalog = new SchemaCatalog(source);
+            boolean real = FileTable.hasRealAffinity(schemaCatalog.getColumnType("t", 1));
+            assertTrue(real);
+            Rows direct = new FileTableRows(DatabaseFile.open(file),
+                    schemaCatalog.getRootPage("t"), new int[]{1, FileTable.ROW_ID},
+                    new boolean[]{real, false}, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+            Rows queried = source.query("SELECT r, _id FROM t ORDER BY _id", null);
+            while (queried.moveToNext()) {
+                assertTrue(direct.moveToNext());
+                assertEquals(queried.getLong(1), direct.getLong(1));
+                assertEquals(queried.getString(0), direct.getString(0));
+            }
+            assertFalse(direct.moveToNext());
+            direct.close();
+            queried.close();
+        } finally {
+            source.close();
+        }
+    }
+}
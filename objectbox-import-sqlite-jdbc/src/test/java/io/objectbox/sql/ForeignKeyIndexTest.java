@@ -0,0 +1,127 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+
+public class ForeignKeyIndexTest {
+
+    private File file;
+    private JdbcRowSource source;
+    private ColumnMapping[] columns;
+
+    @Before
+    public void setUp() throws IOException, NoSuchFieldException {
+        file = File.createTempFile("keys", ".db");
+        source = JdbcRowSource.open(file);
+        // the foreign key columns of the queried rows, see getTargetId
+        columns = new ColumnMapping[]{
+                new ColumnMapping("a", 0, null, Target.class.getDeclaredField("id"), null),
+                new ColumnMapping("b", 1, null, Target.class.getDeclaredField("id"), null)
+        };
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void getTargetId_dependsOnOrderOfValues() throws SQLException {
+        createTable("(1, 1, 2)", "(2, 2, 1)");
+        ForeignKeyIndex index = buildIndex();
+
+        assertEquals(1, getTargetId(index, 1, 2));
+        assertEquals(2, getTargetId(index, 2, 1));
+        assertEquals(0, getTargetId(index, 1, 1));
+    }
+
+    @Test
+    public void getTargetId_comparesValuesOfCollidingKeys() throws SQLException {
+        long b = unmix(-31); // mix(1 * 31 + mix(b)) == mix(0 * 31 + mix(0))
+        assertEquals(ForeignKeyIndex.combine(0, 0), ForeignKeyIndex.combine(1, b));
+        createTable("(1, 0, 0)", "(2, 1, " + b + ")");
+        ForeignKeyIndex index = buildIndex();
+
+        assertEquals(1, getTargetId(index, 0, 0));
+        assertEquals(2, getTargetId(index, 1, b));
+        // same key, but no row has these values
+        long otherB = unmix(-62);
+        assertEquals(ForeignKeyIndex.combine(0, 0), ForeignKeyIndex.combine(2, otherB));
+        assertEquals(0, getTargetId(index, 2, otherB));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_failsForSameValues() throws SQLException {
+        createTable("(1, 1, 2)", "(2, 1, 2)");
+        buildIndex();
+    }
+
+    private void createTable(String... rows) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE t (_id INTEGER PRIMARY KEY, a INTEGER, b INTEGER)");
+            for (String row : rows) {
+                statement.execute("INSERT INTO t VALUES " + row);
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private ForeignKeyIndex buildIndex() {
+        return ForeignKeyIndex.build(source, new SchemaCatalog(source), "t",
+                Arrays.asList("a", "b"), "_id");
+    }
+
+    private long getTargetId(ForeignKeyIndex index, long a, long b) {
+        Rows rows = source.query("SELECT " + a + ", " + b, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            return index.getTargetId(rows, columns);
+        } finally {
+            rows.close();
+        }
+    }
+
+    /** Inverts {@link LongLongHashMap#mix(long)}, to find values with colliding keys. */
+    private static long unmix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= inverse(0xc4ceb9fe1a85ec53L);
+        hash ^= hash >>> 33;
+        hash *= inverse(0xff51afd7ed558ccdL);
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /** Returns the multiplicative inverse of an odd value modulo 2^64. */
+    private static long inverse(long value) {
+        long inverse = value;
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - value * inverse;
+        }
+        return inverse;
+    }
+
+    private static class Target {
+        long id;
+    }
+}
@@ -0,0 +1,99 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdTranslationTest {
+
+    /** Room for 4096 IDs in memory. */
+    private static final long MAX_MEMORY_BYTES = 4096 * 16;
+
+    private File directory;
+    private IdTranslation idTranslation;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("ids", "");
+        //noinspection ResultOfMethodCallIgnored only reserves a unique name for the directory
+        directory.delete();
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdir();
+        idTranslation = new IdTranslation(MAX_MEMORY_BYTES, directory);
+    }
+
+    @After
+    public void tearDown() {
+        idTranslation.close();
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Test
+    public void translate_acrossRunsOfOneFile() {
+        IdTranslation.Table table = idTranslation.addTable("a");
+        put(table, 10000);
+        assertEquals(1, directory.listFiles().length);
+
+        assertTranslated(table, 10000);
+        assertEquals(0, table.translate(-1));
+        assertEquals(0, table.translate(20001));
+
+        idTranslation.close();
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void put_releasesMemoryOfPreviousTable() {
+        IdTranslation.Table first = idTranslation.addTable("a");
+        put(first, 1000);
+        assertEquals(0, directory.listFiles().length);
+
+        // the second table needs the memory of the first, which is written to a file
+        IdTranslation.Table second = idTranslation.addTable("b");
+        put(second, 4000);
+        assertEquals(1, directory.listFiles().length);
+
+        assertTranslated(first, 1000);
+        assertTranslated(second, 4000);
+    }
+
+    @Test
+    public void getNewIds_fromAnyPosition() {
+        IdTranslation.Table table = idTranslation.addTable("a");
+        put(table, 10000);
+
+        long[] ids = new long[333];
+        for (long position = 0; position < 10000; position += 777) {
+            int count = table.getNewIds(position, ids, ids.length);
+            assertEquals(Math.min(ids.length, 10000 - position), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(newId(position + i), ids[i]);
+            }
+        }
+    }
+
+    /** Puts IDs for rowids 0, 2, 4... */
+    private static void put(IdTranslation.Table table, int count) {
+        for (long i = 0; i < count; i++) {
+            table.put(i * 2, newId(i));
+        }
+        assertEquals(count, table.size());
+    }
+
+    private static void assertTranslated(IdTranslation.Table table, int count) {
+        for (long i = 0; i < count; i++) {
+            assertEquals(newId(i), table.translate(i * 2));
+            assertEquals(0, table.translate(i * 2 + 1));
+        }
+    }
+
+    private static long newId(long position) {
+        return position + 100;
+    }
+}
@@ -0,0 +1,84 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+
+public class TableGraphTest {
+
+    private File file;
+    private JdbcRowSource source;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("graph", ".db");
+        source = JdbcRowSource.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void getOrder_referencedTablesFirst() throws SQLException {
+        createTables("A (b REFERENCES B, c REFERENCES C)", "B (c REFERENCES C)", "C (a)");
+        assertEquals(Arrays.asList("C", "B", "A"), getOrder("A", "B", "C"));
+    }
+
+    @Test
+    public void getOrder_breaksCycleOfReferencedTables() throws SQLException {
+        // A depends on the cycle, so the cycle is broken at B, not at A
+        createTables("A (b REFERENCES B)", "B (c REFERENCES C)", "C (b REFERENCES B)");
+        assertEquals(Arrays.asList("B", "A", "C"), getOrder("A", "B", "C"));
+    }
+
+    @Test
+    public void getOrder_breaksCycleAtSmallestName() throws SQLException {
+        createTables("A (c REFERENCES C)", "B (a REFERENCES A)", "C (b REFERENCES B)");
+        assertEquals(Arrays.asList("A", "B", "C"), getOrder("A", "B", "C"));
+    }
+
+    private void createTables(String... tables) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            for (String table : tables) {
+                statement.execute("CREATE TABLE " + table);
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private List<String> getOrder(String... tableNames) {
+        List<TableMapping> mappings = new ArrayList<>();
+        for (String tableName : tableNames) {
+            mappings.add(new TableMapping(tableName, Object.class));
+        }
+        List<String> order = new ArrayList<>();
+        for (TableMapping tableMapping : new TableGraph(mappings, new SchemaCatalog(source))
+                .getOrder()) {
+            order.add(tableMapping.getTableName());
+        }
+        return order;
+    }
+}
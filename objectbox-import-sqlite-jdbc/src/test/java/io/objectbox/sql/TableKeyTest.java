@@ -0,0 +1,122 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableKeyTest {
+
+    /** Key values of all storage classes, a column without type affinity keeps them as is. */
+    private static final String[] KEY_VALUES = {"-3", "7", "0.1", "0.30000000000000004", "1e300",
+            "4.9e-324", "-1e999", "1e999", "'a'", "'it''s'", "X''", "X'00'", "X'00FF'"};
+
+    private File file;
+    private JdbcRowSource source;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        file = File.createTempFile("keys", ".db");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE t (k PRIMARY KEY, v) WITHOUT ROWID");
+            for (int i = 0; i < KEY_VALUES.length; i++) {
+                statement.execute("INSERT INTO t VALUES (" + KEY_VALUES[i] + ", " + i + ")");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        source = JdbcRowSource.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void isWithoutRowIdSql_allowsTableOptions() {
+        assertTrue(TableKey.isWithoutRowIdSql("CREATE TABLE t (a PRIMARY KEY) WITHOUT ROWID"));
+        assertTrue(TableKey.isWithoutRowIdSql("CREATE TABLE t (a PRIMARY KEY) without rowid;"));
+        assertTrue(TableKey.isWithoutRowIdSql(
+                "CREATE TABLE t (a INT PRIMARY KEY) WITHOUT ROWID, STRICT"));
+        assertTrue(TableKey.isWithoutRowIdSql(
+                "CREATE TABLE t (a INT PRIMARY KEY) STRICT , WITHOUT ROWID"));
+        assertFalse(TableKey.isWithoutRowIdSql("CREATE TABLE t (a INT PRIMARY KEY) STRICT"));
+        assertFalse(TableKey.isWithoutRowIdSql("CREATE TABLE t (a INT PRIMARY KEY)"));
+        assertFalse(TableKey.isWithoutRowIdSql(null));
+    }
+
+    @Test
+    public void appendAfter_continuesAfterValuesOfAnyStorageClass() {
+        TableKey key = TableKey.ofPrimaryKey("t", Collections.singletonList("k"));
+
+        // each key must select exactly the rows after it
+        StringBuilder sql = new StringBuilder("SELECT ");
+        key.appendSelection(sql);
+        sql.append(" FROM t ORDER BY ");
+        key.appendColumns(sql);
+        Rows rows = source.query(sql.toString(), null);
+        int rowCount = 0;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (rows.moveToNext()) {
+                rowCount++;
+                String[] afterKey = key.readKey(rows, 0);
+                assertEquals(KEY_VALUES.length - rowCount, countAfter(key, afterKey));
+            }
+        } finally {
+            rows.close();
+        }
+        assertEquals(KEY_VALUES.length, rowCount);
+    }
+
+    @Test
+    public void realLiteral_isExact() {
+        double[] values = {0.1, -0.1, 1.0 / 3, Math.PI, 1e300, -1e-300, Double.MAX_VALUE,
+                Double.MIN_VALUE, Double.MIN_NORMAL, Math.nextUp(1.0), 0,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double value : values) {
+            Rows rows = source.query("SELECT " + TableKey.realLiteral(value), null);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                assertTrue(rows.moveToNext());
+                assertEquals(Double.doubleToLongBits(value),
+                        Double.doubleToLongBits(rows.getDouble(0)));
+            } finally {
+                rows.close();
+            }
+        }
+    }
+
+    private long countAfter(TableKey key, String[] afterKey) {
+        StringBuilder sql = new StringBuilder("SELECT count(*) FROM t WHERE ");
+        key.appendAfter(sql, afterKey);
+        Rows rows = source.query(sql.toString(), null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            return rows.getLong(0);
+        } finally {
+            rows.close();
+        }
+    }
+}
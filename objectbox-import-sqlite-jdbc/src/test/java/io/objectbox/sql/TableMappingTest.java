@@ -0,0 +1,121 @@
+package io.objectbox.sql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import io.objectbox.sql.jdbc.JdbcRowSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TableMappingTest {
+
+    private File file;
+    private JdbcRowSource source;
+    private TableMapping tableMapping;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        file = File.createTempFile("ranges", ".db");
+        execute("CREATE TABLE t (_id INTEGER PRIMARY KEY)");
+        source = JdbcRowSource.open(file);
+        tableMapping = new TableMapping("t", Object.class);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void splitRowIdRanges_coverAllRowIds() throws SQLException {
+        insertRowIds(1, 1000);
+        List<RowIdRange> ranges = tableMapping.splitRowIdRanges(source, 4, 100);
+        assertEquals(4, ranges.size());
+        assertCover(ranges, 1, 1000);
+    }
+
+    @Test
+    public void splitRowIdRanges_negativeRowIds() throws SQLException {
+        insertRowIds(-500, 499);
+        List<RowIdRange> ranges = tableMapping.splitRowIdRanges(source, 3, 1);
+        assertEquals(3, ranges.size());
+        assertCover(ranges, -500, 499);
+    }
+
+    @Test
+    public void splitRowIdRanges_spanLargerThanLong() throws SQLException {
+        execute("INSERT INTO t VALUES (" + Long.MIN_VALUE + "), (0), (" + Long.MAX_VALUE + ")");
+        List<RowIdRange> ranges = tableMapping.splitRowIdRanges(source, 3, 1);
+        assertEquals(3, ranges.size());
+        assertCover(ranges, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void splitRowIdRanges_singleRow() throws SQLException {
+        insertRowIds(7, 7);
+        List<RowIdRange> ranges = tableMapping.splitRowIdRanges(source, 4, 0);
+        assertEquals(1, ranges.size());
+        assertCover(ranges, 7, 7);
+    }
+
+    @Test
+    public void splitRowIdRanges_fewerRowsThanPerRange() throws SQLException {
+        insertRowIds(1, 99);
+        List<RowIdRange> ranges = tableMapping.splitRowIdRanges(source, 4, 100);
+        assertEquals(1, ranges.size());
+        assertCover(ranges, 1, 99);
+    }
+
+    @Test
+    public void splitRowIdRanges_emptyTable() {
+        assertTrue(tableMapping.splitRowIdRanges(source, 4, 1).isEmpty());
+    }
+
+    /**
+     * Asserts ranges are ordered, do not overlap and together cover all rowids from first to last.
+     */
+    private static void assertCover(List<RowIdRange> ranges, long first, long last) {
+        long next = first;
+        for (RowIdRange range : ranges) {
+            assertEquals(next, range.first);
+            assertTrue(range.toString(), range.first <= range.last);
+            next = range.last + 1;
+        }
+        assertEquals(last, ranges.get(ranges.size() - 1).last);
+    }
+
+    private void insertRowIds(long first, long last) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO t VALUES ");
+        for (long rowId = first; rowId <= last; rowId++) {
+            if (rowId > first) {
+                sql.append(", ");
+            }
+            sql.append('(').append(rowId).append(')');
+        }
+        execute(sql.toString());
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
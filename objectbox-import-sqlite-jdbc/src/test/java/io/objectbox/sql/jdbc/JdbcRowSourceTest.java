@@ -0,0 +1,135 @@
+package io.objectbox.sql.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import io.objectbox.sql.ForeignKey;
+import io.objectbox.sql.RowSource;
+import io.objectbox.sql.Rows;
+import io.objectbox.sql.SchemaCatalog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcRowSourceTest {
+
+    private File file;
+    private JdbcRowSource source;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        file = File.createTempFile("rows", ".db");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE Customer (_id INTEGER PRIMARY KEY, name TEXT)");
+            statement.execute("CREATE TABLE \"Order\" (_id INTEGER PRIMARY KEY, text TEXT,"
+                    + " amount REAL, data BLOB, customer INTEGER REFERENCES Customer(_id))");
+            statement.execute("INSERT INTO Customer VALUES (1, 'Leia')");
+            statement.execute("INSERT INTO \"Order\" VALUES (1, 'Lightsaber', 1.5, x'0102', 1)");
+            statement.execute("INSERT INTO \"Order\" VALUES (2, NULL, NULL, NULL, NULL)");
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        source = JdbcRowSource.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void query_readsValuesLikeCursor() {
+        Rows rows = source.query("SELECT _id, text, amount, data, customer FROM \"Order\""
+                + " WHERE _id >= ? ORDER BY _id", new String[]{"1"});
+        assertEquals(5, rows.getColumnCount());
+        assertEquals(1, rows.getColumnIndex("text"));
+        assertEquals(2, rows.getColumnIndex("AMOUNT"));
+        assertEquals(-1, rows.getColumnIndex("missing"));
+
+        assertTrue(rows.moveToNext());
+        for (int i = 0; i < 5; i++) {
+            assertFalse(rows.isNull(i));
+        }
+        assertEquals(1, rows.getLong(0));
+        assertEquals("Lightsaber", rows.getString(1));
+        assertEquals(1.5, rows.getDouble(2), 0);
+        assertArrayEquals(new byte[]{1, 2}, rows.getBlob(3));
+        assertFalse(rows.isNull(4));
+        assertEquals(1, rows.getInt(4));
+
+        // NULL is read as 0 or null
+        assertTrue(rows.moveToNext());
+        for (int i = 1; i < 5; i++) {
+            assertTrue(rows.isNull(i));
+        }
+        assertNull(rows.getString(1));
+        assertEquals(0, rows.getFloat(2), 0);
+        assertNull(rows.getBlob(3));
+        assertEquals(0, rows.getLong(4));
+
+        assertFalse(rows.moveToNext());
+        rows.close();
+    }
+
+    @Test
+    public void schemaCatalog() {
+        SchemaCatalog schemaCatalog = new SchemaCatalog(source);
+        assertTrue(schemaCatalog.hasTable("Order"));
+        assertEquals(Arrays.asList("_id", "text", "amount", "data", "customer"),
+                schemaCatalog.getColumnNames("Order"));
+        assertEquals(2, schemaCatalog.indexOfColumn("Order", "AMOUNT"));
+        assertEquals(Collections.singletonList("_id"), schemaCatalog.getPrimaryKeyColumns("Order"));
+        Set<ForeignKey> foreignKeys = schemaCatalog.getForeignKeys("Order");
+        assertEquals(1, foreignKeys.size());
+        ForeignKey foreignKey = foreignKeys.iterator().next();
+        assertEquals("customer", foreignKey.columnFrom);
+        assertEquals("Customer", foreignKey.tableTo);
+        assertEquals("_id", foreignKey.columnTo);
+    }
+
+    @Test
+    public void openReadOnly() {
+        assertTrue(source.supportsReadOnlyConnections());
+        RowSource readOnly = source.openReadOnly();
+        Rows rows = readOnly.query("SELECT count(*) FROM \"Order\"", null);
+        assertTrue(rows.moveToNext());
+        assertEquals(2, rows.getInt(0));
+        rows.close();
+        readOnly.close();
+    }
+
+    @Test
+    public void close_keepsConnectionOfCaller() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            new JdbcRowSource(connection).close();
+            assertFalse(connection.isClosed());
+        } finally {
+            connection.close();
+        }
+
+        source.close();
+        assertTrue(source.getConnection().isClosed());
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an {@code io.objectbox.sql.EntityRowMapper} named {@code <Entity>_RowMapper} for each
+ * top-level {@code @Entity} class. The generated accessors read and write fields directly, or
+ * through getters and setters for private fields, so no reflection is needed when migrating.
+ * <p/>
+ * Entities without a non-private no-arg constructor are skipped. Private fields without getter
+ * and setter get no accessor, for those reflection is still used.
+ */
+public class EntityRowMapperProcessor extends AbstractProcessor {
+
+    private static final String ENTITY_ANNOTATION = "io.objectbox.annotation.Entity";
+    private static final String TRANSIENT_ANNOTATION = "io.objectbox.annotation.Transient";
+    private static final String CLASS_NAME_SUFFIX = "_RowMapper";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ENTITY_ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                TypeElement entity = (TypeElement) element;
+                if (entity.getNestingKind() != NestingKind.TOP_LEVEL
+                        || entity.getModifiers().contains(Modifier.PRIVATE)
+                        || !hasNoArgConstructor(entity)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                            "Not generating row mapper, reflection is used instead", entity);
+                    continue;
+                }
+                try {
+                    writeRowMapper(entity);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Failed to write row mapper: " + e.getMessage(), entity);
+                }
+            }
+        }
+        // other processors, like the one of ObjectBox, need to see @Entity as well
+        return false;
+    }
+
+    private static boolean hasNoArgConstructor(TypeElement entity) {
+        for (ExecutableElement constructor :
+                ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()
+                    && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeRowMapper(TypeElement entity) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(entity);
+        String packageName = packageElement.getQualifiedName().toString();
+        String entityName = entity.getSimpleName().toString();
+        String className = entityName + CLASS_NAME_SUFFIX;
+
+        List<FieldAccess> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            FieldAccess fieldAccess = fieldAccessOf(entity, field);
+            if (fieldAccess != null) {
+                fields.add(fieldAccess);
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by objectbox-import-sqlite-processor, do not edit.\n");
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import io.objectbox.sql.EntityRowMapper;\n");
+        source.append("import io.objectbox.sql.FieldAccessor;\n\n");
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("public final class ").append(className)
+                .append(" implements EntityRowMapper<").append(entityName).append("> {\n\n");
+
+        for (FieldAccess field : fields) {
+            source.append("    private static final FieldAccessor ").append(field.constantName())
+                    .append(" = new FieldAccessor() {\n");
+            source.append("        @Override\n");
+            source.append("        public void set(Object entity, Object value) {\n");
+            source.append("            ")
+                    .append(field.setStatement(entityName, "(" + field.typeName + ") value"))
+                    .append('\n');
+            source.append("        }\n\n");
+            source.append("        @Override\n");
+            source.append("        public Object get(Object entity) {\n");
+            source.append("            return ").append(field.getExpression(entityName))
+                    .append(";\n");
+            source.append("        }\n");
+            if (field.primitiveName != null) {
+                // avoid boxing, see FieldAccessor
+                String primitiveSetter = "set" + capitalize(field.primitiveName);
+                source.append("\n");
+                source.append("        @Override\n");
+                source.append("        public void ").append(primitiveSetter)
+                        .append("(Object entity, ").append(field.primitiveName)
+                        .append(" value) {\n");
+                source.append("            ").append(field.setStatement(entityName, "value"))
+                        .append('\n');
+                source.append("        }\n");
+            }
+            source.append("    };\n\n");
+        }
+
+        source.append("    @Override\n");
+        source.append("    public ").append(entityName).append(" newEntity() {\n");
+        source.append("        return new ").append(entityName).append("();\n");
+        source.append("    }\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public FieldAccessor accessorFor(String fieldName) {\n");
+        for (FieldAccess field : fields) {
+            source.append("        if (\"").append(field.name).append("\".equals(fieldName)) {\n");
+            source.append("            return ").append(field.constantName()).append(";\n");
+            source.append("        }\n");
+        }
+        source.append("        return null;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, entity);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns how to access the field, or {@code null} if it can not be accessed without
+     * reflection or is not persisted.
+     */
+    private FieldAccess fieldAccessOf(TypeElement entity, VariableElement field) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)
+                || modifiers.contains(Modifier.FINAL)
+                || hasAnnotation(field, TRANSIENT_ANNOTATION)) {
+            return null;
+        }
+        String name = field.getSimpleName().toString();
+        TypeMirror type = field.asType();
+        String typeName = processingEnv.getTypeUtils().erasure(type).toString();
+        boolean isPrimitive = type.getKind().isPrimitive();
+        String boxedTypeName = isPrimitive
+                ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) type)
+                .getQualifiedName().toString()
+                : typeName;
+        // char is not supported by FieldAccessor primitive setters
+        String primitiveName = isPrimitive && type.getKind() != TypeKind.CHAR ? typeName : null;
+        if (!modifiers.contains(Modifier.PRIVATE)) {
+            return new FieldAccess(name, boxedTypeName, primitiveName, null, null);
+        }
+        String capitalized = capitalize(name);
+        String setter = "set" + capitalized;
+        String getter = type.getKind() == TypeKind.BOOLEAN
+                ? "is" + capitalized : "get" + capitalized;
+        if (hasSetter(entity, setter, type) && hasGetter(entity, getter, type)) {
+            return new FieldAccess(name, boxedTypeName, primitiveName, getter, setter);
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return name.substring(0, 1).toUpperCase(Locale.US) + name.substring(1);
+    }
+
+    /**
+     * Returns if there is a setter taking exactly the field type, overloads for other types are
+     * ignored.
+     */
+    private boolean hasSetter(TypeElement entity, String name, TypeMirror fieldType) {
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : accessibleMethods(entity, name)) {
+            if (method.getParameters().size() == 1
+                    && types.isSameType(method.getParameters().get(0).asType(), fieldType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns if there is a getter returning exactly the field type.
+     */
+    private boolean hasGetter(TypeElement entity, String name, TypeMirror fieldType) {
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : accessibleMethods(entity, name)) {
+            if (method.getParameters().isEmpty()
+                    && types.isSameType(method.getReturnType(), fieldType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ExecutableElement> accessibleMethods(TypeElement entity, String name) {
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(entity.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(name)
+                    && !method.getModifiers().contains(Modifier.PRIVATE)
+                    && !method.getModifiers().contains(Modifier.STATIC)) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (annotation.getAnnotationType().toString().equals(annotationName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class FieldAccess {
+        final String name;
+        /** Type to cast values to, boxed for primitives. */
+        final String typeName;
+        /** Name of the primitive type, or null if not primitive. */
+        final String primitiveName;
+        final String getter;
+        final String setter;
+
+        FieldAccess(String name, String typeName, String primitiveName, String getter,
+                    String setter) {
+            this.name = name;
+            this.typeName = typeName;
+            this.primitiveName = primitiveName;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String constantName() {
+            return "FIELD_" + name;
+        }
+
+        String setStatement(String entityName, String value) {
+            if (setter != null) {
+                return "((" + entityName + ") entity)." + setter + "(" + value + ");";
+            }
+            return "((" + entityName + ") entity)." + name + " = " + value + ";";
+        }
+
+        String getExpression(String entityName) {
+            if (getter != null) {
+                return "((" + entityName + ") entity)." + getter + "()";
+            }
+            return "((" + entityName + ") entity)." + name;
+        }
+    }
+}
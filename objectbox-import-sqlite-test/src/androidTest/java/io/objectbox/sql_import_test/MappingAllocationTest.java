@@ -0,0 +1,85 @@
+package io.objectbox.sql_import_test;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.objectbox.BoxStore;
+import io.objectbox.sql.AndroidRowSource;
+import io.objectbox.sql.Rows;
+import io.objectbox.sql.SqlMigration;
+import io.objectbox.sql.TableMapping;
+import io.objectbox.sql_import_test.DatabaseContract.SimpleEntity;
+import io.objectbox.sql_import_test.model.MyObjectBox;
+import io.objectbox.sql_import_test.model.SimpleEntity_;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that mapping rows of entities with only primitive properties does not allocate.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MappingAllocationTest {
+
+    private static final int ROWS = 10000;
+
+    @Test
+    public void mapRow_primitiveProperties_doesNotAllocate() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+
+        DatabaseHelper.delete(appContext);
+        SQLiteDatabase database = new DatabaseHelper(appContext).getWritableDatabase();
+        SqliteInsertHelper.insertSimpleEntity(database);
+
+        BoxStore.deleteAllFiles(appContext, null);
+        BoxStore boxStore = MyObjectBox.builder().androidContext(appContext).build();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.mapTableToEntity(SimpleEntity.TABLE_NAME,
+                io.objectbox.sql_import_test.model.SimpleEntity.class)
+                .mapColumnToProperty(SimpleEntity._ID, SimpleEntity_.id)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_BOOLEAN, SimpleEntity_.simpleBoolean)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_INTEGER, SimpleEntity_.simpleInteger)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_SHORT, SimpleEntity_.simpleShort)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_LONG, SimpleEntity_.simpleLong)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_FLOAT, SimpleEntity_.simpleFloat)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_DOUBLE, SimpleEntity_.simpleDouble)
+                .mapColumnToProperty(SimpleEntity.COLUMN_NAME_BYTE, SimpleEntity_.simpleByte)
+                .build();
+        TableMapping tableMapping = migration.getTableMap().get(SimpleEntity.TABLE_NAME);
+
+        Rows row = tableMapping.query(new AndroidRowSource(database));
+        assertTrue(row.moveToNext());
+        io.objectbox.sql_import_test.model.SimpleEntity entity =
+                new io.objectbox.sql_import_test.model.SimpleEntity();
+        // warm up, e.g. to resolve classes and fill the CursorWindow
+        tableMapping.mapRow(row, entity);
+
+        //noinspection deprecation only way to count allocations on a device
+        Debug.resetThreadAllocCount();
+        //noinspection deprecation
+        Debug.startAllocCounting();
+        for (int i = 0; i < ROWS; i++) {
+            tableMapping.mapRow(row, entity);
+        }
+        //noinspection deprecation
+        Debug.stopAllocCounting();
+        //noinspection deprecation
+        int allocations = Debug.getThreadAllocCount();
+
+        row.close();
+        assertEquals(21L, entity.simpleLong);
+        // allow a few allocations not caused by mapping, but none per row
+        assertTrue("Allocated " + allocations + " objects for " + ROWS + " rows",
+                allocations < 10);
+
+        boxStore.close();
+        database.close();
+    }
+}
@@ -3,23 +3,39 @@ package io.objectbox.sql_import_test;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import io.objectbox.Box;
 import io.objectbox.BoxStore;
+import io.objectbox.sql.AndroidRowSource;
 import io.objectbox.sql.ColumnMapping;
+import io.objectbox.sql.ConversionCache;
+import io.objectbox.sql.ForeignKey;
+import io.objectbox.sql.MigrationListener;
+import io.objectbox.sql.ReadPlan;
+import io.objectbox.sql.Row;
+import io.objectbox.sql.Rows;
+import io.objectbox.sql.SchemaCatalog;
 import io.objectbox.sql.SqlMigration;
 import io.objectbox.sql.TableMapping;
+import io.objectbox.sql.TableMetrics;
 import io.objectbox.sql_import_test.model.Customer;
 import io.objectbox.sql_import_test.model.Customer_;
 import io.objectbox.sql_import_test.model.Mode;
@@ -27,13 +43,16 @@ import io.objectbox.sql_import_test.model.MyObjectBox;
 import io.objectbox.sql_import_test.model.Order;
 import io.objectbox.sql_import_test.model.Order_;
 import io.objectbox.sql_import_test.model.SimpleEntity;
+import io.objectbox.sql_import_test.model.SimpleEntity_RowMapper;
 import io.objectbox.sql_import_test.model.SimpleEntity_;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Instrumented test, which will execute on an Android device.
@@ -43,6 +62,24 @@ import static org.junit.Assert.assertTrue;
 @RunWith(AndroidJUnit4.class)
 public class MigrationTest {
 
+    private Context appContext;
+    private SQLiteDatabase database;
+    private BoxStore boxStore;
+    /** IDs of the rows inserted by {@link #insertEntities()}. */
+    private long[] simpleEntityIds;
+    private long[] customerIds;
+    private long[] orderIds;
+
+    @After
+    public void tearDown() {
+        if (boxStore != null) {
+            boxStore.close();
+        }
+        if (database != null) {
+            database.close();
+        }
+    }
+
     @Test
     public void migrateWithAutoDetect() {
         // Context of the app under test.
@@ -80,6 +117,11 @@ public class MigrationTest {
         assertCustomerMapping(map);
         assertOrderMapping(map);
 
+        // generated row mappers are used instead of reflection
+        assertTrue(map.get("SimpleEntity").getRowMapper() instanceof SimpleEntity_RowMapper);
+        ColumnMapping textMapping = map.get("SimpleEntity").getColumnMap().get("text");
+        assertSame(new SimpleEntity_RowMapper().accessorFor("text"), textMapping.getAccessor());
+
         // migrate
         migration.migrate(null);
 
@@ -90,6 +132,641 @@ public class MigrationTest {
         boxStore.close();
     }
 
+    @Test
+    public void migrateWithAutoDetect_batched() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        // 3 orders do not fit into batches of 2, so the last batch is only partially filled
+        migration.setBatchSize(2);
+
+        // migrate
+        migration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+    }
+
+    @Test
+    public void migrateWithAutoDetect_paged() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        // read each row with a separate query
+        migration.setPageSize(1);
+
+        // migrate
+        migration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+    }
+
+    @Test
+    public void migrateWithAutoDetect_pipelined() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setBatchSize(2);
+        // a buffer of a single batch makes readers wait for the writer
+        migration.setPipelined(2, 1);
+
+        // migrate
+        migration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+    }
+
+    @Test
+    public void migrateWithAutoDetect_pipelinedWithOwnConnections() {
+        openDatabaseAndBoxStore();
+        // readers open their own connection if write-ahead logging is enabled
+        assertTrue(database.enableWriteAheadLogging());
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setBatchSize(2);
+        // orders are only read once customers were migrated
+        migration.setPipelined(3, 2);
+        // read the 3 orders as 2 ranges in parallel
+        migration.setTablePartitions(2, 1);
+        final Map<String, TableMetrics> ended = new HashMap<>();
+        migration.setMigrationListener(new MigrationListener() {
+            @Override
+            public void onTableStart(TableMetrics metrics) {
+            }
+
+            @Override
+            public void onTableProgress(TableMetrics metrics) {
+            }
+
+            @Override
+            public void onTableEnd(TableMetrics metrics) {
+                ended.put(metrics.getTableName(), metrics);
+            }
+        }, 0);
+
+        // migrate
+        migration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+        assertEquals(2, ended.get(DatabaseContract.Order.TABLE_NAME).getReadTaskCount());
+    }
+
+    @Test
+    public void migrateWithAutoDetect_directRead() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setBatchSize(2);
+        // nothing is written to the database any more, so its file is complete
+        migration.setDirectReadFile(new File(database.getPath()));
+
+        // migrate
+        migration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+    }
+
+    @Test
+    public void migrateWithStreamingMapper_largeBlobs() {
+        openDatabaseAndBoxStore();
+        // larger than the 2 MB CursorWindow
+        byte[] largeBlob = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < largeBlob.length; i++) {
+            largeBlob[i] = (byte) i;
+        }
+        byte[] smallBlob = new byte[]{1, 2, 3};
+        long largeId = SqliteInsertHelper.insertSimpleEntityWithBlob(database, largeBlob);
+        long smallId = SqliteInsertHelper.insertSimpleEntityWithBlob(database, smallBlob);
+        long nullId = SqliteInsertHelper.insertSimpleEntityAllNull(database);
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.modifyTableMapping(DatabaseContract.SimpleEntity.TABLE_NAME)
+                .mapColumnToProperty(DatabaseContract.SimpleEntity.COLUMN_NAME_BYTE_ARRAY,
+                        SimpleEntity_.byteArray, new ColumnMapping.BlobStreamingMapper())
+                .build();
+
+        // migrate
+        migration.migrate(null);
+
+        Box<SimpleEntity> box = boxStore.boxFor(SimpleEntity.class);
+        assertTrue(Arrays.equals(largeBlob, box.get(largeId).getByteArray()));
+        assertTrue(Arrays.equals(smallBlob, box.get(smallId).getByteArray()));
+        assertNull(box.get(nullId).getByteArray());
+    }
+
+    @Test
+    public void migrateWithAdaptiveWindowSize() {
+        openDatabaseAndBoxStore();
+        // 40 rows of 100 KB do not fit into the default 2 MB CursorWindow
+        byte[] blob = new byte[100 * 1024];
+        long[] ids = new long[40];
+        for (int i = 0; i < ids.length; i++) {
+            blob[0] = (byte) i;
+            ids[i] = SqliteInsertHelper.insertSimpleEntityWithBlob(database, blob);
+        }
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setAdaptiveWindowSize(true);
+
+        // migrate
+        migration.migrate(null);
+
+        Box<SimpleEntity> box = boxStore.boxFor(SimpleEntity.class);
+        assertEquals(ids.length, box.count());
+        for (int i = 0; i < ids.length; i++) {
+            byte[] byteArray = box.get(ids[i]).getByteArray();
+            assertEquals(blob.length, byteArray.length);
+            assertEquals((byte) i, byteArray[0]);
+        }
+
+        ReadPlan plan = migration.getReadPlans().get(DatabaseContract.SimpleEntity.TABLE_NAME);
+        assertEquals(ids.length, plan.getSampledRows());
+        assertTrue(plan.getRowSize() > blob.length);
+        if (Build.VERSION.SDK_INT >= 28) {
+            // window fits a page of all rows
+            assertTrue(plan.getPageSize() >= ids.length);
+            assertTrue(plan.getWindowSize() > ids.length * plan.getRowSize());
+        } else {
+            // pages fit the default window
+            assertEquals(0, plan.getWindowSize());
+            assertTrue(plan.getPageSize() * plan.getRowSize() < ReadPlan.DEFAULT_WINDOW_SIZE);
+        }
+    }
+
+    @Test
+    public void autoDetect_withPlanCache_skipsDetection() {
+        openDatabaseAndBoxStore();
+        long customerId = SqliteInsertHelper.insertCustomer(database, "Leia");
+        long orderId = SqliteInsertHelper.insertOrder(database, "Lightsaber", customerId);
+
+        File planFile = new File(appContext.getFilesDir(), "migration-plan");
+        //noinspection ResultOfMethodCallIgnored
+        planFile.delete();
+
+        // first run detects and saves the plan
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.setPlanCacheFile(planFile);
+        migration.autoDetect();
+        assertFalse(migration.isPlanCacheUsed());
+        assertTrue(planFile.exists());
+
+        // next run loads the plan
+        SqlMigration cachedMigration = new SqlMigration(database, boxStore);
+        cachedMigration.setPlanCacheFile(planFile);
+        cachedMigration.autoDetect();
+        assertTrue(cachedMigration.isPlanCacheUsed());
+        assertEquals(migration.getTableMap().keySet(), cachedMigration.getTableMap().keySet());
+        for (String tableName : migration.getTableMap().keySet()) {
+            assertEquals(migration.getTableMap().get(tableName).getColumnMap().keySet(),
+                    cachedMigration.getTableMap().get(tableName).getColumnMap().keySet());
+        }
+        ColumnMapping customerMapping = cachedMigration.getTableMap()
+                .get(DatabaseContract.Order.TABLE_NAME)
+                .getColumnMap().get(DatabaseContract.Order.COLUMN_NAME_CUSTOMER);
+        assertSame(ColumnMapping.FOREIGN_KEY_MAPPER, customerMapping.getMapper());
+
+        cachedMigration.migrate(null);
+        Order order = boxStore.boxFor(Order.class).get(orderId);
+        assertEquals("Lightsaber", order.text);
+        assertEquals(customerId, order.customer.getTargetId());
+
+        // a changed schema is detected again
+        database.execSQL("ALTER TABLE \"" + DatabaseContract.Customer.TABLE_NAME
+                + "\" ADD COLUMN extra TEXT");
+        SqlMigration changedMigration = new SqlMigration(database, boxStore);
+        changedMigration.setPlanCacheFile(planFile);
+        changedMigration.autoDetect();
+        assertFalse(changedMigration.isPlanCacheUsed());
+
+        //noinspection ResultOfMethodCallIgnored
+        planFile.delete();
+    }
+
+    @Test
+    public void migrateWithListener_reportsTables() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setBatchSize(2);
+        final List<String> started = new ArrayList<>();
+        final Map<String, TableMetrics> ended = new HashMap<>();
+        migration.setMigrationListener(new MigrationListener() {
+            @Override
+            public void onTableStart(TableMetrics metrics) {
+                started.add(metrics.getTableName());
+            }
+
+            @Override
+            public void onTableProgress(TableMetrics metrics) {
+                assertTrue(metrics.getRowCount() <= metrics.getEstimatedRowCount());
+            }
+
+            @Override
+            public void onTableEnd(TableMetrics metrics) {
+                ended.put(metrics.getTableName(), metrics);
+            }
+        }, 0);
+
+        // migrate
+        migration.migrate(null);
+
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+
+        // customers are referenced by orders, so migrated first
+        assertTrue(started.indexOf(DatabaseContract.Customer.TABLE_NAME)
+                < started.indexOf(DatabaseContract.Order.TABLE_NAME));
+        assertEquals(started.size(), ended.size());
+        TableMetrics orderMetrics = ended.get(DatabaseContract.Order.TABLE_NAME);
+        assertEquals(orderIds.length, orderMetrics.getEstimatedRowCount());
+        assertEquals(orderIds.length, orderMetrics.getRowCount());
+        assertTrue(orderMetrics.getReadNanos() > 0);
+        assertTrue(orderMetrics.getMapNanos() > 0);
+        assertTrue(orderMetrics.getPutNanos() > 0);
+        assertTrue(orderMetrics.getElapsedNanos() >= orderMetrics.getReadNanos()
+                + orderMetrics.getMapNanos() + orderMetrics.getPutNanos());
+    }
+
+    @Test
+    public void migratePipelined_readerFails_rollsBack() {
+        openDatabaseAndBoxStore();
+        long customerId = SqliteInsertHelper.insertCustomer(database, "Leia");
+        SqliteInsertHelper.insertOrder(database, "Lightsaber", customerId);
+        SqliteInsertHelper.insertOrder(database, "Speeder", customerId);
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setPipelined(2, 1);
+        migration.modifyTableMapping(DatabaseContract.Order.TABLE_NAME)
+                .mapColumnToProperty(DatabaseContract.Order.COLUMN_NAME_TEXT, Order_.text,
+                        new ColumnMapping.Mapper() {
+                            @Override
+                            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
+                                String text = row.getString(mapping.getColumnIndex());
+                                if ("Speeder".equals(text)) {
+                                    throw new IllegalStateException("Simulated failure");
+                                }
+                                mapping.setValue(entity, text);
+                            }
+                        })
+                .build();
+        try {
+            migration.migrate(null);
+            fail("Should have thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("Simulated failure", e.getMessage());
+        }
+        // nothing was committed
+        assertEquals(0, boxStore.boxFor(Customer.class).count());
+        assertEquals(0, boxStore.boxFor(Order.class).count());
+    }
+
+    @Test
+    public void migrateInChunks_resumesFromCheckpoint() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        File checkpointFile = new File(appContext.getFilesDir(), "migration-checkpoint");
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+
+        // fail while migrating the last order
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.setChunkSize(1, 0);
+        migration.setCheckpointFile(checkpointFile);
+        migration.modifyTableMapping(DatabaseContract.Order.TABLE_NAME)
+                .mapColumnToProperty(DatabaseContract.Order.COLUMN_NAME_TEXT, Order_.text,
+                        new ColumnMapping.Mapper() {
+                            @Override
+                            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
+                                String text = row.getString(mapping.getColumnIndex());
+                                if ("Speeder".equals(text)) {
+                                    throw new IllegalStateException("Simulated failure");
+                                }
+                                mapping.setValue(entity, text);
+                            }
+                        })
+                .build();
+        try {
+            migration.migrate(null);
+            fail("Should have thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("Simulated failure", e.getMessage());
+        }
+        // orders before the failing one were committed
+        assertEquals(2, boxStore.boxFor(Order.class).count());
+
+        // resume with working mapping
+        SqlMigration resumedMigration = new SqlMigration(database, boxStore);
+        resumedMigration.autoDetect();
+        resumedMigration.setChunkSize(1, 0);
+        resumedMigration.setCheckpointFile(checkpointFile);
+        resumedMigration.migrate(null);
+
+        assertSimpleEntityBox(boxStore, simpleEntityIds, Mode.NULL);
+        assertCustomerBox(boxStore, customerIds);
+        assertOrderBox(boxStore, orderIds, customerIds);
+
+        // migration is complete, so running it again does nothing
+        boxStore.boxFor(Order.class).removeAll();
+        resumedMigration.migrate(null);
+        assertEquals(0, boxStore.boxFor(Order.class).count());
+
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void migrateIncrementally_onlyMigratesNewAndChangedRows() {
+        openDatabaseAndBoxStore();
+        database.execSQL("ALTER TABLE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" ADD COLUMN updated INTEGER");
+        long leiaId = SqliteInsertHelper.insertCustomer(database, "Leia");
+        SqliteInsertHelper.insertOrder(database, "Lightsaber", leiaId);
+        long droidId = SqliteInsertHelper.insertOrder(database, "Droid", leiaId);
+        database.execSQL("UPDATE \"" + DatabaseContract.Order.TABLE_NAME + "\" SET updated = 1");
+
+        File checkpointFile = new File(appContext.getFilesDir(), "migration-checkpoint");
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+
+        // first run migrates all rows
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.modifyTableMapping(DatabaseContract.Order.TABLE_NAME)
+                .highWaterMark("updated")
+                .build();
+        migration.setIncremental(true);
+        migration.setCheckpointFile(checkpointFile);
+        migration.migrate(null);
+        assertEquals(1, boxStore.boxFor(Customer.class).count());
+        assertEquals(2, boxStore.boxFor(Order.class).count());
+
+        // remove migrated orders, so only orders migrated again are in the box
+        boxStore.boxFor(Order.class).removeAll();
+        long lukeId = SqliteInsertHelper.insertCustomer(database, "Luke");
+        long speederId = SqliteInsertHelper.insertOrder(database, "Speeder", lukeId);
+        database.execSQL("UPDATE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" SET updated = 2 WHERE _id = " + speederId);
+        database.execSQL("UPDATE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" SET text = 'Astromech', updated = 3 WHERE _id = " + droidId);
+
+        SqlMigration nextMigration = new SqlMigration(database, boxStore);
+        nextMigration.autoDetect();
+        nextMigration.modifyTableMapping(DatabaseContract.Order.TABLE_NAME)
+                .highWaterMark("updated")
+                .build();
+        nextMigration.setIncremental(true);
+        nextMigration.setCheckpointFile(checkpointFile);
+        nextMigration.migrate(null);
+
+        // customers have no high-water mark, so only new customers were migrated by rowid
+        assertEquals(2, boxStore.boxFor(Customer.class).count());
+        assertEquals("Luke", boxStore.boxFor(Customer.class).get(lukeId).name);
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        assertEquals(2, orderBox.count());
+        assertEquals("Speeder", orderBox.get(speederId).text);
+        assertEquals(lukeId, orderBox.get(speederId).customer.getTargetId());
+        assertEquals("Astromech", orderBox.get(droidId).text);
+
+        // nothing changed, so nothing is migrated
+        orderBox.removeAll();
+        nextMigration.migrate(null);
+        assertEquals(0, orderBox.count());
+
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void migrateIncrementally_realMark() {
+        openDatabaseAndBoxStore();
+        // marks like 0.1 have no exact decimal representation
+        database.execSQL("ALTER TABLE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" ADD COLUMN updated REAL");
+        long leiaId = SqliteInsertHelper.insertCustomer(database, "Leia");
+        for (int i = 0; i < 5; i++) {
+            SqliteInsertHelper.insertOrder(database, "Order " + i, leiaId);
+        }
+        database.execSQL("UPDATE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" SET updated = _id * 0.1");
+
+        File checkpointFile = new File(appContext.getFilesDir(), "migration-checkpoint");
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+
+        // pages continue after the exact mark of their last row
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.modifyTableMapping(DatabaseContract.Order.TABLE_NAME)
+                .highWaterMark("updated")
+                .build();
+        migration.setIncremental(true);
+        migration.setPageSize(2);
+        migration.setCheckpointFile(checkpointFile);
+        migration.migrate(null);
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        assertEquals(5, orderBox.count());
+
+        // nothing changed, so nothing is migrated
+        orderBox.removeAll();
+        migration.migrate(null);
+        assertEquals(0, orderBox.count());
+
+        //noinspection ResultOfMethodCallIgnored
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void migrateWithAutoDetect_foreignKeyToNaturalKey() {
+        openDatabaseAndBoxStore();
+        // orders reference customers by code instead of by _id
+        replaceCustomerAndOrderTables("code TEXT UNIQUE",
+                "customer TEXT, FOREIGN KEY(customer) REFERENCES Customer(code)");
+        database.execSQL("INSERT INTO \"Customer\" VALUES (10, 'Leia', 'C-1')");
+        database.execSQL("INSERT INTO \"Customer\" VALUES (20, 'Luke', 'C-2')");
+        database.execSQL("INSERT INTO \"Order\" VALUES (1, 'Lightsaber', 'C-2')");
+        database.execSQL("INSERT INTO \"Order\" VALUES (2, 'Droid', 'C-1')");
+        database.execSQL("INSERT INTO \"Order\" VALUES (3, 'Speeder', NULL)");
+        // reference a customer that does not exist
+        database.execSQL("PRAGMA foreign_keys = OFF");
+        database.execSQL("INSERT INTO \"Order\" VALUES (4, 'Cloak', 'C-3')");
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.migrate(null);
+
+        // no customer or unknown code
+        assertCustomerIdsOfOrders(20, 10, 0, 0);
+        assertEquals("Luke", boxStore.boxFor(Order.class).get(1).customer.getTarget().name);
+    }
+
+    @Test
+    public void migrateWithAutoDetect_compositeForeignKey() {
+        openDatabaseAndBoxStore();
+        // orders reference customers by region and number
+        replaceCustomerAndOrderTables("region TEXT, number INTEGER, UNIQUE(region, number)",
+                "customer_region TEXT, customer_number INTEGER,"
+                        + " FOREIGN KEY(customer_region, customer_number)"
+                        + " REFERENCES Customer(region, number)");
+        database.execSQL("INSERT INTO \"Customer\" VALUES (10, 'Leia', 'north', 1)");
+        database.execSQL("INSERT INTO \"Customer\" VALUES (20, 'Luke', 'south', 1)");
+        database.execSQL("INSERT INTO \"Order\" VALUES (1, 'Lightsaber', 'south', 1)");
+        database.execSQL("INSERT INTO \"Order\" VALUES (2, 'Droid', 'north', 1)");
+        database.execSQL("INSERT INTO \"Order\" VALUES (3, 'Speeder', 'north', NULL)");
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        // both columns are mapped to the customer ToOne
+        Map<String, ColumnMapping> columnMap = migration.getTableMap()
+                .get(DatabaseContract.Order.TABLE_NAME).getColumnMap();
+        assertTrue(columnMap.get("customer_region").getMapper()
+                instanceof ColumnMapping.ForeignKeyMapper);
+        assertTrue(columnMap.get("customer_number").getMapper()
+                instanceof ColumnMapping.ForeignKeyMapper);
+        migration.migrate(null);
+
+        // a NULL column references no customer
+        assertCustomerIdsOfOrders(20, 10, 0);
+    }
+
+    @Test
+    public void migrateWithAutoDetect_compositeForeignKeyToMissingColumns_fails() {
+        openDatabaseAndBoxStore();
+        replaceCustomerAndOrderTables("region TEXT, number INTEGER",
+                "customer_region TEXT, customer_number INTEGER,"
+                        + " FOREIGN KEY(customer_region, customer_number)"
+                        + " REFERENCES Customer(region, missing)");
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        try {
+            migration.migrate(null);
+            fail("Should have thrown");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("[customer_region, customer_number]"));
+        }
+    }
+
+    @Test
+    public void migrateWithIdTranslation_foreignKeyToNewId() {
+        openDatabaseAndBoxStore();
+        // customers with gaps in rowids
+        database.execSQL("INSERT INTO \"Customer\" (_id, name) VALUES (10, 'Leia')");
+        database.execSQL("INSERT INTO \"Customer\" (_id, name) VALUES (20, 'Luke')");
+        long lightsaberId = SqliteInsertHelper.insertOrder(database, "Lightsaber", 20);
+        long droidId = SqliteInsertHelper.insertOrder(database, "Droid", 10);
+        // reference a customer that does not exist
+        database.execSQL("PRAGMA foreign_keys = OFF");
+        long cloakId = SqliteInsertHelper.insertOrder(database, "Cloak", 30);
+        Box<Customer> customerBox = boxStore.boxFor(Customer.class);
+        Customer existing = new Customer();
+        existing.name = "Han";
+        customerBox.put(existing);
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        // ObjectBox assigns new customer IDs
+        migration.modifyTableMapping(DatabaseContract.Customer.TABLE_NAME)
+                .removeColumnMapping(DatabaseContract.Customer._ID)
+                .build();
+        migration.setIdTranslation(1024 * 1024, appContext.getCacheDir());
+        migration.migrate(null);
+
+        assertEquals(3, customerBox.count());
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        Customer luke = orderBox.get(lightsaberId).customer.getTarget();
+        assertEquals("Luke", luke.name);
+        assertTrue(luke.id != 20);
+        assertEquals("Leia", orderBox.get(droidId).customer.getTarget().name);
+        // no customer with rowid 30
+        assertEquals(0, orderBox.get(cloakId).customer.getTargetId());
+    }
+
+    @Test
+    public void migrateWithChangeCapture_appliesChanges() {
+        openDatabaseAndBoxStore();
+        long customerId = SqliteInsertHelper.insertCustomer(database, "Leia");
+        long lightsaberId = SqliteInsertHelper.insertOrder(database, "Lightsaber", customerId);
+        long droidId = SqliteInsertHelper.insertOrder(database, "Droid", customerId);
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.installChangeCapture();
+        migration.migrate(null);
+        assertEquals(0, migration.applyChanges());
+
+        // change rows after migration
+        long speederId = SqliteInsertHelper.insertOrder(database, "Speeder", customerId);
+        database.execSQL("UPDATE \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" SET text = 'Astromech' WHERE _id = " + droidId);
+        database.execSQL("DELETE FROM \"" + DatabaseContract.Order.TABLE_NAME
+                + "\" WHERE _id = " + lightsaberId);
+
+        assertEquals(3, migration.applyChanges());
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        assertEquals(2, orderBox.count());
+        assertNull(orderBox.get(lightsaberId));
+        assertEquals("Astromech", orderBox.get(droidId).text);
+        assertEquals("Speeder", orderBox.get(speederId).text);
+        assertEquals(customerId, orderBox.get(speederId).customer.getTargetId());
+
+        // the changelog was truncated
+        assertEquals(0, migration.applyChanges());
+
+        migration.removeChangeCapture();
+        SqliteInsertHelper.insertOrder(database, "Cloak", customerId);
+        assertFalse(new SchemaCatalog(database).hasTable("objectbox_changes"));
+    }
+
+    @Test
+    public void migrateWithChangeCapture_foreignKeyToNaturalKey() {
+        openDatabaseAndBoxStore();
+        replaceCustomerAndOrderTables("code TEXT UNIQUE",
+                "customer TEXT, FOREIGN KEY(customer) REFERENCES Customer(code)");
+        database.execSQL("INSERT INTO \"Customer\" VALUES (10, 'Leia', 'C-1')");
+        database.execSQL("INSERT INTO \"Order\" VALUES (1, 'Lightsaber', 'C-1')");
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        migration.installChangeCapture();
+        migration.migrate(null);
+
+        // the code is not mapped, but changes of it are captured for the index of codes
+        database.execSQL("INSERT INTO \"Customer\" VALUES (20, 'Luke', 'C-2')");
+        database.execSQL("UPDATE \"Order\" SET customer = 'C-2' WHERE _id = 1");
+        database.execSQL("UPDATE \"Customer\" SET code = 'C-3' WHERE _id = 10");
+        database.execSQL("INSERT INTO \"Order\" VALUES (2, 'Droid', 'C-3')");
+        assertEquals(4, migration.applyChanges());
+
+        assertCustomerIdsOfOrders(20, 10);
+        migration.removeChangeCapture();
+    }
+
     @Test
     public void migrateWithAutoDetect_customized() {
         // Context of the app under test.
@@ -125,7 +802,7 @@ public class MigrationTest {
                 .mapColumnToProperty(DatabaseContract.Customer.COLUMN_NAME_NAME, Customer_.name,
                         new ColumnMapping.Mapper() {
                             @Override
-                            public void mapValue(ColumnMapping mapping, Cursor row, Object entity) {
+                            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
                                 mapping.setValue(entity, "REDACTED");
                             }
                         })
@@ -148,6 +825,17 @@ public class MigrationTest {
         // migrate
         migration.migrate(null);
 
+        // only mapped columns were queried, so indexes point into that projection
+        // and are in the same order as columns in the table
+        for (ColumnMapping columnMapping : orderMapping.getColumnMap().values()) {
+            assertTrue(columnMapping.getColumnIndex() < 2);
+            for (ColumnMapping other : orderMapping.getColumnMap().values()) {
+                assertEquals(
+                        columnMapping.getTableColumnIndex() < other.getTableColumnIndex(),
+                        columnMapping.getColumnIndex() < other.getColumnIndex());
+            }
+        }
+
         // assert box store
         Box<SimpleEntity> simpleEntityBox = boxStore.boxFor(SimpleEntity.class);
         assertEquals(0, simpleEntityBox.count());
@@ -167,6 +855,58 @@ public class MigrationTest {
         boxStore.close();
     }
 
+    @SuppressWarnings("deprecation")
+    @Test
+    public void migrateWithCursorApi() {
+        openDatabaseAndBoxStore();
+        insertEntities();
+
+        SqlMigration migration = new SqlMigration(database, boxStore);
+        migration.autoDetect();
+        // a mapper and a table mapping written before rows were read through a RowSource
+        migration.modifyTableMapping(DatabaseContract.Customer.TABLE_NAME)
+                .mapColumnToProperty(DatabaseContract.Customer.COLUMN_NAME_NAME, Customer_.name,
+                        new ColumnMapping.CursorMapper() {
+                            @Override
+                            public void mapValue(ColumnMapping mapping, Cursor row,
+                                                 Object entity) {
+                                mapping.setValue(entity, "REDACTED");
+                            }
+                        })
+                .build();
+        final List<Long> mappedOrderIds = new ArrayList<>();
+        TableMapping orderMapping = new TableMapping(DatabaseContract.Order.TABLE_NAME,
+                Order.class) {
+            @Override
+            public void mapRow(Cursor row, Object entity) {
+                super.mapRow(row, entity);
+                mappedOrderIds.add(((Order) entity).id);
+            }
+        };
+        for (ColumnMapping columnMapping : migration.getTableMap()
+                .get(DatabaseContract.Order.TABLE_NAME).getColumnMap().values()) {
+            orderMapping.putColumnMapping(columnMapping);
+        }
+        HashMap<String, TableMapping> tableMap = new HashMap<>(migration.getTableMap());
+        tableMap.put(DatabaseContract.Order.TABLE_NAME, orderMapping);
+        migration.setTableMap(tableMap);
+
+        // the Cursor of each row is handed to them
+        migration.migrate(null);
+
+        Box<Customer> customerBox = boxStore.boxFor(Customer.class);
+        assertEquals(2, customerBox.count());
+        for (Customer customer : customerBox.getAll()) {
+            assertEquals("REDACTED", customer.name);
+        }
+        assertEquals(3, mappedOrderIds.size());
+        assertOrderBox(boxStore, orderIds, customerIds);
+
+        Cursor cursor = orderMapping.query(database);
+        assertEquals(orderMapping.getColumnMap().size(), cursor.getColumnCount());
+        cursor.close();
+    }
+
     @Test
     public void migrateWithCustomMapping() {
         // Context of the app under test.
@@ -217,7 +957,7 @@ public class MigrationTest {
                 .mapColumnToProperty(DatabaseContract.SimpleEntity.COLUMN_NAME_MODE,
                         SimpleEntity_.mode, new ColumnMapping.Mapper() {
                             @Override
-                            public void mapValue(ColumnMapping mapping, Cursor row, Object entity) {
+                            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
                                 int mode;
                                 if (row.isNull(mapping.getColumnIndex())) {
                                     mode = Mode.DEFAULT.toId();
@@ -227,6 +967,7 @@ public class MigrationTest {
                                 mapping.setValue(entity, mode);
                             }
                         })
+                .cacheConversions(DatabaseContract.SimpleEntity.COLUMN_NAME_MODE, 4)
                 .build();
         migration.mapTableToEntity(DatabaseContract.Customer.TABLE_NAME, Customer.class)
                 .mapColumnToProperty(DatabaseContract.Customer._ID, Customer_.id)
@@ -252,9 +993,115 @@ public class MigrationTest {
         assertCustomerBox(boxStore, customerIds);
         assertOrderBox(boxStore, orderIds, customerIds);
 
+        // both rows have a different mode, mapping them again only hits the cache
+        TableMapping simpleEntityMapping = map.get(DatabaseContract.SimpleEntity.TABLE_NAME);
+        ConversionCache conversionCache = simpleEntityMapping.getColumnMap()
+                .get(DatabaseContract.SimpleEntity.COLUMN_NAME_MODE).getConversionCache();
+        assertNotNull(conversionCache);
+        assertEquals(2, conversionCache.getMissCount());
+        assertEquals(0, conversionCache.getHitCount());
+        Rows rows = simpleEntityMapping.query(new AndroidRowSource(database));
+        while (rows.moveToNext()) {
+            simpleEntityMapping.mapRow(rows, new SimpleEntity());
+        }
+        rows.close();
+        assertEquals(2, conversionCache.getMissCount());
+        assertEquals(2, conversionCache.getHitCount());
+
         boxStore.close();
     }
 
+    @Test
+    public void schemaCatalog() {
+        // Context of the app under test.
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        assertEquals("io.objectbox.sql_import_test", appContext.getPackageName());
+
+        // database setup
+        DatabaseHelper.delete(appContext);
+        SQLiteDatabase database = new DatabaseHelper(appContext).getWritableDatabase();
+
+        SchemaCatalog catalog = new SchemaCatalog(database);
+        assertTrue(catalog.hasTable(DatabaseContract.Order.TABLE_NAME));
+        assertFalse(catalog.hasTable("Orders"));
+        assertFalse(catalog.isWithoutRowId(DatabaseContract.Order.TABLE_NAME));
+
+        assertEquals(0, catalog.indexOfColumn(DatabaseContract.Order.TABLE_NAME,
+                DatabaseContract.Order._ID));
+        assertEquals(2, catalog.indexOfColumn(DatabaseContract.Order.TABLE_NAME,
+                DatabaseContract.Order.COLUMN_NAME_CUSTOMER));
+        assertEquals(-1, catalog.indexOfColumn(DatabaseContract.Order.TABLE_NAME, "missing"));
+        assertEquals(Arrays.asList(DatabaseContract.Order._ID), catalog.getPrimaryKeyColumns(
+                DatabaseContract.Order.TABLE_NAME));
+
+        Set<ForeignKey> foreignKeys = catalog.getForeignKeys(DatabaseContract.Order.TABLE_NAME);
+        assertEquals(1, foreignKeys.size());
+        ForeignKey foreignKey = foreignKeys.iterator().next();
+        assertEquals(DatabaseContract.Order.COLUMN_NAME_CUSTOMER, foreignKey.columnFrom);
+        assertEquals(DatabaseContract.Customer.TABLE_NAME, foreignKey.tableTo);
+
+        // schema changes are only visible after invalidating
+        database.execSQL("CREATE TABLE Archive (_id INTEGER PRIMARY KEY, text TEXT)");
+        assertFalse(catalog.hasTable("Archive"));
+        catalog.invalidate();
+        assertTrue(catalog.hasTable("Archive"));
+        assertEquals(1, catalog.indexOfColumn("Archive", "text"));
+
+        database.close();
+    }
+
+    /**
+     * Opens a new, empty database and BoxStore, which are closed after the test.
+     */
+    private void openDatabaseAndBoxStore() {
+        // Context of the app under test.
+        appContext = InstrumentationRegistry.getTargetContext();
+        assertEquals("io.objectbox.sql_import_test", appContext.getPackageName());
+
+        DatabaseHelper.delete(appContext);
+        database = new DatabaseHelper(appContext).getWritableDatabase();
+        BoxStore.deleteAllFiles(appContext, null);
+        boxStore = MyObjectBox.builder().androidContext(appContext).build();
+    }
+
+    private void insertEntities() {
+        simpleEntityIds = new long[]{
+                SqliteInsertHelper.insertSimpleEntity(database),
+                SqliteInsertHelper.insertSimpleEntityAllNull(database)
+        };
+        customerIds = new long[]{
+                SqliteInsertHelper.insertCustomer(database, "Leia"),
+                SqliteInsertHelper.insertCustomer(database, "Luke")
+        };
+        orderIds = new long[]{
+                SqliteInsertHelper.insertOrder(database, "Lightsaber", customerIds[0]),
+                SqliteInsertHelper.insertOrder(database, "Droid", customerIds[0]),
+                SqliteInsertHelper.insertOrder(database, "Speeder", customerIds[1]),
+        };
+    }
+
+    /**
+     * Replaces the customer and order tables, for foreign keys not referencing the customer ID.
+     */
+    private void replaceCustomerAndOrderTables(String customerColumns, String orderColumns) {
+        database.execSQL("DROP TABLE \"" + DatabaseContract.Order.TABLE_NAME + "\"");
+        database.execSQL("DROP TABLE \"" + DatabaseContract.Customer.TABLE_NAME + "\"");
+        database.execSQL("CREATE TABLE \"Customer\" (_id INTEGER PRIMARY KEY, name TEXT, "
+                + customerColumns + ")");
+        database.execSQL("CREATE TABLE \"Order\" (_id INTEGER PRIMARY KEY, text TEXT, "
+                + orderColumns + ")");
+    }
+
+    /**
+     * Asserts the customer each migrated order references, by order ID starting at 1.
+     */
+    private void assertCustomerIdsOfOrders(long... customerIds) {
+        Box<Order> orderBox = boxStore.boxFor(Order.class);
+        for (int i = 0; i < customerIds.length; i++) {
+            assertEquals(customerIds[i], orderBox.get(i + 1).customer.getTargetId());
+        }
+    }
+
     private void assertSimpleEntityMapping(Map<String, TableMapping> map, int expectedColumnCount) {
         TableMapping tableMapping = map.get("SimpleEntity");
         assertEquals("SimpleEntity", tableMapping.getTableName());
@@ -49,6 +49,12 @@ public class SqliteInsertHelper {
         return database.insertOrThrow("\"" + SimpleEntity.TABLE_NAME + "\"", null, values);
     }
 
+    public static long insertSimpleEntityWithBlob(SQLiteDatabase database, byte[] byteArray) {
+        ContentValues values = new ContentValues();
+        values.put(SimpleEntity.COLUMN_NAME_BYTE_ARRAY, byteArray);
+        return database.insertOrThrow("\"" + SimpleEntity.TABLE_NAME + "\"", null, values);
+    }
+
     public static long insertSimpleEntityAllNull(SQLiteDatabase database) {
         ContentValues values = new ContentValues();
 
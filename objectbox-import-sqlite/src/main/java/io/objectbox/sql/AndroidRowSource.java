@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Reads rows from an Android {@link SQLiteDatabase}.
+ */
+public class AndroidRowSource implements RowSource {
+
+    private static final String IN_MEMORY_PATH = ":memory:";
+    /** Build.VERSION_CODES.P, the first API level that allows to set the CursorWindow size. */
+    private static final int API_WINDOW_SIZE = 28;
+
+    /** The CursorWindow(String, long) constructor, looked up once it is first used. */
+    @Nullable
+    private static Constructor<CursorWindow> windowConstructor;
+
+    private final SQLiteDatabase database;
+    /** If the database was opened by this source, so {@link #close()} closes it. */
+    private final boolean ownsDatabase;
+
+    /**
+     * Reads from the given database, which is not closed by {@link #close()}.
+     */
+    public AndroidRowSource(SQLiteDatabase database) {
+        this(database, false);
+    }
+
+    private AndroidRowSource(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
+    }
+
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    @Override
+    public Rows query(String sql, @Nullable String[] args) {
+        return new CursorRows(database.rawQuery(sql, args));
+    }
+
+    /**
+     * Replaces the CursorWindow of the cursor with one of {@code windowSize} bytes, instead of the
+     * default size (2 MB on most devices). Larger windows are refilled less often.
+     */
+    @Override
+    public Rows query(String sql, @Nullable String[] args, long windowSize) {
+        Cursor cursor = database.rawQuery(sql, args);
+        if (windowSize > 0 && supportsWindowSize() && cursor instanceof AbstractWindowedCursor) {
+            // the cursor only fills its window once it is first moved
+            ((AbstractWindowedCursor) cursor).setWindow(newWindow(windowSize));
+        }
+        return new CursorRows(cursor);
+    }
+
+    @Override
+    public void execute(String sql) {
+        database.execSQL(sql);
+    }
+
+    /**
+     * The size of a CursorWindow can only be set on API 28 and newer.
+     */
+    @Override
+    public boolean supportsWindowSize() {
+        return Build.VERSION.SDK_INT >= API_WINDOW_SIZE;
+    }
+
+    /**
+     * Creates a CursorWindow of the given size. The constructor is called reflectively as this
+     * library is compiled against an older API level, also for the JVM.
+     */
+    private static CursorWindow newWindow(long windowSize) {
+        try {
+            if (windowConstructor == null) {
+                windowConstructor = CursorWindow.class.getConstructor(String.class, long.class);
+            }
+            return windowConstructor.newInstance(null, windowSize);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause(); // e.g. the window could not be allocated
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Other connections can only read the database file while it is written to if it uses
+     * write-ahead logging, see {@link SQLiteDatabase#enableWriteAheadLogging()}.
+     */
+    @Override
+    public boolean supportsReadOnlyConnections() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && database.isWriteAheadLoggingEnabled()
+                && !IN_MEMORY_PATH.equals(database.getPath());
+    }
+
+    @Override
+    public RowSource openReadOnly() {
+        return new AndroidRowSource(SQLiteDatabase.openDatabase(database.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY), true);
+    }
+
+    @Override
+    public void close() {
+        if (ownsDatabase) {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.objectbox.Box;
+import io.objectbox.BoxStore;
+
+/**
+ * Captures changes to mapped tables after migration, so they can be applied to ObjectBox later on.
+ * Triggers on each table write a row to a changelog table for each inserted, updated or deleted
+ * row: the table name, the rowid and the operation. Updates are only recorded if a mapped column
+ * changed.
+ * <p/>
+ * Changes are applied in batches: the changelog is read in order, only the last operation of each
+ * row is kept, deleted rows are removed from their box and the current values of other rows are
+ * queried, mapped and put. Once the transaction is committed the processed changelog rows are
+ * deleted. If the app process is killed before that, the batch is applied again, which has the
+ * same result.
+ */
+class ChangeCapture {
+
+    static final String LOG_TABLE = "objectbox_changes";
+    private static final String TRIGGER_PREFIX = "objectbox_changes_";
+
+    /** Maximum number of rowids to update an index with per query. */
+    private static final int UPDATE_ROW_IDS = 1000;
+
+    static final int OP_INSERT = 0;
+    static final int OP_UPDATE = 1;
+    static final int OP_DELETE = 2;
+
+    private final RowSource source;
+    private final BoxStore boxStore;
+
+    ChangeCapture(RowSource source, BoxStore boxStore) {
+        this.source = source;
+        this.boxStore = boxStore;
+    }
+
+    /**
+     * Creates the changelog table and (re-)creates the triggers of the given tables.
+     *
+     * @throws IllegalStateException if the ID property of an entity is not mapped from the rowid of
+     *                               its table, as deleted rows are removed by their rowid.
+     */
+    void install(SchemaCatalog schemaCatalog, Collection<TableMapping> tableMappings) {
+        for (TableMapping tableMapping : tableMappings) {
+            checkIdIsRowId(schemaCatalog, tableMapping);
+        }
+        source.execute("CREATE TABLE IF NOT EXISTS " + LOG_TABLE + " (seq INTEGER PRIMARY KEY,"
+                + " table_name TEXT NOT NULL, row_id INTEGER NOT NULL, op INTEGER NOT NULL)");
+        for (TableMapping tableMapping : tableMappings) {
+            String tableName = tableMapping.getTableName();
+            String table = quote(tableName);
+            String name = "'" + tableName.replace("'", "''") + "'";
+            // also columns referenced by foreign keys, to update indexes of referenced values
+            Set<String> columnNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            columnNames.addAll(tableMapping.getColumnMap().keySet());
+            addReferencedColumns(schemaCatalog, tableMappings, tableName, columnNames);
+            StringBuilder columns = new StringBuilder();
+            for (String columnName : columnNames) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                }
+                columns.append(quote(columnName));
+            }
+            dropTriggers(tableName);
+            source.execute("CREATE TRIGGER " + triggerName(tableName, "insert")
+                    + " AFTER INSERT ON " + table + " BEGIN"
+                    + " INSERT INTO " + LOG_TABLE + " (table_name, row_id, op) VALUES (" + name
+                    + ", NEW.rowid, " + OP_INSERT + "); END");
+            // if the rowid changed, the row with the old rowid is gone
+            source.execute("CREATE TRIGGER " + triggerName(tableName, "update")
+                    + " AFTER UPDATE " + (columns.length() > 0 ? "OF " + columns + " " : "")
+                    + "ON " + table + " BEGIN"
+                    + " INSERT INTO " + LOG_TABLE + " (table_name, row_id, op) SELECT " + name
+                    + ", OLD.rowid, " + OP_DELETE + " WHERE OLD.rowid != NEW.rowid;"
+                    + " INSERT INTO " + LOG_TABLE + " (table_name, row_id, op) VALUES (" + name
+                    + ", NEW.rowid, " + OP_UPDATE + "); END");
+            source.execute("CREATE TRIGGER " + triggerName(tableName, "delete")
+                    + " AFTER DELETE ON " + table + " BEGIN"
+                    + " INSERT INTO " + LOG_TABLE + " (table_name, row_id, op) VALUES (" + name
+                    + ", OLD.rowid, " + OP_DELETE + "); END");
+        }
+        schemaCatalog.invalidate();
+    }
+
+    /**
+     * Adds the columns of the table referenced by foreign keys of the given tables.
+     */
+    private static void addReferencedColumns(SchemaCatalog schemaCatalog,
+                                             Collection<TableMapping> tableMappings,
+                                             String tableName, Set<String> columnNames) {
+        for (TableMapping tableMapping : tableMappings) {
+            for (ForeignKey foreignKey
+                    : schemaCatalog.getForeignKeys(tableMapping.getTableName())) {
+                if (!foreignKey.tableTo.equals(tableName)) {
+                    continue;
+                }
+                if (foreignKey.columnTo == null) {
+                    columnNames.addAll(schemaCatalog.getPrimaryKeyColumns(tableName));
+                } else {
+                    for (String columnTo : foreignKey.columnsTo) {
+                        if (columnTo != null) {
+                            columnNames.add(columnTo);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the triggers of the given tables and the changelog table, discarding changes that
+     * were not applied.
+     */
+    void uninstall(SchemaCatalog schemaCatalog, Collection<TableMapping> tableMappings) {
+        for (TableMapping tableMapping : tableMappings) {
+            dropTriggers(tableMapping.getTableName());
+        }
+        source.execute("DROP TABLE IF EXISTS " + LOG_TABLE);
+        schemaCatalog.invalidate();
+    }
+
+    private void dropTriggers(String tableName) {
+        source.execute("DROP TRIGGER IF EXISTS " + triggerName(tableName, "insert"));
+        source.execute("DROP TRIGGER IF EXISTS " + triggerName(tableName, "update"));
+        source.execute("DROP TRIGGER IF EXISTS " + triggerName(tableName, "delete"));
+    }
+
+    private static String triggerName(String tableName, String operation) {
+        return quote(TRIGGER_PREFIX + tableName + "_" + operation);
+    }
+
+    /**
+     * Quotes the name as identifier, names of triggers are made of table names which may contain
+     * quotes as well.
+     */
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    private static void checkIdIsRowId(SchemaCatalog schemaCatalog, TableMapping tableMapping) {
+        String tableName = tableMapping.getTableName();
+        List<String> primaryKeyColumns = schemaCatalog.getPrimaryKeyColumns(tableName);
+        for (ColumnMapping columnMapping : tableMapping.getColumnMap().values()) {
+            if (columnMapping.getProperty() == null || !columnMapping.getProperty().isId) {
+                continue;
+            }
+            String columnName = columnMapping.getColumnName();
+            String type = schemaCatalog.getColumnType(tableName,
+                    columnMapping.getTableColumnIndex());
+            // only an INTEGER PRIMARY KEY column is an alias of the rowid
+            if (!schemaCatalog.isWithoutRowId(tableName) && primaryKeyColumns.size() == 1
+                    && primaryKeyColumns.get(0).equals(columnName)
+                    && "INTEGER".equalsIgnoreCase(type)) {
+                return;
+            }
+            throw new IllegalStateException("Can not capture changes of table '" + tableName
+                    + "', ID column '" + columnName + "' is not an INTEGER PRIMARY KEY");
+        }
+        throw new IllegalStateException("Can not capture changes of table '" + tableName
+                + "', no column is mapped to the ID property");
+    }
+
+    /**
+     * Applies changes in batches of up to {@code batchSize} changelog rows (0 for a single batch)
+     * until the changelog is empty. Changes of tables that are not mapped are dropped. Returns the
+     * number of processed changelog rows.
+     *
+     * Only changes recorded before the call are applied, later changes are left for the next call.
+     *
+     * @param indexes Indexes of foreign keys, those of changed tables are updated first, so changed
+     *                rows reference the current rows of their target tables.
+     */
+    int apply(final Map<String, TableMapping> tableMap, Collection<ForeignKeyIndex> indexes,
+              int batchSize) {
+        long endSeq = queryLong("SELECT ifnull(max(seq), 0) FROM " + LOG_TABLE);
+        for (ForeignKeyIndex index : indexes) {
+            updateIndex(index, endSeq);
+        }
+        int processed = 0;
+        while (true) {
+            // by table, the last operation of each rowid
+            final Map<String, Map<Long, Integer>> changes = new LinkedHashMap<>();
+            long lastSeq = 0;
+            int count = 0;
+            Rows rows = source.query("SELECT seq, table_name, row_id, op FROM " + LOG_TABLE
+                    + " WHERE seq <= " + endSeq + " ORDER BY seq"
+                    + (batchSize > 0 ? " LIMIT " + batchSize : ""), null);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                while (rows.moveToNext()) {
+                    lastSeq = rows.getLong(0);
+                    count++;
+                    String tableName = rows.getString(1);
+                    Map<Long, Integer> tableChanges = changes.get(tableName);
+                    if (tableChanges == null) {
+                        tableChanges = new LinkedHashMap<>();
+                        changes.put(tableName, tableChanges);
+                    }
+                    tableChanges.put(rows.getLong(2), rows.getInt(3));
+                }
+            } finally {
+                rows.close();
+            }
+            if (count == 0) {
+                return processed;
+            }
+            boxStore.runInTx(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<String, Map<Long, Integer>> entry : changes.entrySet()) {
+                        TableMapping tableMapping = tableMap.get(entry.getKey());
+                        if (tableMapping != null) {
+                            applyTableChanges(tableMapping, entry.getValue());
+                        }
+                    }
+                }
+            });
+            // changes are committed, truncate the processed log
+            source.execute("DELETE FROM " + LOG_TABLE + " WHERE seq <= " + lastSeq);
+            processed += count;
+            if (batchSize <= 0 || count < batchSize) {
+                return processed;
+            }
+        }
+    }
+
+    /**
+     * Updates the index with all rows of its table changed up to the given changelog row. This
+     * is done once before applying changes in batches, as a row changed in a later batch might
+     * already be referenced by current rows of an earlier batch.
+     */
+    private void updateIndex(ForeignKeyIndex index, long endSeq) {
+        long[] rowIds = new long[UPDATE_ROW_IDS];
+        int count = 0;
+        Rows rows = source.query("SELECT DISTINCT row_id FROM " + LOG_TABLE
+                + " WHERE table_name = ? AND seq <= " + endSeq, new String[]{index.tableTo});
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (rows.moveToNext()) {
+                rowIds[count++] = rows.getLong(0);
+                if (count == rowIds.length) {
+                    index.update(source, rowIds, count);
+                    count = 0;
+                }
+            }
+        } finally {
+            rows.close();
+        }
+        if (count > 0) {
+            index.update(source, rowIds, count);
+        }
+    }
+
+    private long queryLong(String sql) {
+        Rows rows = source.query(sql, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            return rows.getLong(0);
+        } finally {
+            rows.close();
+        }
+    }
+
+    private void applyTableChanges(TableMapping tableMapping, Map<Long, Integer> tableChanges) {
+        Box box = tableMapping.box(boxStore);
+        long[] putRowIds = new long[tableChanges.size()];
+        int putCount = 0;
+        for (Map.Entry<Long, Integer> change : tableChanges.entrySet()) {
+            long rowId = change.getKey(); // remove(Object) would take the boxed value
+            if (change.getValue() == OP_DELETE) {
+                box.remove(rowId);
+            } else {
+                putRowIds[putCount++] = rowId;
+            }
+        }
+        if (putCount == 0) {
+            return;
+        }
+        // reads current values, a row deleted since has a later changelog row
+        List<Object> entities = new ArrayList<>(putCount);
+        Rows rows = tableMapping.queryRowIds(source, putRowIds, putCount);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (rows.moveToNext()) {
+                Object entity = tableMapping.newEntity();
+                tableMapping.mapRow(rows, entity);
+                entities.add(entity);
+            }
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } finally {
+            rows.close();
+        }
+        //noinspection unchecked Type is not known
+        box.put(entities);
+    }
+}
@@ -18,6 +18,9 @@ package io.objectbox.sql;
 import android.database.Cursor;
 import android.support.annotation.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.util.Date;
 
@@ -36,29 +39,131 @@ public class ColumnMapping {
     public static final Mapper FOREIGN_KEY_MAPPER = new ForeignKeyMapper();
 
     private final String columnName;
-    private final int columnIndex;
+    private final int tableColumnIndex;
+    private int columnIndex;
     @Nullable
     private final Property property;
     private final Field field;
     private final Mapper mapper;
+    private FieldAccessor accessor;
+    /** The mapper actually used, {@link DefaultMapper} is replaced by a type specific one. */
+    private Mapper compiledMapper;
+    /** Created on first use, only if the property has a converter. */
+    @Nullable
+    private PropertyConverter converter;
+    @Nullable
+    private ConversionCache conversionCache;
+    /** For a {@link StreamingMapper}, the indexes of the length and rowid in queried rows. */
+    private int lengthColumnIndex = -1;
+    private int rowIdColumnIndex = -1;
+    /** For a {@link ForeignKeyMapper}, translates values not referencing the target ID. */
+    @Nullable
+    private ForeignKeyIndex foreignKeyIndex;
+    /**
+     * For a {@link ForeignKeyMapper} of a composite foreign key, the mappings of all its columns,
+     * in the order of the referenced columns.
+     */
+    @Nullable
+    private ColumnMapping[] foreignKeyColumns;
+    /** For a {@link ForeignKeyMapper}, translates rowids to IDs assigned by ObjectBox. */
+    @Nullable
+    private IdTranslation.Table idTranslation;
 
     ColumnMapping(String columnName, int columnIndex, @Nullable Property property, Field field,
                   Mapper mapper) {
         this.columnName = columnName;
+        this.tableColumnIndex = columnIndex;
         this.columnIndex = columnIndex;
         this.property = property;
         this.field = field;
         this.mapper = mapper;
+        this.accessor = FieldAccessor.reflection(field);
+        this.compiledMapper = mapper;
     }
 
     public String getColumnName() {
         return columnName;
     }
 
+    /**
+     * Returns the index of the column in a queried row. As only mapped columns are queried, this is
+     * usually not the index of the column in the table.
+     */
     public int getColumnIndex() {
         return columnIndex;
     }
 
+    /**
+     * Returns the index of the column in the table.
+     */
+    public int getTableColumnIndex() {
+        return tableColumnIndex;
+    }
+
+    /**
+     * Sets the index of the column in queried rows, see {@link TableMapping#query}.
+     */
+    void bindColumnIndex(int columnIndex) {
+        this.columnIndex = columnIndex;
+    }
+
+    /**
+     * Sets the indexes of the length of the value and of the rowid in queried rows, only used by
+     * a {@link StreamingMapper}.
+     */
+    void bindStreamingIndexes(int lengthColumnIndex, int rowIdColumnIndex) {
+        this.lengthColumnIndex = lengthColumnIndex;
+        this.rowIdColumnIndex = rowIdColumnIndex;
+    }
+
+    public Mapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Sets the index to translate foreign key values with, or {@code null} if they are the ID of
+     * the target entity. Only used by a {@link ForeignKeyMapper}.
+     */
+    void setForeignKeyIndex(@Nullable ForeignKeyIndex foreignKeyIndex) {
+        this.foreignKeyIndex = foreignKeyIndex;
+    }
+
+    /**
+     * Sets the mappings of all columns of the composite foreign key this column is part of, or
+     * {@code null} if it is a single column foreign key. Only used by a {@link ForeignKeyMapper}.
+     */
+    void setForeignKeyColumns(@Nullable ColumnMapping[] foreignKeyColumns) {
+        this.foreignKeyColumns = foreignKeyColumns;
+    }
+
+    /**
+     * Sets the IDs of the target table to translate foreign key values (rowids) with, or
+     * {@code null} to not translate them. Only used by a {@link ForeignKeyMapper}.
+     */
+    void setIdTranslation(@Nullable IdTranslation.Table idTranslation) {
+        this.idTranslation = idTranslation;
+    }
+
+    /**
+     * Returns if values are read using a {@link StreamingMapper}.
+     */
+    public boolean isStreaming() {
+        return mapper instanceof StreamingMapper;
+    }
+
+    /**
+     * Resolves once which type specific mapper to use, so the type of the property does not have
+     * to be checked again for each value. Only replaces the {@link DefaultMapper}, custom mappers
+     * are used as is.
+     */
+    void compile() {
+        if (mapper.getClass() == DefaultMapper.class && property != null) {
+            compiledMapper = DefaultMapper.forProperty(property);
+        } else {
+            compiledMapper = mapper;
+        }
+    }
+
     @Nullable
     public Property getProperty() {
         return property;
@@ -68,11 +173,50 @@ public class ColumnMapping {
         return field;
     }
 
+    /**
+     * Returns the accessor used to get and set the value of the field.
+     *
+     * @see EntityRowMapper
+     */
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * Uses the given accessor, e.g. one of a generated {@link EntityRowMapper}, instead of
+     * reflection to access the field.
+     */
+    void bindAccessor(FieldAccessor accessor) {
+        this.accessor = accessor;
+    }
+
+    /**
+     * Returns the cache for converted values, or {@code null} if values are always converted.
+     */
+    @Nullable
+    public ConversionCache getConversionCache() {
+        return conversionCache;
+    }
+
+    /**
+     * Sets a cache for values converted by the converter of the property, or {@code null} to
+     * always convert values. Throws if the property has no converter.
+     *
+     * @see TableMapping.Builder#cacheConversions(String, int)
+     */
+    public void setConversionCache(@Nullable ConversionCache conversionCache) {
+        if (conversionCache != null && (property == null || property.customType == null)) {
+            throw new IllegalArgumentException("Property of column '" + columnName
+                    + "' has no converter");
+        }
+        this.conversionCache = conversionCache;
+    }
+
     /**
      * Maps the value of this column to the assigned entity property.
      */
-    void mapValue(Cursor row, Object entity) {
-        mapper.mapValue(this, row, entity);
+    void mapValue(Row row, Object entity) {
+        compiledMapper.mapValue(this, row, entity);
     }
 
     /**
@@ -81,21 +225,92 @@ public class ColumnMapping {
      */
     public void setValue(Object entity, Object value) {
         if (property != null && property.customType != null) {
-            try {
-                PropertyConverter converter = (PropertyConverter) property.converterClass.newInstance();
+            PropertyConverter converter = converter(property);
+            ConversionCache conversionCache = this.conversionCache;
+            if (conversionCache != null) {
+                value = conversionCache.convert(converter, value);
+            } else {
                 //noinspection unchecked only know types at runtime
                 value = converter.convertToEntityProperty(value);
+            }
+        }
+        accessor.set(entity, value);
+    }
+
+    /**
+     * Returns the converter of the property, creates it only once.
+     */
+    private PropertyConverter converter(Property property) {
+        PropertyConverter converter = this.converter;
+        if (converter == null) {
+            try {
+                converter = (PropertyConverter) property.converterClass.newInstance();
             } catch (IllegalAccessException e) {
                 throw new IllegalArgumentException("Failed to create converter for property " + property.name);
             } catch (InstantiationException e) {
                 throw new IllegalArgumentException("Failed to create converter for property " + property.name);
             }
+            this.converter = converter;
         }
-        try {
-            field.set(entity, value);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("Failed to set value for " + field.getName(), e);
-        }
+        return converter;
+    }
+
+    /**
+     * Sets a {@code long} value to the associated property field without boxing it. Only use this
+     * for {@code long} properties without converter.
+     */
+    public void setLong(Object entity, long value) {
+        accessor.setLong(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code int} properties.
+     */
+    public void setInt(Object entity, int value) {
+        accessor.setInt(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code short} properties.
+     */
+    public void setShort(Object entity, short value) {
+        accessor.setShort(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code byte} properties.
+     */
+    public void setByte(Object entity, byte value) {
+        accessor.setByte(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code boolean} properties.
+     */
+    public void setBoolean(Object entity, boolean value) {
+        accessor.setBoolean(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code float} properties.
+     */
+    public void setFloat(Object entity, float value) {
+        accessor.setFloat(entity, value);
+    }
+
+    /**
+     * Like {@link #setLong(Object, long)}, for {@code double} properties.
+     */
+    public void setDouble(Object entity, double value) {
+        accessor.setDouble(entity, value);
+    }
+
+    /**
+     * Gets the current value of the associated property field.
+     */
+    @Nullable
+    public Object getValue(Object entity) {
+        return accessor.get(entity);
     }
 
     public interface Mapper {
@@ -105,15 +320,375 @@ public class ColumnMapping {
          * property field.
          * <p/>
          * If you need something more elaborate, you can also set the value yourself. You can access
-         * the field through {@code mapping.getField()}.
+         * the field through {@code mapping.getAccessor()} or {@code mapping.getField()}.
          */
-        void mapValue(ColumnMapping mapping, Cursor row, Object entity);
+        void mapValue(ColumnMapping mapping, Row row, Object entity);
+    }
+
+    /**
+     * A {@link Mapper} reading the value from a {@link Cursor}, like mappers did before rows were
+     * read through a {@link RowSource}. Only maps rows queried from an Android database.
+     *
+     * @deprecated Implement {@link Mapper} instead, {@link Row} has the same getters as a
+     * {@link Cursor}.
+     */
+    @Deprecated
+    public abstract static class CursorMapper implements Mapper {
+
+        public abstract void mapValue(ColumnMapping mapping, Cursor row, Object entity);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            if (!(row instanceof CursorRows)) {
+                throw new IllegalStateException("Column '" + mapping.getColumnName()
+                        + "' has a CursorMapper, which can only map rows of a Cursor");
+            }
+            mapValue(mapping, ((CursorRows) row).getCursor(), entity);
+        }
+    }
+
+    /**
+     * Maps a column to a {@code long} property without boxing the value.
+     */
+    public abstract static class LongColumnMapper implements Mapper {
+
+        public abstract long mapLong(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setLong(entity, mapLong(mapping, row));
+        }
     }
 
+    /**
+     * Maps a column to an {@code int} property without boxing the value.
+     */
+    public abstract static class IntColumnMapper implements Mapper {
+
+        public abstract int mapInt(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setInt(entity, mapInt(mapping, row));
+        }
+    }
+
+    /**
+     * Maps a column to a {@code short} property without boxing the value.
+     */
+    public abstract static class ShortColumnMapper implements Mapper {
+
+        public abstract short mapShort(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setShort(entity, mapShort(mapping, row));
+        }
+    }
+
+    /**
+     * Maps a column to a {@code byte} property without boxing the value.
+     */
+    public abstract static class ByteColumnMapper implements Mapper {
+
+        public abstract byte mapByte(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setByte(entity, mapByte(mapping, row));
+        }
+    }
+
+    /**
+     * Maps a column to a {@code boolean} property without boxing the value.
+     */
+    public abstract static class BooleanColumnMapper implements Mapper {
+
+        public abstract boolean mapBoolean(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setBoolean(entity, mapBoolean(mapping, row));
+        }
+    }
+
+    /**
+     * Maps a column to a {@code float} property without boxing the value.
+     */
+    public abstract static class FloatColumnMapper implements Mapper {
+
+        public abstract float mapFloat(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setFloat(entity, mapFloat(mapping, row));
+        }
+    }
+
+    /**
+     * Maps a column to a {@code double} property without boxing the value.
+     */
+    public abstract static class DoubleColumnMapper implements Mapper {
+
+        public abstract double mapDouble(ColumnMapping mapping, Row row);
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            mapping.setDouble(entity, mapDouble(mapping, row));
+        }
+    }
+
+    /**
+     * Maps BLOB values that might not fit into a CursorWindow (2 MB by default), which fails with
+     * "Row too big to fit into CursorWindow". Values up to {@code maxInlineSize} bytes are queried
+     * with the row as usual. Larger values are left out of the row and are instead read in chunks
+     * of {@code chunkSize} bytes with separate queries, while the mapper reads them as a stream.
+     * <p/>
+     * Only works for rows queried by a {@link TableMapping}, of tables with a rowid. Note that
+     * SQLite loads the complete value into memory for each chunk query, only chunks are copied
+     * into CursorWindows and to Java. TEXT values are read as UTF-8 bytes.
+     */
+    public abstract static class StreamingMapper implements Mapper {
+
+        public static final int DEFAULT_MAX_INLINE_SIZE = 256 * 1024;
+        public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+        private final int maxInlineSize;
+        private final int chunkSize;
+
+        public StreamingMapper() {
+            this(DEFAULT_MAX_INLINE_SIZE, DEFAULT_CHUNK_SIZE);
+        }
+
+        public StreamingMapper(int maxInlineSize, int chunkSize) {
+            if (maxInlineSize < 0) {
+                throw new IllegalArgumentException("Max inline size must not be negative");
+            }
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("Chunk size must be at least 1");
+            }
+            this.maxInlineSize = maxInlineSize;
+            this.chunkSize = chunkSize;
+        }
+
+        public int getMaxInlineSize() {
+            return maxInlineSize;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * Maps a value that is read from the given stream, which is closed afterwards.
+         *
+         * @param length Length of the value in bytes.
+         */
+        public abstract void mapStream(ColumnMapping mapping, InputStream in, long length,
+                                       Object entity) throws IOException;
+
+        /**
+         * Maps a value that was queried with the row. By default passes it to
+         * {@link #mapStream(ColumnMapping, InputStream, long, Object)}.
+         */
+        public void mapInline(ColumnMapping mapping, byte[] value, Object entity)
+                throws IOException {
+            mapStream(mapping, new ByteArrayInputStream(value), value.length, entity);
+        }
+
+        /**
+         * Maps a NULL value, by default sets {@code null}.
+         */
+        public void mapNull(ColumnMapping mapping, Object entity) {
+            mapping.setValue(entity, null);
+        }
+
+        @Override
+        public final void mapValue(ColumnMapping mapping, Row row, Object entity) {
+            int columnIndex = mapping.getColumnIndex();
+            int lengthColumnIndex = mapping.lengthColumnIndex;
+            try {
+                if (!row.isNull(columnIndex)) {
+                    //noinspection ConstantConditions not NULL
+                    mapInline(mapping, row.getBlob(columnIndex), entity);
+                } else if (row.isNull(lengthColumnIndex)) {
+                    mapNull(mapping, entity);
+                } else {
+                    // the value is too large and was left out
+                    if (!(row instanceof StreamingRows)) {
+                        throw new IllegalStateException("Column '" + mapping.getColumnName()
+                                + "' must be queried by a TableMapping to stream its values");
+                    }
+                    long length = row.getLong(lengthColumnIndex);
+                    long rowId = row.getLong(mapping.rowIdColumnIndex);
+                    InputStream in = ((StreamingRows) row).openBlob(mapping.getColumnName(), rowId,
+                            length, chunkSize);
+                    //noinspection TryFinallyCanBeTryWithResources
+                    try {
+                        mapStream(mapping, in, length, entity);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read value of column '"
+                        + mapping.getColumnName() + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Streams large values into a {@code byte[]} property, see {@link StreamingMapper}. Allocates
+     * the array once with the size of the value.
+     */
+    public static class BlobStreamingMapper extends StreamingMapper {
+
+        public BlobStreamingMapper() {
+        }
+
+        public BlobStreamingMapper(int maxInlineSize, int chunkSize) {
+            super(maxInlineSize, chunkSize);
+        }
+
+        @Override
+        public void mapInline(ColumnMapping mapping, byte[] value, Object entity) {
+            mapping.setValue(entity, value);
+        }
+
+        @Override
+        public void mapStream(ColumnMapping mapping, InputStream in, long length, Object entity)
+                throws IOException {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Value of " + length + " bytes does not fit into an array");
+            }
+            byte[] value = new byte[(int) length];
+            int read = 0;
+            while (read < value.length) {
+                int count = in.read(value, read, value.length - read);
+                if (count < 0) {
+                    throw new IOException("Value ended after " + read + " of " + length
+                            + " bytes");
+                }
+                read += count;
+            }
+            mapping.setValue(entity, value);
+        }
+    }
+
+    /**
+     * Maps supported property types. If used through a {@link TableMapping}, it is replaced by the
+     * type specific mapper returned by {@link #forProperty(Property)}.
+     */
     public static class DefaultMapper implements Mapper {
 
+        /**
+         * Returns a mapper for the type of the property. It sets primitive values without boxing
+         * them and only checks for NULL if the property type is nullable.
+         */
+        public static Mapper forProperty(Property property) {
+            Class<?> type = property.type;
+            if (property.customType != null) {
+                // the converter takes the boxed database value
+                return CONVERTED;
+            } else if (type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == int.class) {
+                return INT;
+            } else if (type == short.class) {
+                return SHORT;
+            } else if (type == long.class) {
+                return LONG;
+            } else if (type == float.class) {
+                return FLOAT;
+            } else if (type == double.class) {
+                return DOUBLE;
+            } else if (type == byte.class) {
+                return BYTE;
+            } else if (type == Boolean.class || type == Integer.class || type == Short.class
+                    || type == Long.class || type == Float.class || type == Double.class
+                    || type == Byte.class || type == Date.class) {
+                // boxing can not be avoided
+                return CONVERTED;
+            } else if (type == byte[].class) {
+                return BLOB;
+            } else if (type == String.class) {
+                return STRING;
+            } else {
+                throw new IllegalArgumentException("No mapping for property type " + type);
+            }
+        }
+
+        private static final Mapper BOOLEAN = new BooleanColumnMapper() {
+            @Override
+            public boolean mapBoolean(ColumnMapping mapping, Row row) {
+                return row.getInt(mapping.getColumnIndex()) == 1;
+            }
+        };
+
+        private static final Mapper INT = new IntColumnMapper() {
+            @Override
+            public int mapInt(ColumnMapping mapping, Row row) {
+                return row.getInt(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper SHORT = new ShortColumnMapper() {
+            @Override
+            public short mapShort(ColumnMapping mapping, Row row) {
+                return row.getShort(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper LONG = new LongColumnMapper() {
+            @Override
+            public long mapLong(ColumnMapping mapping, Row row) {
+                return row.getLong(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper FLOAT = new FloatColumnMapper() {
+            @Override
+            public float mapFloat(ColumnMapping mapping, Row row) {
+                return row.getFloat(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper DOUBLE = new DoubleColumnMapper() {
+            @Override
+            public double mapDouble(ColumnMapping mapping, Row row) {
+                return row.getDouble(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper BYTE = new ByteColumnMapper() {
+            @Override
+            public byte mapByte(ColumnMapping mapping, Row row) {
+                // Android stores Byte as INTEGER
+                return (byte) row.getInt(mapping.getColumnIndex());
+            }
+        };
+
+        private static final Mapper BLOB = new Mapper() {
+            @Override
+            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
+                // getBlob returns null for NULL
+                mapping.setValue(entity, row.getBlob(mapping.getColumnIndex()));
+            }
+        };
+
+        private static final Mapper STRING = new Mapper() {
+            @Override
+            public void mapValue(ColumnMapping mapping, Row row, Object entity) {
+                // getString returns null for NULL
+                mapping.setValue(entity, row.getString(mapping.getColumnIndex()));
+            }
+        };
+
+        /** For boxed types and properties with converter, checks for NULL. */
+        private static final Mapper CONVERTED = new DefaultMapper();
+
         @Override
-        public void mapValue(ColumnMapping mapping, Cursor row, Object entity) {
+        public void mapValue(ColumnMapping mapping, Row row, Object entity) {
             int columnIndex = mapping.getColumnIndex();
 
             Property property = mapping.getProperty();
@@ -151,23 +726,48 @@ public class ColumnMapping {
         }
     }
 
+    /**
+     * Sets the target ID of a ToOne to the value of a foreign key column. If the foreign key does
+     * not reference the column the ID of the target entity is mapped from, but e.g. a natural key,
+     * the value is translated to the ID of the target using a {@link ForeignKeyIndex}. If
+     * ObjectBox assigned new IDs to the targets, the value is translated to the new ID, see
+     * {@link SqlMigration#setIdTranslation(long, java.io.File)}.
+     * <p/>
+     * Each column of a composite foreign key is mapped to the same ToOne. The values of all columns
+     * are translated by the mapping of the first column, the others do nothing.
+     */
     public static class ForeignKeyMapper implements Mapper {
 
         @Override
-        public void mapValue(ColumnMapping mapping, Cursor row, Object entity) {
+        public void mapValue(ColumnMapping mapping, Row row, Object entity) {
             Field field = mapping.getField();
             if (!ToOne.class.isAssignableFrom(field.getType())) {
                 throw new IllegalArgumentException("Field " + mapping.getColumnName()
                         + " is not a ToOne.");
             }
             // get value and assign it to the entity ToOne field
-            long value = row.getLong(mapping.getColumnIndex());
-            try {
-                ToOne toOne = (ToOne) field.get(entity);
-                toOne.setTargetId(value);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException("Failed to access ToOne field " + field.getName());
+            ForeignKeyIndex index = mapping.foreignKeyIndex;
+            ColumnMapping[] columns = mapping.foreignKeyColumns;
+            long value;
+            if (columns != null) {
+                if (columns[0] != mapping || index == null) {
+                    return; // mapped by the first column
+                }
+                value = index.getTargetId(row, columns);
+            } else {
+                value = index != null
+                        ? index.getTargetId(row, mapping.getColumnIndex())
+                        : row.getLong(mapping.getColumnIndex());
+            }
+            IdTranslation.Table idTranslation = mapping.idTranslation;
+            if (idTranslation != null && value != 0) {
+                value = idTranslation.translate(value);
+            }
+            ToOne toOne = (ToOne) mapping.getValue(entity);
+            if (toOne == null) {
+                throw new IllegalStateException("ToOne field " + field.getName() + " is null");
             }
+            toOne.setTargetId(value);
         }
     }
 
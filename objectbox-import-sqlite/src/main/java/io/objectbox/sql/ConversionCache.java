@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.objectbox.converter.PropertyConverter;
+
+/**
+ * Remembers values converted by a {@link PropertyConverter}, so each distinct database value is
+ * only converted once. Useful for columns with few distinct values, like enums or status codes.
+ * Holds up to a maximum number of values, the least recently used value is dropped first.
+ * <p/>
+ * The same converted value is set to all entities with the same database value, so only use this
+ * if converted values are immutable. BLOB values are never cached.
+ *
+ * @see TableMapping.Builder#cacheConversions(String, int)
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConversionCache {
+
+    private final int maxSize;
+    private final Map<Object, Object> values;
+    private long hitCount;
+    private long missCount;
+
+    public ConversionCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.values = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the converted value, only calls the converter if the database value is not cached.
+     */
+    @Nullable
+    synchronized Object convert(PropertyConverter converter, @Nullable Object databaseValue) {
+        if (databaseValue instanceof byte[]) {
+            // arrays do not implement equals
+            missCount++;
+            //noinspection unchecked only know types at runtime
+            return converter.convertToEntityProperty(databaseValue);
+        }
+        Object value = values.get(databaseValue);
+        if (value != null || values.containsKey(databaseValue)) {
+            hitCount++;
+            return value;
+        }
+        missCount++;
+        //noinspection unchecked only know types at runtime
+        value = converter.convertToEntityProperty(databaseValue);
+        values.put(databaseValue, value);
+        return value;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns how many values were taken from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns how many values had to be converted.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+
+/**
+ * Reads rows from an Android {@link Cursor}.
+ */
+public class CursorRows implements Rows {
+
+    private final Cursor cursor;
+
+    public CursorRows(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return cursor.moveToNext();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return cursor.getColumnIndex(columnName);
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return cursor.getColumnCount();
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return cursor.isNull(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return cursor.getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return cursor.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return cursor.getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return cursor.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return cursor.getDouble(columnIndex);
+    }
+
+    @Nullable
+    @Override
+    public String getString(int columnIndex) {
+        return cursor.getString(columnIndex);
+    }
+
+    @Nullable
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return cursor.getBlob(columnIndex);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A SQLite database file mapped into memory, to read table B-trees directly instead of through
+ * SQLite, see {@link FileTable}. Only closed databases can be read: if there is a write-ahead log
+ * or a hot rollback journal next to the file, it is not complete and {@link #open(File)} refuses
+ * it. Also refuses encrypted files and files with a text encoding other than UTF-8.
+ * <p/>
+ * The file is mapped in segments of at most {@link #SEGMENT_SIZE} bytes. Pages never cross
+ * segments, as the segment size is a multiple of any page size.
+ *
+ * @see <a href="https://www.sqlite.org/fileformat.html">SQLite database file format</a>
+ */
+class DatabaseFile {
+
+    private static final byte[] MAGIC = "SQLite format 3\0".getBytes(Charset.forName("US-ASCII"));
+    private static final byte[] JOURNAL_MAGIC = {
+            (byte) 0xd9, (byte) 0xd5, 0x05, (byte) 0xf9, 0x20, (byte) 0xa1, 0x63, (byte) 0xd7
+    };
+    private static final int HEADER_SIZE = 100;
+    private static final int UTF_8 = 1;
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private final ByteBuffer[] segments;
+    private final int pageSize;
+    private final int usableSize;
+    private final long pageCount;
+
+    private DatabaseFile(ByteBuffer[] segments, int pageSize, int usableSize, long pageCount) {
+        this.segments = segments;
+        this.pageSize = pageSize;
+        this.usableSize = usableSize;
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * Maps the database file, throws {@link UnsupportedFormatException} if it can not be read
+     * directly.
+     */
+    static DatabaseFile open(File file) throws IOException {
+        File wal = new File(file.getPath() + "-wal");
+        if (wal.length() > 0) {
+            throw new UnsupportedFormatException("Database has a write-ahead log");
+        }
+        if (isHotJournal(new File(file.getPath() + "-journal"))) {
+            throw new UnsupportedFormatException("Database has a hot rollback journal");
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new UnsupportedFormatException("Database file is too small");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header.get(i) != MAGIC[i]) {
+                    throw new UnsupportedFormatException("Not a SQLite 3 file, or encrypted");
+                }
+            }
+            int pageSize = header.getShort(16) & 0xffff;
+            if (pageSize == 1) {
+                pageSize = 65536;
+            }
+            if (pageSize < 512 || Integer.bitCount(pageSize) != 1) {
+                throw new UnsupportedFormatException("Unsupported page size " + pageSize);
+            }
+            // payload fractions are fixed to these values by the file format
+            if (header.get(21) != 64 || header.get(22) != 32 || header.get(23) != 32) {
+                throw new UnsupportedFormatException("Unsupported payload fractions");
+            }
+            if (header.getInt(56) != UTF_8) {
+                throw new UnsupportedFormatException("Text encoding is not UTF-8");
+            }
+            int usableSize = pageSize - (header.get(20) & 0xff);
+            if (usableSize < 480) {
+                throw new UnsupportedFormatException("Too many reserved bytes per page");
+            }
+            long pageCount = fileSize / pageSize;
+            // the page count in the header is only valid if written by SQLite 3.7.0 or later
+            long headerPageCount = header.getInt(28) & 0xffffffffL;
+            if (headerPageCount != 0 && header.getInt(92) == header.getInt(24)) {
+                if (headerPageCount > pageCount) {
+                    throw new UnsupportedFormatException("Database file is truncated");
+                }
+                pageCount = headerPageCount;
+            }
+
+            long size = pageCount * pageSize;
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, size - position));
+            }
+            // mappings stay valid after the file is closed
+            return new DatabaseFile(segments, pageSize, usableSize, pageCount);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * A journal is hot if it starts with its magic number, a committed journal in PERSIST mode
+     * has it overwritten with zeros.
+     */
+    private static boolean isHotJournal(File journal) throws IOException {
+        if (journal.length() < JOURNAL_MAGIC.length) {
+            return false;
+        }
+        byte[] magic = new byte[JOURNAL_MAGIC.length];
+        FileInputStream in = new FileInputStream(journal);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            int read = 0;
+            while (read < magic.length) {
+                int count = in.read(magic, read, magic.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != JOURNAL_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the page size without bytes reserved at the end of each page.
+     */
+    int getUsableSize() {
+        return usableSize;
+    }
+
+    long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns new views of the mapped segments. Each reader needs its own views, as bulk reads
+     * change the position of a buffer.
+     */
+    ByteBuffer[] duplicateSegments() {
+        ByteBuffer[] duplicates = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            duplicates[i] = segments[i].duplicate();
+        }
+        return duplicates;
+    }
+
+    /**
+     * Thrown if the file, or a table in it, can not be read directly. Reading should then fall
+     * back to querying SQLite.
+     */
+    static class UnsupportedFormatException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedFormatException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates entities and provides {@link FieldAccessor}s that access their fields without
+ * reflection. Implementations are generated by the objectbox-import-sqlite-processor annotation
+ * processor as {@code <Entity>_RowMapper} in the package of the entity. If there is one for an
+ * entity, it is used automatically.
+ */
+public interface EntityRowMapper<T> {
+
+    String CLASS_NAME_SUFFIX = "_RowMapper";
+
+    T newEntity();
+
+    /**
+     * Returns an accessor for the field, or {@code null} if it can not be accessed directly, e.g.
+     * because it is private and has no getter and setter. Reflection is used for such fields.
+     */
+    @Nullable
+    FieldAccessor accessorFor(String fieldName);
+
+    /**
+     * Finds generated row mappers.
+     */
+    class Lookup {
+
+        private static final Map<Class, Object> ROW_MAPPERS = new ConcurrentHashMap<>();
+        /** Marks entities without generated row mapper, map does not allow null values. */
+        private static final Object NONE = new Object();
+
+        private Lookup() {
+        }
+
+        /**
+         * Returns the generated row mapper for the entity class, or {@code null} if there is none.
+         */
+        @Nullable
+        public static EntityRowMapper forEntity(Class entityClass) {
+            Object rowMapper = ROW_MAPPERS.get(entityClass);
+            if (rowMapper == null) {
+                rowMapper = load(entityClass);
+                ROW_MAPPERS.put(entityClass, rowMapper);
+            }
+            return rowMapper != NONE ? (EntityRowMapper) rowMapper : null;
+        }
+
+        private static Object load(Class entityClass) {
+            try {
+                Class<?> rowMapperClass = Class.forName(entityClass.getName() + CLASS_NAME_SUFFIX,
+                        true, entityClass.getClassLoader());
+                return rowMapperClass.newInstance();
+            } catch (ClassNotFoundException e) {
+                return NONE;
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Failed to create " + entityClass.getName()
+                        + CLASS_NAME_SUFFIX, e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Failed to create " + entityClass.getName()
+                        + CLASS_NAME_SUFFIX, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes a field of an entity. Generated {@link EntityRowMapper} classes provide
+ * accessors that access fields directly, otherwise a {@link #reflection(Field) reflection} based
+ * accessor is used.
+ */
+public abstract class FieldAccessor {
+
+    public abstract void set(Object entity, @Nullable Object value);
+
+    @Nullable
+    public abstract Object get(Object entity);
+
+    // Primitive setters box by default, accessors should override them for primitive fields.
+
+    public void setLong(Object entity, long value) {
+        set(entity, value);
+    }
+
+    public void setInt(Object entity, int value) {
+        set(entity, value);
+    }
+
+    public void setShort(Object entity, short value) {
+        set(entity, value);
+    }
+
+    public void setByte(Object entity, byte value) {
+        set(entity, value);
+    }
+
+    public void setBoolean(Object entity, boolean value) {
+        set(entity, value);
+    }
+
+    public void setFloat(Object entity, float value) {
+        set(entity, value);
+    }
+
+    public void setDouble(Object entity, double value) {
+        set(entity, value);
+    }
+
+    /**
+     * Returns an accessor that uses reflection. The field must be accessible.
+     */
+    public static FieldAccessor reflection(Field field) {
+        return new ReflectionAccessor(field);
+    }
+
+    static class ReflectionAccessor extends FieldAccessor {
+
+        private final Field field;
+
+        ReflectionAccessor(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public void set(Object entity, @Nullable Object value) {
+            try {
+                field.set(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public Object get(Object entity) {
+            try {
+                return field.get(entity);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to get value of " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setLong(Object entity, long value) {
+            try {
+                field.setLong(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setInt(Object entity, int value) {
+            try {
+                field.setInt(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setShort(Object entity, short value) {
+            try {
+                field.setShort(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setByte(Object entity, byte value) {
+            try {
+                field.setByte(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object entity, boolean value) {
+            try {
+                field.setBoolean(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setFloat(Object entity, float value) {
+            try {
+                field.setFloat(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+
+        @Override
+        public void setDouble(Object entity, double value) {
+            try {
+                field.setDouble(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to set value for " + field.getName(), e);
+            }
+        }
+    }
+}
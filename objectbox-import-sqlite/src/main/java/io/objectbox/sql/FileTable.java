@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import io.objectbox.sql.DatabaseFile.UnsupportedFormatException;
+
+/**
+ * A table of a {@link DatabaseFile} prepared to be read directly, see {@link FileTableRows}.
+ * Rows have the same columns as pages queried by {@link TableMapping#queryPage}: the mapped
+ * columns, the rowid and, if requested, the size of the row.
+ * <p/>
+ * Only rowid tables are supported, not tables created WITHOUT ROWID, virtual tables, tables with
+ * generated columns, with {@link ColumnMapping.StreamingMapper streaming} columns or with string
+ * properties mapped from columns without TEXT affinity. Rows written before a column was added do
+ * not contain it: if the column has a default value, reading fails with
+ * {@link UnsupportedFormatException} at such a row.
+ */
+class FileTable {
+
+    /** Column is an alias for the rowid, its value is not stored in the record. */
+    static final int ROW_ID = -1;
+    /** Column is the payload size of the record. */
+    static final int ROW_SIZE = -2;
+
+    private static final Pattern GENERATED_COLUMN = Pattern.compile(
+            ".*(\\bGENERATED\\s+ALWAYS\\b|\\bAS\\s*\\().*", Pattern.DOTALL);
+    /** A column declared INTEGER PRIMARY KEY DESC is not an alias for the rowid. */
+    private static final Pattern PRIMARY_KEY_DESC = Pattern.compile(
+            ".*\\bPRIMARY\\s+KEY\\s+DESC\\b.*", Pattern.DOTALL);
+
+    private final DatabaseFile file;
+    private final int rootPage;
+    /** Record field index of each mapped column, or {@link #ROW_ID}. */
+    private final int[] fields;
+    /** If each mapped column has REAL affinity. */
+    private final boolean[] reals;
+    /** Records with fewer fields miss a value that has a default. */
+    private final int minFieldCount;
+
+    private FileTable(DatabaseFile file, int rootPage, int[] fields, boolean[] reals,
+                      int minFieldCount) {
+        this.file = file;
+        this.rootPage = rootPage;
+        this.fields = fields;
+        this.reals = reals;
+        this.minFieldCount = minFieldCount;
+    }
+
+    /**
+     * Prepares reading the mapped columns of the table, throws
+     * {@link UnsupportedFormatException} if the table can not be read directly.
+     */
+    static FileTable prepare(DatabaseFile file, SchemaCatalog schemaCatalog,
+                             TableMapping tableMapping, TableKey key) {
+        String tableName = tableMapping.getTableName();
+        if (!key.isRowId) {
+            throw new UnsupportedFormatException("Table '" + tableName + "' is WITHOUT ROWID");
+        }
+        if (tableMapping.hasStreamingColumns()) {
+            // rows would need the length and rowid columns of streamed values
+            throw new UnsupportedFormatException("Table '" + tableName
+                    + "' has streaming columns");
+        }
+        int rootPage = schemaCatalog.getRootPage(tableName);
+        if (rootPage <= 0 || rootPage > file.getPageCount()) {
+            throw new UnsupportedFormatException("Table '" + tableName + "' is virtual");
+        }
+        String sql = schemaCatalog.getTableSql(tableName);
+        String upperSql = sql != null ? sql.toUpperCase(Locale.US) : "";
+        if (GENERATED_COLUMN.matcher(upperSql).matches()) {
+            throw new UnsupportedFormatException("Table '" + tableName
+                    + "' might have generated columns");
+        }
+
+        int rowIdAlias = -1;
+        List<String> primaryKeyColumns = schemaCatalog.getPrimaryKeyColumns(tableName);
+        if (primaryKeyColumns.size() == 1) {
+            int index = schemaCatalog.indexOfColumn(tableName, primaryKeyColumns.get(0));
+            if ("INTEGER".equalsIgnoreCase(schemaCatalog.getColumnType(tableName, index))) {
+                if (PRIMARY_KEY_DESC.matcher(upperSql).matches()) {
+                    throw new UnsupportedFormatException("Table '" + tableName
+                            + "' has an INTEGER PRIMARY KEY DESC column");
+                }
+                rowIdAlias = index;
+            }
+        }
+
+        ColumnMapping[] columns = tableMapping.getColumns();
+        int[] fields = new int[columns.length];
+        boolean[] reals = new boolean[columns.length];
+        int minFieldCount = 0;
+        for (int i = 0; i < columns.length; i++) {
+            int index = columns[i].getTableColumnIndex();
+            String type = schemaCatalog.getColumnType(tableName, index);
+            if (columns[i].getField().getType() == String.class && !hasTextAffinity(type)) {
+                // the column may contain REAL values: their text depends on how the SQLite build
+                // of the platform rounds, formatReal() can only get close to it
+                throw new UnsupportedFormatException("Column '" + columns[i].getColumnName()
+                        + "' of table '" + tableName + "' is mapped to a string, but may contain"
+                        + " REAL values");
+            }
+            reals[i] = hasRealAffinity(type);
+            if (index == rowIdAlias) {
+                fields[i] = ROW_ID;
+            } else {
+                fields[i] = index;
+                if (schemaCatalog.getColumnDefault(tableName, index) != null) {
+                    minFieldCount = Math.max(minFieldCount, index + 1);
+                }
+            }
+        }
+        return new FileTable(file, rootPage, fields, reals, minFieldCount);
+    }
+
+    /**
+     * The affinity rules of SQLite: "INT" means INTEGER, then "CHAR", "CLOB" or "TEXT" means
+     * TEXT. Numbers are stored as text in such columns.
+     */
+    static boolean hasTextAffinity(@Nullable String type) {
+        if (type == null) {
+            return false;
+        }
+        String upperType = type.toUpperCase(Locale.US);
+        return !upperType.contains("INT") && (upperType.contains("CHAR")
+                || upperType.contains("CLOB") || upperType.contains("TEXT"));
+    }
+
+    /**
+     * The affinity rules of SQLite: if not INTEGER or TEXT, "REAL", "FLOA" or "DOUB" means REAL.
+     */
+    static boolean hasRealAffinity(@Nullable String type) {
+        if (type == null || hasTextAffinity(type)) {
+            return false;
+        }
+        String upperType = type.toUpperCase(Locale.US);
+        return !upperType.contains("INT") && (upperType.contains("REAL")
+                || upperType.contains("FLOA") || upperType.contains("DOUB"));
+    }
+
+    /**
+     * Reads rows ordered by rowid, only those after {@code afterKey} if given.
+     *
+     * @param range Only read rows in this range, or {@code null} for all rows.
+     */
+    Rows scan(@Nullable RowIdRange range, @Nullable String[] afterKey, boolean withRowSize) {
+        long first = range != null ? range.first : Long.MIN_VALUE;
+        long last = range != null ? range.last : Long.MAX_VALUE;
+        if (afterKey != null) {
+            long afterRowId = Long.parseLong(afterKey[0]);
+            if (afterRowId == Long.MAX_VALUE) {
+                first = 1; // no rows after it
+                last = 0;
+            } else {
+                first = Math.max(first, afterRowId + 1);
+            }
+        }
+        int[] rowFields = new int[fields.length + (withRowSize ? 2 : 1)];
+        System.arraycopy(fields, 0, rowFields, 0, fields.length);
+        boolean[] rowReals = new boolean[rowFields.length];
+        System.arraycopy(reals, 0, rowReals, 0, reals.length);
+        rowFields[fields.length] = ROW_ID;
+        if (withRowSize) {
+            rowFields[fields.length + 1] = ROW_SIZE;
+        }
+        return new FileTableRows(file, rootPage, rowFields, rowReals, minFieldCount, first,
+                last);
+    }
+}
@@ -0,0 +1,694 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+
+import io.objectbox.sql.DatabaseFile.UnsupportedFormatException;
+
+/**
+ * Reads the rows of a table B-tree of a {@link DatabaseFile} in rowid order, without going through
+ * SQLite. Walks down the interior pages to the leaf page of the first row, then reads leaf by leaf.
+ * Values are decoded from the record of the row on access, strings straight from UTF-8.
+ * <p/>
+ * Records that do not fit on their leaf page are assembled from their overflow pages into a buffer
+ * that is reused for all rows. Problems with the file, like unknown page types, are thrown as
+ * {@link UnsupportedFormatException} from {@link #moveToNext()}, so rows that were returned can
+ * always be read.
+ */
+class FileTableRows implements Rows {
+
+    private static final int INTERIOR_PAGE = 0x05;
+    private static final int LEAF_PAGE = 0x0d;
+    /** Like SQLite, limits the depth of B-trees, also to not loop on corrupt files. */
+    private static final int MAX_DEPTH = 20;
+    /** SQLite converts REAL values to text with 15 significant digits. */
+    private static final MathContext REAL_DIGITS = new MathContext(15, RoundingMode.HALF_UP);
+    /** Replaces invalid UTF-8, like SQLite does. */
+    private static final char REPLACEMENT = '\ufffd';
+
+    private final ByteBuffer[] segments;
+    private final int pageSize;
+    private final int usableSize;
+    private final long pageCount;
+    private final int pagesPerSegment;
+    private final int rootPage;
+    /** Record field index of each column, or one of the special columns of {@link FileTable}. */
+    private final int[] fields;
+    /**
+     * If each column has REAL affinity: SQLite stores REAL values without a fraction as integers,
+     * but converts them to text as REAL.
+     */
+    private final boolean[] reals;
+    private final int minFieldCount;
+    private final long first;
+    private final long last;
+
+    /** Interior pages from the root down to the current leaf, and the child index taken. */
+    private final long[] pathPages = new long[MAX_DEPTH];
+    private final int[] pathChildren = new int[MAX_DEPTH];
+    private int depth;
+    private boolean started;
+    private boolean done;
+
+    private ByteBuffer leaf;
+    /** Offset of the leaf page in its segment, and of its header. */
+    private int leafStart;
+    private int leafHeader;
+    private int leafCellCount;
+    private int nextCell;
+
+    private long rowId;
+    private int payloadSize;
+    /** Buffer containing the record of the current row, starting at {@link #recordStart}. */
+    private ByteBuffer record;
+    private int recordStart;
+    private final int neededFields;
+    private int fieldCount;
+    private final int[] serialTypes;
+    private final int[] valueOffsets;
+
+    private byte[] overflow = new byte[0];
+    private ByteBuffer overflowBuffer = ByteBuffer.wrap(overflow);
+    private char[] chars = new char[64];
+    private int varintLength;
+
+    FileTableRows(DatabaseFile file, int rootPage, int[] fields, boolean[] reals,
+                  int minFieldCount, long first, long last) {
+        this.segments = file.duplicateSegments();
+        this.pageSize = file.getPageSize();
+        this.usableSize = file.getUsableSize();
+        this.pageCount = file.getPageCount();
+        this.pagesPerSegment = DatabaseFile.SEGMENT_SIZE / pageSize;
+        this.rootPage = rootPage;
+        this.fields = fields;
+        this.reals = reals;
+        this.minFieldCount = minFieldCount;
+        this.first = first;
+        this.last = last;
+        int maxField = -1;
+        for (int field : fields) {
+            maxField = Math.max(maxField, field);
+        }
+        this.neededFields = maxField + 1;
+        this.serialTypes = new int[neededFields];
+        this.valueOffsets = new int[neededFields];
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (done) {
+            return false;
+        }
+        try {
+            if (!started) {
+                started = true;
+                if (first > last) {
+                    done = true;
+                    return false;
+                }
+                descend(rootPage, first);
+            }
+            while (nextCell >= leafCellCount) {
+                if (!nextLeaf()) {
+                    done = true;
+                    return false;
+                }
+            }
+            readCell(nextCell++);
+            if (rowId > last) {
+                done = true;
+                return false;
+            }
+            readRecordHeader();
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            throw new UnsupportedFormatException("Database file is corrupt: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Walks down from the given page to the leaf page containing the first row with a rowid of at
+     * least {@code rowId}.
+     */
+    private void descend(long page, long rowId) {
+        while (true) {
+            ByteBuffer buffer = segmentOf(page);
+            int start = offsetOf(page);
+            int header = page == 1 ? start + 100 : start; // page 1 starts with the file header
+            int type = buffer.get(header);
+            int cellCount = buffer.getShort(header + 3) & 0xffff;
+            if (type == INTERIOR_PAGE) {
+                if (depth == MAX_DEPTH) {
+                    throw new UnsupportedFormatException("B-tree is too deep");
+                }
+                // cell i points to the child with rowids up to its key
+                int low = 0;
+                int high = cellCount;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    int cell = start + (buffer.getShort(header + 12 + 2 * middle) & 0xffff);
+                    if (readVarint(buffer, cell + 4) < rowId) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                pathPages[depth] = page;
+                pathChildren[depth] = low;
+                depth++;
+                page = childOf(buffer, start, header, cellCount, low);
+            } else if (type == LEAF_PAGE) {
+                leaf = buffer;
+                leafStart = start;
+                leafHeader = header;
+                leafCellCount = cellCount;
+                int low = 0;
+                int high = cellCount;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (leafRowId(middle) < rowId) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                nextCell = low;
+                return;
+            } else {
+                throw new UnsupportedFormatException("Page " + page
+                        + " is not a table B-tree page");
+            }
+        }
+    }
+
+    /**
+     * Moves to the first cell of the next leaf page, returns {@code false} if there is none.
+     */
+    private boolean nextLeaf() {
+        while (depth > 0) {
+            long page = pathPages[depth - 1];
+            ByteBuffer buffer = segmentOf(page);
+            int start = offsetOf(page);
+            int header = page == 1 ? start + 100 : start;
+            int cellCount = buffer.getShort(header + 3) & 0xffff;
+            int child = pathChildren[depth - 1] + 1;
+            if (child <= cellCount) { // the right-most child comes after the last cell
+                pathChildren[depth - 1] = child;
+                descend(childOf(buffer, start, header, cellCount, child), Long.MIN_VALUE);
+                return true;
+            }
+            depth--;
+        }
+        return false;
+    }
+
+    private static long childOf(ByteBuffer buffer, int start, int header, int cellCount,
+                                int index) {
+        if (index < cellCount) {
+            int cell = start + (buffer.getShort(header + 12 + 2 * index) & 0xffff);
+            return buffer.getInt(cell) & 0xffffffffL;
+        }
+        return buffer.getInt(header + 8) & 0xffffffffL;
+    }
+
+    private long leafRowId(int index) {
+        int cell = leafStart + (leaf.getShort(leafHeader + 8 + 2 * index) & 0xffff);
+        readVarint(leaf, cell); // payload size
+        return readVarint(leaf, cell + varintLength);
+    }
+
+    /**
+     * Reads the rowid and locates the record of a leaf cell, assembling it if it overflows.
+     */
+    private void readCell(int index) {
+        int position = leafStart + (leaf.getShort(leafHeader + 8 + 2 * index) & 0xffff);
+        long payload = readVarint(leaf, position);
+        position += varintLength;
+        rowId = readVarint(leaf, position);
+        position += varintLength;
+        if (payload > Integer.MAX_VALUE) {
+            throw new UnsupportedFormatException("Row " + rowId + " is too large");
+        }
+        payloadSize = (int) payload;
+        int local = localPayloadSize(payloadSize);
+        if (position + local > leafStart + usableSize) {
+            throw new UnsupportedFormatException("Cell of row " + rowId + " exceeds its page");
+        }
+        if (local == payloadSize) {
+            record = leaf;
+            recordStart = position;
+            return;
+        }
+
+        if (overflow.length < payloadSize) {
+            overflow = new byte[Math.max(payloadSize, overflow.length * 2)];
+            overflowBuffer = ByteBuffer.wrap(overflow);
+        }
+        copy(leaf, position, overflow, 0, local);
+        int copied = local;
+        long page = leaf.getInt(position + local) & 0xffffffffL;
+        while (copied < payloadSize) {
+            if (page == 0) {
+                throw new UnsupportedFormatException("Overflow of row " + rowId + " ends early");
+            }
+            ByteBuffer buffer = segmentOf(page);
+            int start = offsetOf(page);
+            int length = Math.min(usableSize - 4, payloadSize - copied);
+            copy(buffer, start + 4, overflow, copied, length);
+            copied += length;
+            page = buffer.getInt(start) & 0xffffffffL;
+        }
+        record = overflowBuffer;
+        recordStart = 0;
+    }
+
+    /**
+     * Returns how many bytes of a payload are stored on a table leaf page, the rest is stored on
+     * overflow pages.
+     */
+    private int localPayloadSize(int payloadSize) {
+        int maxLocal = usableSize - 35;
+        if (payloadSize <= maxLocal) {
+            return payloadSize;
+        }
+        int minLocal = ((usableSize - 12) * 32 / 255) - 23;
+        int local = minLocal + (payloadSize - minLocal) % (usableSize - 4);
+        return local <= maxLocal ? local : minLocal;
+    }
+
+    /**
+     * Reads the serial type and offset of each needed field from the record header.
+     */
+    private void readRecordHeader() {
+        long headerSize = readVarint(record, recordStart);
+        if (headerSize < varintLength || headerSize > payloadSize) {
+            throw new UnsupportedFormatException("Record of row " + rowId + " is corrupt");
+        }
+        int position = recordStart + varintLength;
+        int headerEnd = recordStart + (int) headerSize;
+        long offset = headerEnd;
+        int field = 0;
+        while (position < headerEnd && field < neededFields) {
+            long serialType = readVarint(record, position);
+            position += varintLength;
+            if (serialType == 10 || serialType == 11 || serialType > Integer.MAX_VALUE) {
+                throw new UnsupportedFormatException("Record of row " + rowId + " is corrupt");
+            }
+            serialTypes[field] = (int) serialType;
+            valueOffsets[field] = (int) offset;
+            offset += valueSize((int) serialType);
+            field++;
+        }
+        if (offset > recordStart + payloadSize) {
+            throw new UnsupportedFormatException("Record of row " + rowId + " is corrupt");
+        }
+        fieldCount = field;
+        if (fieldCount < minFieldCount) {
+            throw new UnsupportedFormatException("Row " + rowId
+                    + " was written before a column with a default value was added");
+        }
+    }
+
+    private static int valueSize(int serialType) {
+        switch (serialType) {
+            case 0:
+            case 8:
+            case 9:
+                return 0;
+            case 5:
+                return 6;
+            case 6:
+            case 7:
+                return 8;
+            default:
+                // integers of 1 to 4 bytes, or BLOB (even) and TEXT (odd) of (type - 12) / 2 bytes
+                return serialType < 12 ? serialType : (serialType - 12) >> 1;
+        }
+    }
+
+    /**
+     * Reads a SQLite varint, big-endian with 7 bits per byte, the ninth byte has 8 bits. Sets
+     * {@link #varintLength}.
+     */
+    private long readVarint(ByteBuffer buffer, int position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = buffer.get(position + i);
+            value = (value << 7) | (b & 0x7f);
+            if (b >= 0) {
+                varintLength = i + 1;
+                return value;
+            }
+        }
+        varintLength = 9;
+        return (value << 8) | (buffer.get(position + 8) & 0xff);
+    }
+
+    private void copy(ByteBuffer buffer, int position, byte[] target, int offset, int length) {
+        if (position < 0 || position + length > buffer.limit()) {
+            throw new UnsupportedFormatException("Row " + rowId + " exceeds the database file");
+        }
+        buffer.position(position);
+        buffer.get(target, offset, length);
+    }
+
+    private ByteBuffer segmentOf(long page) {
+        if (page < 1 || page > pageCount) {
+            throw new UnsupportedFormatException("Page " + page + " is not in the database file");
+        }
+        return segments[(int) ((page - 1) / pagesPerSegment)];
+    }
+
+    private int offsetOf(long page) {
+        return (int) ((page - 1) % pagesPerSegment) * pageSize;
+    }
+
+    /**
+     * Returns the serial type of the value of the column, 0 (NULL) if the record does not have it.
+     */
+    private int serialTypeOf(int field) {
+        return field < fieldCount ? serialTypes[field] : 0;
+    }
+
+    private long readInteger(int field, int serialType) {
+        int position = valueOffsets[field];
+        int size = serialType == 5 ? 6 : (serialType == 6 ? 8 : serialType);
+        long value = record.get(position); // sign extends
+        for (int i = 1; i < size; i++) {
+            value = (value << 8) | (record.get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    private double readReal(int field) {
+        return Double.longBitsToDouble(record.getLong(valueOffsets[field]));
+    }
+
+    /**
+     * Decodes UTF-8 directly from the record into a reused char buffer.
+     */
+    private String readText(int field, int serialType) {
+        int position = valueOffsets[field];
+        int end = position + valueSize(serialType);
+        if (chars.length < end - position) {
+            chars = new char[Math.max(end - position, chars.length * 2)];
+        }
+        char[] chars = this.chars;
+        ByteBuffer record = this.record;
+        int count = 0;
+        while (position < end) {
+            int b = record.get(position);
+            if (b >= 0) {
+                chars[count++] = (char) b;
+                position++;
+                continue;
+            }
+            int codePoint;
+            int length;
+            if ((b & 0xe0) == 0xc0) {
+                codePoint = b & 0x1f;
+                length = 2;
+            } else if ((b & 0xf0) == 0xe0) {
+                codePoint = b & 0x0f;
+                length = 3;
+            } else if ((b & 0xf8) == 0xf0) {
+                codePoint = b & 0x07;
+                length = 4;
+            } else {
+                chars[count++] = REPLACEMENT;
+                position++;
+                continue;
+            }
+            int i = 1;
+            for (; i < length && position + i < end; i++) {
+                int next = record.get(position + i);
+                if ((next & 0xc0) != 0x80) {
+                    break;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3f);
+            }
+            if (i < length || isOverlongOrInvalid(codePoint, length)) {
+                chars[count++] = REPLACEMENT;
+                position += i;
+            } else {
+                if (codePoint >= 0x10000) {
+                    // Character.highSurrogate() requires API level 19
+                    chars[count++] = (char) (0xd800 + ((codePoint - 0x10000) >>> 10));
+                    chars[count++] = (char) (0xdc00 + (codePoint & 0x3ff));
+                } else {
+                    chars[count++] = (char) codePoint;
+                }
+                position += length;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static boolean isOverlongOrInvalid(int codePoint, int length) {
+        switch (length) {
+            case 2:
+                return codePoint < 0x80;
+            case 3:
+                return codePoint < 0x800 || (codePoint >= 0xd800 && codePoint <= 0xdfff);
+            default:
+                return codePoint < 0x10000 || codePoint > 0x10ffff;
+        }
+    }
+
+    private static boolean isText(int serialType) {
+        return serialType >= 13 && (serialType & 1) == 1;
+    }
+
+    private static boolean isBlob(int serialType) {
+        return serialType >= 12 && (serialType & 1) == 0;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        // only used to read pages of PagedQuery, which uses fixed indexes
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        record = null;
+        leaf = null;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return fields.length;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        int field = fields[columnIndex];
+        return field >= 0 && serialTypeOf(field) == 0;
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        int field = fields[columnIndex];
+        if (field == FileTable.ROW_ID) {
+            return rowId;
+        } else if (field == FileTable.ROW_SIZE) {
+            return payloadSize;
+        }
+        int serialType = serialTypeOf(field);
+        if (serialType == 0 || serialType == 8) {
+            return 0;
+        } else if (serialType == 9) {
+            return 1;
+        } else if (serialType <= 6) {
+            return readInteger(field, serialType);
+        } else if (serialType == 7) {
+            return (long) readReal(field);
+        } else if (isText(serialType)) {
+            return parseLong(readText(field, serialType));
+        }
+        throw new IllegalStateException("Unable to convert BLOB to long");
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        int field = fields[columnIndex];
+        if (field < 0) {
+            return getLong(columnIndex);
+        }
+        int serialType = serialTypeOf(field);
+        if (serialType == 7) {
+            return readReal(field);
+        } else if (isText(serialType)) {
+            return parseDouble(readText(field, serialType));
+        } else if (isBlob(serialType)) {
+            throw new IllegalStateException("Unable to convert BLOB to double");
+        }
+        return getLong(columnIndex);
+    }
+
+    @Nullable
+    @Override
+    public String getString(int columnIndex) {
+        int field = fields[columnIndex];
+        if (field < 0) {
+            return Long.toString(getLong(columnIndex));
+        }
+        int serialType = serialTypeOf(field);
+        if (serialType == 0) {
+            return null;
+        } else if (serialType == 7) {
+            return formatReal(readReal(field));
+        } else if (isText(serialType)) {
+            return readText(field, serialType);
+        } else if (isBlob(serialType)) {
+            throw new IllegalStateException("Unable to convert BLOB to string");
+        } else if (reals[columnIndex]) {
+            return formatReal(getLong(columnIndex));
+        }
+        return Long.toString(getLong(columnIndex));
+    }
+
+    @Nullable
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        int field = fields[columnIndex];
+        int serialType = field >= 0 ? serialTypeOf(field) : 1;
+        if (serialType == 0) {
+            return null;
+        } else if (serialType < 12) {
+            throw new IllegalStateException("Unable to convert number to BLOB");
+        }
+        // BLOBs and TEXT as UTF-8 bytes
+        byte[] value = new byte[valueSize(serialType)];
+        copy(record, valueOffsets[field], value, 0, value.length);
+        return value;
+    }
+
+    /**
+     * Formats like SQLite does with {@code %!.15g}, e.g. 0.1 + 0.2 as "0.3" and 1e20 as "1.0e+20".
+     */
+    static String formatReal(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Inf" : "-Inf";
+        } else if (value == 0) {
+            return "0.0";
+        }
+        BigDecimal rounded = new BigDecimal(value).round(REAL_DIGITS).stripTrailingZeros();
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        StringBuilder text = new StringBuilder(24);
+        if (exponent < -4 || exponent >= REAL_DIGITS.getPrecision()) {
+            String digits = rounded.unscaledValue().abs().toString();
+            if (rounded.signum() < 0) {
+                text.append('-');
+            }
+            text.append(digits.charAt(0)).append('.');
+            text.append(digits.length() > 1 ? digits.substring(1) : "0");
+            text.append(exponent < 0 ? "e-" : "e+");
+            int absExponent = Math.abs(exponent);
+            if (absExponent < 10) {
+                text.append('0');
+            }
+            text.append(absExponent);
+        } else {
+            text.append(rounded.toPlainString());
+            if (rounded.scale() <= 0) {
+                text.append(".0");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Like SQLite, converts the longest prefix of the text that looks like a number.
+     */
+    private static long parseLong(String text) {
+        String number = numberPrefix(text);
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(number);
+        }
+    }
+
+    private static double parseDouble(String text) {
+        try {
+            return Double.parseDouble(numberPrefix(text));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String numberPrefix(String text) {
+        int start = 0;
+        int length = text.length();
+        while (start < length && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        if (end < length && (text.charAt(end) == '-' || text.charAt(end) == '+')) {
+            end++;
+        }
+        int digits = end;
+        end = skipDigits(text, end);
+        if (end < length && text.charAt(end) == '.') {
+            end = skipDigits(text, end + 1);
+        }
+        if (end == digits || (end == digits + 1 && text.charAt(digits) == '.')) {
+            return "0"; // no digits
+        }
+        if (end < length && (text.charAt(end) == 'e' || text.charAt(end) == 'E')) {
+            int exponent = end + 1;
+            if (exponent < length
+                    && (text.charAt(exponent) == '-' || text.charAt(exponent) == '+')) {
+                exponent++;
+            }
+            int exponentEnd = skipDigits(text, exponent);
+            if (exponentEnd > exponent) {
+                end = exponentEnd;
+            }
+        }
+        return text.substring(start, end);
+    }
+
+    private static int skipDigits(String text, int index) {
+        while (index < text.length() && text.charAt(index) >= '0' && text.charAt(index) <= '9') {
+            index++;
+        }
+        return index;
+    }
+}
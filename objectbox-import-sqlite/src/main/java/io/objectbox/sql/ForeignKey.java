@@ -1,14 +1,45 @@
 package io.objectbox.sql;
 
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
 public class ForeignKey {
 
+    /** The first column of the foreign key. */
     public final String columnFrom;
     public final String tableTo;
+    /** The column the first column references, {@code null} if the PRIMARY KEY is implied. */
+    @Nullable
     public final String columnTo;
+    /** All columns of the foreign key, more than one for a composite foreign key. */
+    public final List<String> columnsFrom;
+    /**
+     * The columns referenced by {@link #columnsFrom}, entries are {@code null} if the PRIMARY KEY
+     * is implied.
+     */
+    public final List<String> columnsTo;
+
+    public ForeignKey(String columnFrom, String tableTo, @Nullable String columnTo) {
+        this(Collections.singletonList(columnFrom), tableTo, Collections.singletonList(columnTo));
+    }
 
-    public ForeignKey(String columnFrom, String tableTo, String columnTo) {
-        this.columnFrom = columnFrom;
+    public ForeignKey(List<String> columnsFrom, String tableTo, List<String> columnsTo) {
+        if (columnsFrom.isEmpty() || columnsFrom.size() != columnsTo.size()) {
+            throw new IllegalArgumentException("Columns do not match");
+        }
+        this.columnFrom = columnsFrom.get(0);
         this.tableTo = tableTo;
-        this.columnTo = columnTo;
+        this.columnTo = columnsTo.get(0);
+        this.columnsFrom = Collections.unmodifiableList(columnsFrom);
+        this.columnsTo = Collections.unmodifiableList(columnsTo);
+    }
+
+    /**
+     * Returns if the foreign key has more than one column.
+     */
+    public boolean isComposite() {
+        return columnsFrom.size() > 1;
     }
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates values of a foreign key column that does not reference the ID of the target entity,
+ * like a natural key {@code Customer.code}, to the ID of the target entity. The referenced table
+ * is read once, mapping the value of the referenced column of each row to its ID in a
+ * {@link LongLongHashMap}, so foreign keys are translated without a query per row.
+ * <p/>
+ * Values of columns with INTEGER affinity are used as keys as is. Other values, like TEXT, are
+ * hashed to a 64-bit key. For a composite foreign key the keys of all referenced columns are
+ * combined into one 64-bit key, depending on their order. Referenced columns have to be unique, so
+ * if two rows have the same key their values are read again: if they are the same building the
+ * index fails, otherwise their keys collide and the values of both are kept to look them up
+ * exactly. Values no row has are not compared: if their key is the key of a row, they are
+ * translated to that row. With 64-bit keys this is very unlikely.
+ * <p/>
+ * If changes of the referenced table are captured, the index is kept and updated with the
+ * changed rows, see {@link #update(RowSource, long[], int)}.
+ */
+class ForeignKeyIndex {
+
+    /** The referenced table. */
+    final String tableTo;
+    private final List<String> columnsTo;
+    /** Selects the referenced columns and the ID column of rows that can be referenced. */
+    private final String select;
+    private final String idColumn;
+    /** For each referenced column, if it has INTEGER affinity. */
+    private final boolean[] integerKeys;
+    private final LongLongHashMap ids;
+    /** For keys of rows with different values, the ID of each row by its values. */
+    @Nullable
+    private Map<Long, Map<List<Object>, Long>> collisions;
+    /** The key of each ID, only built once the index is first updated. */
+    @Nullable
+    private LongLongHashMap keysById;
+
+    private ForeignKeyIndex(String tableTo, List<String> columnsTo, String select,
+                            String idColumn, boolean[] integerKeys, LongLongHashMap ids) {
+        this.tableTo = tableTo;
+        this.columnsTo = columnsTo;
+        this.select = select;
+        this.idColumn = idColumn;
+        this.integerKeys = integerKeys;
+        this.ids = ids;
+    }
+
+    /**
+     * Reads the referenced column and the ID column of all rows of the referenced table.
+     *
+     * @param idColumn The column the ID of the target entity is mapped from, or "rowid".
+     */
+    static ForeignKeyIndex build(RowSource source, SchemaCatalog schemaCatalog, String tableTo,
+                                 String columnTo, String idColumn) {
+        return build(source, schemaCatalog, tableTo, Collections.singletonList(columnTo),
+                idColumn);
+    }
+
+    /**
+     * Reads the referenced columns and the ID column of all rows of the referenced table. Rows
+     * with a NULL value in any referenced column can not be referenced and are left out.
+     *
+     * @param idColumn The column the ID of the target entity is mapped from, or "rowid".
+     */
+    static ForeignKeyIndex build(RowSource source, SchemaCatalog schemaCatalog, String tableTo,
+                                 List<String> columnsTo, String idColumn) {
+        boolean[] integerKeys = new boolean[columnsTo.size()];
+        StringBuilder columns = new StringBuilder();
+        StringBuilder notNull = new StringBuilder();
+        for (int i = 0; i < integerKeys.length; i++) {
+            String columnTo = columnsTo.get(i);
+            String type = schemaCatalog.getColumnType(tableTo,
+                    schemaCatalog.indexOfColumn(tableTo, columnTo));
+            // the affinity rule of SQLite: a declared type containing "INT" has INTEGER affinity
+            integerKeys[i] = type != null && type.toUpperCase(Locale.US).contains("INT");
+            if (i > 0) {
+                notNull.append(" AND ");
+            }
+            columns.append('"').append(columnTo).append("\", ");
+            notNull.append('"').append(columnTo).append("\" IS NOT NULL");
+        }
+        String table = "\"" + tableTo + "\"";
+        String id = "rowid".equals(idColumn) ? idColumn : "\"" + idColumn + "\"";
+        LongLongHashMap ids = new LongLongHashMap(
+                (int) Math.min(Integer.MAX_VALUE / 2, countRows(source, table)));
+        String select = "SELECT " + columns + id + " FROM " + table + " WHERE " + notNull;
+        ForeignKeyIndex index = new ForeignKeyIndex(tableTo, columnsTo, select, id, integerKeys,
+                ids);
+        index.addRows(source, source.query(select, null), true);
+        return index;
+    }
+
+    /**
+     * Replaces the keys of the rows with the given rowids by their current values, rows that
+     * were deleted are removed. Requires that the ID column is the rowid or its alias, like for
+     * tables whose changes are captured.
+     *
+     * @param count Number of rowids to use from the start of the array.
+     */
+    void update(RowSource source, long[] rowIds, int count) {
+        if (keysById == null) {
+            keysById = ids.inverse();
+        }
+        StringBuilder sql = new StringBuilder(select).append(" AND rowid IN (");
+        for (int i = 0; i < count; i++) {
+            long rowId = rowIds[i];
+            if (keysById.containsKey(rowId)) {
+                long key = keysById.get(rowId, 0);
+                keysById.remove(rowId);
+                if (ids.get(key, 0) == rowId) {
+                    ids.remove(key);
+                }
+                Map<List<Object>, Long> colliding = collisions != null ? collisions.get(key) : null;
+                if (colliding != null) {
+                    colliding.values().remove(rowId);
+                    if (colliding.isEmpty()) {
+                        collisions.remove(key);
+                    }
+                }
+            }
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(rowId);
+        }
+        sql.append(')');
+        // values of rows that were not changed yet might still be in the index, the last wins
+        addRows(source, source.query(sql.toString(), null), false);
+    }
+
+    /**
+     * Adds the keys of the rows selected by {@link #select}, then closes the rows.
+     *
+     * @param requireUnique Throw if values are already in the index, instead of replacing them.
+     */
+    private void addRows(RowSource source, Rows rows, boolean requireUnique) {
+        int idIndex = integerKeys.length;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (rows.moveToNext()) {
+                long key = keyOfColumns(rows);
+                long id = rows.getLong(idIndex);
+                Map<List<Object>, Long> colliding = collisions != null ? collisions.get(key) : null;
+                if (colliding == null && ids.containsKey(key) && ids.get(key, 0) != id) {
+                    colliding = collide(source, key, ids.get(key, 0));
+                }
+                if (colliding != null) {
+                    List<Object> values = valuesOf(rows);
+                    if (requireUnique && colliding.containsKey(values)) {
+                        throw new IllegalStateException("Values of " + columnsTo + " of table '"
+                                + tableTo + "' are not unique: " + values);
+                    }
+                    colliding.put(values, id);
+                }
+                ids.put(key, id);
+                if (keysById != null) {
+                    keysById.put(id, key);
+                }
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Reads the current values of the row that has the key in the index. Returns them with its
+     * ID, to add the values of another row with the same key, or {@code null} if the row no
+     * longer has the key (its changes are not applied to the index yet).
+     */
+    @Nullable
+    private Map<List<Object>, Long> collide(RowSource source, long key, long id) {
+        Rows rows = source.query(select + " AND " + idColumn + " = " + id, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            if (!rows.moveToNext()) {
+                return null;
+            }
+            if (keyOfColumns(rows) != key) {
+                return null;
+            }
+            Map<List<Object>, Long> colliding = new HashMap<>();
+            colliding.put(valuesOf(rows), id);
+            if (collisions == null) {
+                collisions = new HashMap<>();
+            }
+            collisions.put(key, colliding);
+            return colliding;
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Returns the key of the referenced columns selected by {@link #select}.
+     */
+    private long keyOfColumns(Row row) {
+        long key = keyOf(row, 0, integerKeys[0]);
+        for (int i = 1; i < integerKeys.length; i++) {
+            key = combine(key, keyOf(row, i, integerKeys[i]));
+        }
+        return key;
+    }
+
+    /**
+     * Returns the values of the referenced columns selected by {@link #select}, to compare them
+     * exactly.
+     */
+    private List<Object> valuesOf(Row row) {
+        List<Object> values = new ArrayList<>(integerKeys.length);
+        for (int i = 0; i < integerKeys.length; i++) {
+            values.add(valueOf(row, i, integerKeys[i]));
+        }
+        return values;
+    }
+
+    private static Object valueOf(Row row, int columnIndex, boolean integerKey) {
+        return integerKey ? (Object) row.getLong(columnIndex) : row.getString(columnIndex);
+    }
+
+    private static long countRows(RowSource source, String table) {
+        Rows rows = source.query("SELECT count(*) FROM " + table, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            return rows.getLong(0);
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Returns the ID of the target entity referenced by the value of the column, or 0 (no target)
+     * if the value is NULL or no row of the referenced table has it.
+     */
+    long getTargetId(Row row, int columnIndex) {
+        if (row.isNull(columnIndex)) {
+            return 0;
+        }
+        long key = keyOf(row, columnIndex, integerKeys[0]);
+        Map<List<Object>, Long> colliding = collisions != null ? collisions.get(key) : null;
+        if (colliding != null) {
+            Long id = colliding.get(Collections.singletonList(
+                    valueOf(row, columnIndex, integerKeys[0])));
+            return id != null ? id : 0;
+        }
+        return ids.get(key, 0);
+    }
+
+    /**
+     * Returns the ID of the target entity referenced by the values of the columns of a composite
+     * foreign key, or 0 (no target) if any value is NULL or no row of the referenced table has
+     * them.
+     *
+     * @param columns The columns of the foreign key, in the order of the referenced columns.
+     */
+    long getTargetId(Row row, ColumnMapping[] columns) {
+        long key = 0;
+        for (int i = 0; i < columns.length; i++) {
+            int columnIndex = columns[i].getColumnIndex();
+            if (row.isNull(columnIndex)) {
+                return 0;
+            }
+            long part = keyOf(row, columnIndex, integerKeys[i]);
+            key = i == 0 ? part : combine(key, part);
+        }
+        Map<List<Object>, Long> colliding = collisions != null ? collisions.get(key) : null;
+        if (colliding != null) {
+            List<Object> values = new ArrayList<>(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                values.add(valueOf(row, columns[i].getColumnIndex(), integerKeys[i]));
+            }
+            Long id = colliding.get(values);
+            return id != null ? id : 0;
+        }
+        return ids.get(key, 0);
+    }
+
+    private static long keyOf(Row row, int columnIndex, boolean integerKeys) {
+        if (integerKeys) {
+            return row.getLong(columnIndex);
+        }
+        return hash(row.getString(columnIndex));
+    }
+
+    /**
+     * Combines the key of the previous columns with the key of the next column. Depends on the
+     * order of the columns, so values (1, 2) and (2, 1) have different keys.
+     */
+    static long combine(long key, long part) {
+        return LongLongHashMap.mix(key * 31 + LongLongHashMap.mix(part));
+    }
+
+    /**
+     * Hashes a string to 64 bits (FNV-1a over its chars), with few enough collisions to compare
+     * the values of colliding rows exactly.
+     */
+    static long hash(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
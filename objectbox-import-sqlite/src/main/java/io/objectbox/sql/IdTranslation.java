@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the rowid of each migrated row and the ID ObjectBox assigned to its entity, for tables
+ * whose entity ID is not mapped from a column. Foreign keys referencing such a table are
+ * translated to the new IDs, see {@link SqlMigration#setIdTranslation(long, File)}.
+ * <p/>
+ * Rows are read in rowid order, so the IDs of a table are recorded sorted by rowid and looked up
+ * with a binary search. They are appended to primitive arrays, which grow up to the remaining
+ * memory budget. Tables are migrated one after another, so if the budget is used up, the arrays of
+ * tables recorded before are released first. Otherwise the arrays of the current table are
+ * appended to the file of the table as a run and cleared. Runs are memory-mapped to look up IDs.
+ * As rowids only increase, each run comes after the previous one and runs never have to be merged.
+ */
+class IdTranslation {
+
+    /** Bytes of memory per recorded ID: the rowid and the new ID. */
+    private static final int ENTRY_SIZE = 16;
+    private static final int MIN_CAPACITY = 1024;
+    /** Arrays are written to a run at once, and a memory-mapped run is limited to 2 GB. */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / ENTRY_SIZE;
+
+    private final long maxMemoryBytes;
+    @Nullable
+    private final File directory;
+    private final Map<String, Table> tables = new HashMap<>();
+    private final List<File> runFiles = new ArrayList<>();
+    private long memoryBytes;
+
+    /**
+     * @param directory Directory to write runs to, or {@code null} for the temp directory.
+     */
+    IdTranslation(long maxMemoryBytes, @Nullable File directory) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+    }
+
+    Table addTable(String tableName) {
+        Table table = new Table(tableName);
+        tables.put(tableName, table);
+        return table;
+    }
+
+    /**
+     * Returns the IDs of the table, or {@code null} if its IDs are not translated.
+     */
+    @Nullable
+    Table getTable(String tableName) {
+        return tables.get(tableName);
+    }
+
+    /**
+     * Deletes all runs.
+     */
+    void close() {
+        for (File file : runFiles) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * Writes the arrays of all tables except the given one to runs and releases them.
+     */
+    private void releaseOtherTables(Table current) {
+        for (Table table : tables.values()) {
+            if (table != current && table.rowIds.length > 0) {
+                if (table.count > 0) {
+                    table.spill();
+                }
+                memoryBytes -= (long) table.rowIds.length * ENTRY_SIZE;
+                table.rowIds = new long[0];
+                table.newIds = new long[0];
+            }
+        }
+    }
+
+    /** A run of IDs written to a file, pairs of rowid and new ID. */
+    private static class Run {
+        final long firstRowId;
+        /** Position of the first ID of the run in the table. */
+        final long position;
+        final int count;
+        final LongBuffer entries;
+
+        Run(long firstRowId, long position, int count, LongBuffer entries) {
+            this.firstRowId = firstRowId;
+            this.position = position;
+            this.count = count;
+            this.entries = entries;
+        }
+    }
+
+    class Table {
+        private final String tableName;
+        private final List<Run> runs = new ArrayList<>();
+        /** File the runs are appended to, created with the first run. */
+        @Nullable
+        private File file;
+        /** Number of IDs written to runs. */
+        private long spilled;
+        private long[] rowIds = new long[0];
+        private long[] newIds = new long[0];
+        private int count;
+        private long lastRowId = Long.MIN_VALUE;
+        private long size;
+
+        private Table(String tableName) {
+            this.tableName = tableName;
+        }
+
+        /**
+         * Records the new ID of a row, rowids must be recorded in ascending order.
+         */
+        void put(long rowId, long newId) {
+            if (rowId <= lastRowId) {
+                throw new IllegalStateException("Rows of table '" + tableName
+                        + "' were not read in rowid order");
+            }
+            if (count == rowIds.length) {
+                makeRoom();
+            }
+            rowIds[count] = rowId;
+            newIds[count] = newId;
+            count++;
+            lastRowId = rowId;
+            size++;
+        }
+
+        /**
+         * Grows the arrays as far as the memory budget allows it, if that is too little writes
+         * them to a run.
+         */
+        private void makeRoom() {
+            int capacity = rowIds.length;
+            int added = Math.min(Math.max(MIN_CAPACITY, capacity), MAX_CAPACITY - capacity);
+            if (added < MIN_CAPACITY || memoryBytes + (long) added * ENTRY_SIZE > maxMemoryBytes) {
+                releaseOtherTables(this);
+                added = (int) Math.min(added,
+                        Math.max(0, (maxMemoryBytes - memoryBytes) / ENTRY_SIZE));
+                if (added < MIN_CAPACITY) {
+                    if (count > 0) {
+                        spill();
+                        return;
+                    }
+                    added = MIN_CAPACITY; // always keep some room
+                }
+            }
+            int newCapacity = capacity + added;
+            long addedBytes = (long) added * ENTRY_SIZE;
+            long[] grownRowIds = new long[newCapacity];
+            long[] grownNewIds = new long[newCapacity];
+            System.arraycopy(rowIds, 0, grownRowIds, 0, count);
+            System.arraycopy(newIds, 0, grownNewIds, 0, count);
+            rowIds = grownRowIds;
+            newIds = grownNewIds;
+            memoryBytes += addedBytes;
+        }
+
+        private void spill() {
+            try {
+                if (file == null) {
+                    file = File.createTempFile("objectbox-ids-", ".run", directory);
+                    runFiles.add(file);
+                }
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    for (int i = 0; i < count; i++) {
+                        out.writeLong(rowIds[i]);
+                        out.writeLong(newIds[i]);
+                    }
+                } finally {
+                    out.close();
+                }
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    // the mapping stays valid after the channel is closed
+                    LongBuffer entries = randomAccessFile.getChannel()
+                            .map(FileChannel.MapMode.READ_ONLY, spilled * ENTRY_SIZE,
+                                    (long) count * ENTRY_SIZE)
+                            .asLongBuffer();
+                    runs.add(new Run(rowIds[0], spilled, count, entries));
+                } finally {
+                    randomAccessFile.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write IDs of table '" + tableName + "'", e);
+            }
+            spilled += count;
+            count = 0;
+        }
+
+        /**
+         * Returns the number of recorded IDs.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Returns the new ID of the row with the given rowid, or 0 if no such row was recorded.
+         */
+        long translate(long rowId) {
+            if (count > 0 && rowId >= rowIds[0]) {
+                int index = Arrays.binarySearch(rowIds, 0, count, rowId);
+                return index >= 0 ? newIds[index] : 0;
+            }
+            int runIndex = findRun(rowId, true);
+            if (runIndex < 0) {
+                return 0;
+            }
+            Run run = runs.get(runIndex);
+            int low = 0;
+            int high = run.count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleRowId = run.entries.get(middle * 2);
+                if (middleRowId < rowId) {
+                    low = middle + 1;
+                } else if (middleRowId > rowId) {
+                    high = middle - 1;
+                } else {
+                    return run.entries.get(middle * 2 + 1);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Copies up to {@code length} new IDs in rowid order, starting at the given position, and
+         * returns how many were copied.
+         */
+        int getNewIds(long position, long[] ids, int length) {
+            int copied = 0;
+            for (int i = Math.max(0, findRun(position, false));
+                 i < runs.size() && copied < length; i++) {
+                Run run = runs.get(i);
+                while (copied < length && position < run.position + run.count) {
+                    ids[copied++] = run.entries.get((int) (position - run.position) * 2 + 1);
+                    position++;
+                }
+            }
+            while (copied < length && position >= spilled && position < spilled + count) {
+                ids[copied++] = newIds[(int) (position - spilled)];
+                position++;
+            }
+            return copied;
+        }
+
+        /**
+         * Returns the index of the last run starting at or before the given rowid (or position
+         * in the table), or -1 if there is none.
+         */
+        private int findRun(long value, boolean byRowId) {
+            int low = 0;
+            int high = runs.size() - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                Run run = runs.get(middle);
+                if ((byRowId ? run.firstRowId : run.position) <= value) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+    }
+}
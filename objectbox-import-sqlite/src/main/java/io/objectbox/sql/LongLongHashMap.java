@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.objectbox.sql;
+
+/**
+ * A hash map of {@code long} keys to {@code long} values, which does not box keys or values and
+ * does not allocate per entry. Uses open addressing with linear probing in two parallel arrays,
+ * which are doubled once more than half of the slots are used.
+ */
+class LongLongHashMap {
+
+    /** Marks a free slot, the entry of this key is kept separately. */
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    /**
+     * @param expectedSize Number of entries to allocate space for, more can be added.
+     */
+    LongLongHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of the key, or {@code missingValue} if there is none.
+     */
+    long get(long key, long missingValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        long[] keys = this.keys;
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                return values[slot];
+            }
+            if (slotKey == FREE_KEY) {
+                return missingValue;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                return true;
+            }
+            if (slotKey == FREE_KEY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Sets the value of the key, replacing any previous value.
+     */
+    void put(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                values[slot] = value;
+                return;
+            }
+            if (slotKey == FREE_KEY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size * 2L > keys.length) {
+                    grow();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes the entry of the key, if there is one.
+     */
+    void remove(long key) {
+        if (key == FREE_KEY) {
+            if (hasFreeKey) {
+                hasFreeKey = false;
+                size--;
+            }
+            return;
+        }
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                break;
+            }
+            if (slotKey == FREE_KEY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        // move following entries back into the gap if their probing passes it, lookups would
+        // otherwise stop at the gap before reaching them
+        int gap = slot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long slotKey = keys[slot];
+            if (slotKey == FREE_KEY) {
+                break;
+            }
+            if (((slot - slot(slotKey)) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = slotKey;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = FREE_KEY;
+        values[gap] = 0;
+    }
+
+    /**
+     * Returns a new map of the values of this map to their keys. If multiple keys have the same
+     * value, one of them is kept.
+     */
+    LongLongHashMap inverse() {
+        LongLongHashMap inverse = new LongLongHashMap(size);
+        if (hasFreeKey) {
+            inverse.put(freeKeyValue, FREE_KEY);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                inverse.put(values[i], keys[i]);
+            }
+        }
+        return inverse;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = slot(key);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    /**
+     * Spreads the bits of the key (the finalizer of MurmurHash3), as keys like rowids or hashes of
+     * short strings often only differ in a few bits.
+     */
+    static long mix(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
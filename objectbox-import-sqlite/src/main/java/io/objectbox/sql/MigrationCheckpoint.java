@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Records which rows of each table were already committed, so a chunked migration can resume
+ * after it was interrupted. Progress is stored in a properties file which is replaced on each save.
+ */
+class MigrationCheckpoint {
+
+    private static final String KEY_COMPLETE = "complete";
+    private static final String PREFIX_TABLE_COMPLETE = "complete.";
+    private static final String PREFIX_LAST_KEY = "key.";
+
+    @Nullable
+    private final File file;
+    private final Properties properties = new Properties();
+
+    /**
+     * Creates a checkpoint that is only kept in memory.
+     */
+    MigrationCheckpoint() {
+        this.file = null;
+    }
+
+    /**
+     * Loads the checkpoint from the given file. If the file does not exist, nothing was migrated
+     * yet.
+     */
+    MigrationCheckpoint(File file) {
+        this.file = file;
+        if (file.exists()) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                properties.load(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read migration checkpoint " + file, e);
+            } finally {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    boolean isComplete() {
+        return properties.containsKey(KEY_COMPLETE);
+    }
+
+    void setComplete() {
+        properties.setProperty(KEY_COMPLETE, "true");
+    }
+
+    boolean isTableComplete(String tableName) {
+        return properties.containsKey(PREFIX_TABLE_COMPLETE + tableName);
+    }
+
+    void setTableComplete(String tableName) {
+        properties.setProperty(PREFIX_TABLE_COMPLETE + tableName, "true");
+    }
+
+    /**
+     * Returns the key of the last committed row of the table, or {@code null} if no row was
+     * committed yet. Values are SQL literals keeping their storage class, values of a high-water
+     * mark column may be {@code null}.
+     *
+     * @see TableKey
+     */
+    @Nullable
+    String[] getLastKey(String tableName) {
+        String count = properties.getProperty(PREFIX_LAST_KEY + tableName);
+        if (count == null) {
+            return null;
+        }
+        String[] lastKey = new String[Integer.parseInt(count)];
+        for (int i = 0; i < lastKey.length; i++) {
+            lastKey[i] = properties.getProperty(PREFIX_LAST_KEY + tableName + "." + i);
+        }
+        return lastKey;
+    }
+
+    void setLastKey(String tableName, String[] lastKey) {
+        properties.setProperty(PREFIX_LAST_KEY + tableName, Integer.toString(lastKey.length));
+        for (int i = 0; i < lastKey.length; i++) {
+            String name = PREFIX_LAST_KEY + tableName + "." + i;
+            if (lastKey[i] != null) {
+                properties.setProperty(name, lastKey[i]);
+            } else {
+                properties.remove(name); // NULL value of a high-water mark column
+            }
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first and then renames it, so the previous
+     * checkpoint stays intact if writing fails.
+     */
+    void save() {
+        if (file == null) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            properties.store(out, "ObjectBox SQLite import progress");
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write migration checkpoint " + tempFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new RuntimeException("Failed to replace migration checkpoint " + file);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
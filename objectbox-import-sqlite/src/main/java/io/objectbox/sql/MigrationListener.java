@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+/**
+ * Receives the progress of a migration per table, see
+ * {@link SqlMigration#setMigrationListener(MigrationListener, long)}. All methods are called on the
+ * thread calling {@link SqlMigration#migrate(SqlMigration.PostMigrationStep)}, usually inside a
+ * write transaction, so they should return quickly.
+ * <p/>
+ * The given {@link TableMetrics} is updated as migration continues, copy values to keep them.
+ */
+public interface MigrationListener {
+
+    /**
+     * Called before the first row of a table is read.
+     */
+    void onTableStart(TableMetrics metrics);
+
+    /**
+     * Called at most once per progress interval while rows of a table are migrated.
+     */
+    void onTableProgress(TableMetrics metrics);
+
+    /**
+     * Called once all rows of a table were put. Not called if migration fails.
+     */
+    void onTableEnd(TableMetrics metrics);
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.objectbox.Box;
+
+/**
+ * Reads and maps rows on reader threads, while the thread calling {@link #run(List)} puts the
+ * mapped entities. Readers hand over entities in batches through a bounded buffer: if the writer
+ * falls behind, readers wait until there is space again.
+ * <p/>
+ * If a reader fails, the writer stops and throws its exception. If the writer fails, readers are
+ * stopped. In both cases the exception is thrown from {@link #run(List)}, so a surrounding
+ * transaction is rolled back.
+ * <p/>
+ * If tasks have {@link TableMetrics}, readers measure read and map time and hand it over with
+ * each batch, so metrics are only updated by the writer.
+ */
+class MigrationPipeline {
+
+    /** How long to wait on the buffer before checking if the pipeline was stopped. */
+    private static final long POLL_MILLIS = 100;
+
+    private final int readerThreads;
+    private final BlockingQueue<EntityBatch> buffer;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    /** Number of tasks per table that are not done yet, only accessed by the writer. */
+    private final Map<TableMetrics, Integer> unfinishedTasks = new HashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * @param readerThreads Number of threads reading tasks at the same time.
+     * @param capacity Number of batches the buffer holds.
+     */
+    MigrationPipeline(int readerThreads, int capacity) {
+        this.readerThreads = readerThreads;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Runs all read tasks and puts the entities they emit on the calling thread, usually inside a
+     * write transaction. Returns once all tasks are done and all entities were put.
+     * <p/>
+     * A task is only started once all entities of the tasks it depends on were put. Otherwise
+     * tasks are started in the given order. If tasks depend on each other in a cycle, and no task
+     * is running, the first remaining task is started anyway.
+     */
+    void run(List<? extends ReadTask> tasks) {
+        ExecutorService readers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(readerThreads, tasks.size())), new ReaderThreadFactory());
+        try {
+            for (ReadTask task : tasks) {
+                TableMetrics metrics = task.getMetrics();
+                if (metrics != null) {
+                    Integer count = unfinishedTasks.get(metrics);
+                    unfinishedTasks.put(metrics, count != null ? count + 1 : 1);
+                }
+            }
+            List<ReadTask> pending = new ArrayList<>(tasks);
+            Set<ReadTask> done = new HashSet<>();
+            int running = startReady(readers, pending, done, 0);
+            while (running > 0) {
+                throwIfReaderFailed();
+                EntityBatch batch = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                if (batch.endOf != null) {
+                    done.add(batch.endOf);
+                    finish(batch.endOf);
+                    running--;
+                    running += startReady(readers, pending, done, running);
+                } else {
+                    put(batch);
+                }
+            }
+            throwIfReaderFailed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for readers", e);
+        } finally {
+            stopped = true;
+            buffer.clear(); // unblock readers waiting for space
+            readers.shutdownNow();
+            awaitTermination(readers);
+        }
+    }
+
+    /**
+     * Starts pending tasks whose dependencies are done, returns how many were started.
+     */
+    private int startReady(ExecutorService readers, List<ReadTask> pending, Set<ReadTask> done,
+                           int running) {
+        int started = 0;
+        Iterator<ReadTask> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            ReadTask task = iterator.next();
+            if (done.containsAll(task.dependencies)) {
+                iterator.remove();
+                start(readers, task);
+                started++;
+            }
+        }
+        if (started == 0 && running == 0 && !pending.isEmpty()) {
+            // dependency cycle, nothing would ever finish
+            start(readers, pending.remove(0));
+            started++;
+        }
+        return started;
+    }
+
+    private void start(ExecutorService readers, final ReadTask task) {
+        TableMetrics metrics = task.getMetrics();
+        if (metrics != null && !metrics.isStarted()) {
+            metrics.start();
+        }
+        readers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.read(MigrationPipeline.this);
+                    offer(new EntityBatch(task));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the table of the task once all of its tasks are done.
+     */
+    private void finish(ReadTask task) {
+        TableMetrics metrics = task.getMetrics();
+        if (metrics == null) {
+            return;
+        }
+        int unfinished = unfinishedTasks.get(metrics) - 1;
+        unfinishedTasks.put(metrics, unfinished);
+        if (unfinished == 0) {
+            metrics.end();
+        }
+    }
+
+    private void put(EntityBatch batch) {
+        TableMetrics metrics = batch.metrics;
+        long time = metrics != null ? System.nanoTime() : 0;
+        //noinspection unchecked Type is not known
+        batch.box.put(batch.entities);
+        if (metrics != null) {
+            time = metrics.lapPut(time);
+            metrics.addRows(batch.entities.size());
+            metrics.addReadAndMap(batch.readNanos, batch.mapNanos);
+            metrics.progress(time);
+        }
+    }
+
+    /**
+     * Hands over mapped entities to the writer, waits if the buffer is full. Throws
+     * {@link InterruptedException} if the pipeline was stopped.
+     *
+     * @param metrics Metrics of the table to add the time it took to read and map the entities
+     *                to, or {@code null} if not measuring.
+     */
+    void emit(Box box, List<Object> entities, @Nullable TableMetrics metrics, long readNanos,
+              long mapNanos) throws InterruptedException {
+        offer(new EntityBatch(box, entities, metrics, readNanos, mapNanos));
+    }
+
+    private void offer(EntityBatch batch) throws InterruptedException {
+        while (!buffer.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped) {
+                throw new InterruptedException("Migration pipeline was stopped");
+            }
+        }
+    }
+
+    private void throwIfReaderFailed() {
+        Throwable e = failure.get();
+        if (e == null) {
+            return;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException("Reading rows failed", e);
+    }
+
+    private static void awaitTermination(ExecutorService readers) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (readers.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Work done by a reader thread, emits mapped entities using
+     * {@link MigrationPipeline#emit(Box, List, TableMetrics, long, long)}.
+     */
+    abstract static class ReadTask {
+        private final List<ReadTask> dependencies = new ArrayList<>();
+
+        /**
+         * Only start this task once all entities of the given task were put.
+         */
+        void dependOn(ReadTask task) {
+            dependencies.add(task);
+        }
+
+        abstract void read(MigrationPipeline pipeline) throws Exception;
+
+        /**
+         * Returns the metrics of the table this task reads, or {@code null} if not measuring.
+         */
+        @Nullable
+        TableMetrics getMetrics() {
+            return null;
+        }
+    }
+
+    /**
+     * Reads all rows of a table, or of a rowid range of it, page by page and emits them in
+     * batches.
+     */
+    static class TableReadTask extends ReadTask {
+        private final RowSource source;
+        private final boolean ownConnection;
+        private final TableMapping tableMapping;
+        private final Box box;
+        private final TableKey key;
+        @Nullable
+        private final RowIdRange range;
+        private final ReadPlan plan;
+        private final int batchSize;
+        @Nullable
+        private final FileTable fileTable;
+        @Nullable
+        private final TableMetrics metrics;
+
+        /**
+         * @param ownConnection If set, opens a separate read-only connection to the database, so
+         * multiple tasks can read at the same time, see {@link RowSource#openReadOnly()}.
+         * @param range Only read rows in this range, or {@code null} to read all rows.
+         * @param plan Page and window size to query rows with.
+         * @param fileTable Read rows directly from the database file, or {@code null} to query
+         * them.
+         * @param metrics Metrics of the table to hand over read and map time for, or {@code null}
+         * to not measure. Shared by all tasks of the table.
+         */
+        TableReadTask(RowSource source, boolean ownConnection, TableMapping tableMapping,
+                      Box box, TableKey key, @Nullable RowIdRange range, ReadPlan plan,
+                      int batchSize, @Nullable FileTable fileTable,
+                      @Nullable TableMetrics metrics) {
+            this.source = source;
+            this.ownConnection = ownConnection;
+            this.tableMapping = tableMapping;
+            this.box = box;
+            this.key = key;
+            this.range = range;
+            this.plan = plan;
+            this.batchSize = batchSize;
+            this.fileTable = fileTable;
+            this.metrics = metrics;
+        }
+
+        @Nullable
+        @Override
+        TableMetrics getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        void read(MigrationPipeline pipeline) throws Exception {
+            RowSource source = ownConnection ? this.source.openReadOnly() : this.source;
+            PagedQuery query = null;
+            try {
+                query = new PagedQuery(source, tableMapping, key, range, null,
+                        plan.getPageSize(), false, fileTable);
+                query.setWindowSize(plan.getWindowSize());
+                List<Object> batch = new ArrayList<>(batchSize);
+                // metrics are only updated by the writer, measure on this thread and hand over
+                boolean measure = metrics != null;
+                long readNanos = 0;
+                long mapNanos = 0;
+                long time = measure ? System.nanoTime() : 0;
+                while (query.moveToNext()) {
+                    if (measure) {
+                        long now = System.nanoTime();
+                        readNanos += now - time;
+                        time = now;
+                    }
+                    Row row = query.getRow();
+                    Object entity = tableMapping.newEntity();
+                    tableMapping.mapRow(row, entity);
+                    batch.add(entity);
+                    if (measure) {
+                        long now = System.nanoTime();
+                        mapNanos += now - time;
+                        time = now;
+                    }
+                    if (batch.size() == batchSize) {
+                        pipeline.emit(box, batch, metrics, readNanos, mapNanos);
+                        batch = new ArrayList<>(batchSize); // the writer owns the emitted one
+                        readNanos = 0;
+                        mapNanos = 0;
+                        if (measure) {
+                            time = System.nanoTime(); // waiting for the writer is not reading
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    if (measure) {
+                        readNanos += System.nanoTime() - time;
+                    }
+                    pipeline.emit(box, batch, metrics, readNanos, mapNanos);
+                }
+            } finally {
+                if (query != null) {
+                    query.close();
+                }
+                if (ownConnection) {
+                    source.close();
+                }
+            }
+        }
+    }
+
+    private static class EntityBatch {
+        final Box box;
+        final List<Object> entities;
+        /** If set, marks that the task is done and there are no more entities. */
+        @Nullable
+        final ReadTask endOf;
+        @Nullable
+        final TableMetrics metrics;
+        final long readNanos;
+        final long mapNanos;
+
+        EntityBatch(Box box, List<Object> entities, @Nullable TableMetrics metrics,
+                    long readNanos, long mapNanos) {
+            this.box = box;
+            this.entities = entities;
+            this.endOf = null;
+            this.metrics = metrics;
+            this.readNanos = readNanos;
+            this.mapNanos = mapNanos;
+        }
+
+        EntityBatch(ReadTask endOf) {
+            this.box = null;
+            this.entities = null;
+            this.endOf = endOf;
+            this.metrics = null;
+            this.readNanos = 0;
+            this.mapNanos = 0;
+        }
+    }
+
+    private static class ReaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SqlMigration-reader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.objectbox.BoxStore;
+import io.objectbox.BoxStoreHelper;
+import io.objectbox.EntityInfo;
+import io.objectbox.Property;
+
+/**
+ * The table to entity and column to property mappings found by
+ * {@link SqlMigration#autoDetect(boolean, boolean)}, together with the columns, PRIMARY KEY and
+ * foreign keys of the mapped tables. Saved to a file, so later runs can skip detection and schema
+ * queries, see {@link SqlMigration#setPlanCacheFile(File)}.
+ * <p/>
+ * A plan is only used if its fingerprint matches: a hash of the CREATE TABLE statements of the
+ * database and of the entities and properties of the ObjectBox model.
+ */
+class MigrationPlan {
+
+    private static final int MAGIC = 0x4f425350; // "OBSP"
+    /** Increase if the file format or the detection changes, so older plans are not used. */
+    private static final int VERSION = 2;
+
+    private final String fingerprint;
+    private final List<TablePlan> tables;
+    final List<String> unmappedEntities;
+    /** Unmapped properties as "table.property". */
+    final List<String> unmappedProperties;
+
+    private static class TablePlan {
+        final String tableName;
+        final String entityClassName;
+        final SchemaCatalog.TableInfo tableInfo;
+        final List<ColumnPlan> columns = new ArrayList<>();
+
+        TablePlan(String tableName, String entityClassName, SchemaCatalog.TableInfo tableInfo) {
+            this.tableName = tableName;
+            this.entityClassName = entityClassName;
+            this.tableInfo = tableInfo;
+        }
+    }
+
+    private static class ColumnPlan {
+        final String columnName;
+        final int tableColumnIndex;
+        /** {@code null} for a foreign key mapped to a ToOne. */
+        @Nullable
+        final String propertyName;
+        final String fieldName;
+
+        ColumnPlan(String columnName, int tableColumnIndex, @Nullable String propertyName,
+                   String fieldName) {
+            this.columnName = columnName;
+            this.tableColumnIndex = tableColumnIndex;
+            this.propertyName = propertyName;
+            this.fieldName = fieldName;
+        }
+    }
+
+    private MigrationPlan(String fingerprint, List<TablePlan> tables,
+                          List<String> unmappedEntities, List<String> unmappedProperties) {
+        this.fingerprint = fingerprint;
+        this.tables = tables;
+        this.unmappedEntities = unmappedEntities;
+        this.unmappedProperties = unmappedProperties;
+    }
+
+    /**
+     * Creates a plan of detected table mappings, which may only use the
+     * {@link ColumnMapping#DEFAULT_MAPPER} and {@link ColumnMapping#FOREIGN_KEY_MAPPER}.
+     */
+    static MigrationPlan of(String fingerprint, List<TableMapping> tableMappings,
+                            SchemaCatalog schemaCatalog, List<String> unmappedEntities,
+                            List<String> unmappedProperties) {
+        List<TablePlan> tables = new ArrayList<>();
+        for (TableMapping tableMapping : tableMappings) {
+            String tableName = tableMapping.getTableName();
+            TablePlan table = new TablePlan(tableName, tableMapping.getEntityClass().getName(),
+                    schemaCatalog.getTableInfo(tableName));
+            for (ColumnMapping column : tableMapping.getColumnMap().values()) {
+                Property property = column.getProperty();
+                table.columns.add(new ColumnPlan(column.getColumnName(),
+                        column.getTableColumnIndex(), property != null ? property.name : null,
+                        column.getField().getName()));
+            }
+            tables.add(table);
+        }
+        return new MigrationPlan(fingerprint, tables, unmappedEntities, unmappedProperties);
+    }
+
+    /**
+     * Returns a hash of the CREATE TABLE statements of all tables and of the ID, name and type of
+     * all entities and their properties.
+     */
+    static String fingerprint(SchemaCatalog schemaCatalog, BoxStore boxStore) {
+        StringBuilder builder = new StringBuilder("version ").append(VERSION);
+        List<String> tableNames = new ArrayList<>(schemaCatalog.getTableNames());
+        Collections.sort(tableNames);
+        for (String tableName : tableNames) {
+            builder.append("\ntable ").append(tableName).append('\n')
+                    .append(schemaCatalog.getTableSql(tableName));
+        }
+        List<Class> entityClasses = new ArrayList<>();
+        for (Class entityClass : boxStore.getAllEntityClasses()) {
+            entityClasses.add(entityClass);
+        }
+        Collections.sort(entityClasses, new Comparator<Class>() {
+            @Override
+            public int compare(Class left, Class right) {
+                return left.getName().compareTo(right.getName());
+            }
+        });
+        BoxStoreHelper boxStoreHelper = new BoxStoreHelper(boxStore);
+        for (Class entityClass : entityClasses) {
+            EntityInfo entityInfo = boxStoreHelper.getEntityInfo(entityClass);
+            builder.append("\nentity ").append(entityInfo.getEntityId()).append(' ')
+                    .append(entityClass.getName());
+            for (Property property : entityInfo.getAllProperties()) {
+                builder.append("\n ").append(property.id).append(' ').append(property.name)
+                        .append(' ').append(property.type)
+                        .append(' ').append(property.converterClass);
+            }
+        }
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1")
+                    .digest(builder.toString().getBytes(Charset.forName("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte value : hash) {
+            hex.append(String.format(Locale.US, "%02x", value & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Loads the plan from the given file. Returns {@code null} if the file does not exist, can not
+     * be read or its fingerprint does not match.
+     */
+    @Nullable
+    static MigrationPlan load(File file, String fingerprint) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            int tableCount = in.readInt();
+            List<TablePlan> tables = new ArrayList<>(tableCount);
+            for (int i = 0; i < tableCount; i++) {
+                TablePlan table = new TablePlan(in.readUTF(), in.readUTF(), readTableInfo(in));
+                int columnCount = in.readInt();
+                for (int j = 0; j < columnCount; j++) {
+                    table.columns.add(new ColumnPlan(in.readUTF(), in.readInt(),
+                            readNullableString(in), in.readUTF()));
+                }
+                tables.add(table);
+            }
+            return new MigrationPlan(fingerprint, tables, readStrings(in), readStrings(in));
+        } catch (IOException e) {
+            return null; // detect again
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static SchemaCatalog.TableInfo readTableInfo(DataInputStream in) throws IOException {
+        SchemaCatalog.TableInfo tableInfo = new SchemaCatalog.TableInfo();
+        int columnCount = in.readInt();
+        for (int i = 0; i < columnCount; i++) {
+            String name = in.readUTF();
+            tableInfo.columnNames.add(name);
+            tableInfo.columnIndexes.put(name.toLowerCase(Locale.US), in.readInt());
+            tableInfo.columnTypes.add(readNullableString(in));
+            tableInfo.columnDefaults.add(readNullableString(in));
+        }
+        tableInfo.primaryKeyColumns.addAll(readStrings(in));
+        int foreignKeyCount = in.readInt();
+        for (int i = 0; i < foreignKeyCount; i++) {
+            String tableTo = in.readUTF();
+            int keyColumnCount = in.readInt();
+            List<String> columnsFrom = new ArrayList<>(keyColumnCount);
+            List<String> columnsTo = new ArrayList<>(keyColumnCount);
+            for (int column = 0; column < keyColumnCount; column++) {
+                columnsFrom.add(in.readUTF());
+                columnsTo.add(readNullableString(in));
+            }
+            tableInfo.foreignKeys.add(new ForeignKey(columnsFrom, tableTo, columnsTo));
+        }
+        return tableInfo;
+    }
+
+    /**
+     * Writes the plan to a temporary file first and then renames it, so a plan is never read
+     * partially written.
+     */
+    void save(File file) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(tables.size());
+            for (TablePlan table : tables) {
+                out.writeUTF(table.tableName);
+                out.writeUTF(table.entityClassName);
+                writeTableInfo(out, table.tableInfo);
+                out.writeInt(table.columns.size());
+                for (ColumnPlan column : table.columns) {
+                    out.writeUTF(column.columnName);
+                    out.writeInt(column.tableColumnIndex);
+                    writeNullableString(out, column.propertyName);
+                    out.writeUTF(column.fieldName);
+                }
+            }
+            writeStrings(out, unmappedEntities);
+            writeStrings(out, unmappedProperties);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write migration plan " + tempFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new RuntimeException("Failed to replace migration plan " + file);
+        }
+    }
+
+    private static void writeTableInfo(DataOutputStream out, SchemaCatalog.TableInfo tableInfo)
+            throws IOException {
+        out.writeInt(tableInfo.columnNames.size());
+        for (int i = 0; i < tableInfo.columnNames.size(); i++) {
+            String name = tableInfo.columnNames.get(i);
+            out.writeUTF(name);
+            out.writeInt(tableInfo.columnIndexes.get(name.toLowerCase(Locale.US)));
+            writeNullableString(out, tableInfo.columnTypes.get(i));
+            writeNullableString(out, tableInfo.columnDefaults.get(i));
+        }
+        writeStrings(out, tableInfo.primaryKeyColumns);
+        out.writeInt(tableInfo.foreignKeys.size());
+        for (ForeignKey foreignKey : tableInfo.foreignKeys) {
+            out.writeUTF(foreignKey.tableTo);
+            out.writeInt(foreignKey.columnsFrom.size());
+            for (int i = 0; i < foreignKey.columnsFrom.size(); i++) {
+                out.writeUTF(foreignKey.columnsFrom.get(i));
+                writeNullableString(out, foreignKey.columnsTo.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the table mappings of the plan to the table map and the schema of their tables to the
+     * catalog. Does nothing and returns false if an entity, property or field of the plan does not
+     * exist, e.g. because the model changed in a way the fingerprint does not cover.
+     */
+    boolean apply(SchemaCatalog schemaCatalog, BoxStore boxStore,
+                  Map<String, TableMapping> tableMap) {
+        Map<String, Class> entityClasses = new HashMap<>();
+        for (Class entityClass : boxStore.getAllEntityClasses()) {
+            entityClasses.put(entityClass.getName(), entityClass);
+        }
+        BoxStoreHelper boxStoreHelper = new BoxStoreHelper(boxStore);
+        Map<String, TableMapping> tableMappings = new HashMap<>();
+        for (TablePlan table : tables) {
+            Class entityClass = entityClasses.get(table.entityClassName);
+            if (entityClass == null) {
+                return false;
+            }
+            Property[] properties = boxStoreHelper.getEntityInfo(entityClass).getAllProperties();
+            TableMapping tableMapping = new TableMapping(table.tableName, entityClass);
+            for (ColumnPlan column : table.columns) {
+                Property property = null;
+                if (column.propertyName != null) {
+                    property = findProperty(properties, column.propertyName);
+                    if (property == null) {
+                        return false;
+                    }
+                }
+                Field field;
+                try {
+                    field = entityClass.getDeclaredField(column.fieldName);
+                } catch (NoSuchFieldException e) {
+                    return false;
+                }
+                field.setAccessible(true); // to set private fields
+                tableMapping.putColumnMapping(new ColumnMapping(column.columnName,
+                        column.tableColumnIndex, property, field, property != null
+                        ? ColumnMapping.DEFAULT_MAPPER : ColumnMapping.FOREIGN_KEY_MAPPER));
+            }
+            tableMapping.compile();
+            tableMappings.put(table.tableName, tableMapping);
+        }
+        for (TablePlan table : tables) {
+            schemaCatalog.putTableInfo(table.tableName, table.tableInfo);
+        }
+        tableMap.putAll(tableMappings);
+        return true;
+    }
+
+    @Nullable
+    private static Property findProperty(Property[] properties, String name) {
+        for (Property property : properties) {
+            if (property.name.equals(name)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, @Nullable String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values)
+            throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
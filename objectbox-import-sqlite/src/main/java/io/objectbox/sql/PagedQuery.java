@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Reads all rows of a table page by page, ordered by its {@link TableKey}. Each page is a separate
+ * query selecting rows after the key of the last row of the previous page (keyset pagination).
+ * <p/>
+ * A single query over a large table is slow on Android: each time the CursorWindow is refilled,
+ * SQLite has to step through all rows up to the new position again. Keyset pagination instead
+ * seeks directly to the first row of each page, so time per row stays the same for any table size.
+ * <p/>
+ * If a {@link FileTable} is given, rows are instead read directly from the database file with a
+ * single scan. If the file turns out to be unsupported while scanning, reading continues with
+ * queries after the last row that was read.
+ */
+class PagedQuery {
+
+    private final RowSource source;
+    private final TableMapping tableMapping;
+    private final TableKey key;
+    @Nullable
+    private final RowIdRange range;
+    private final int pageSize;
+    private final boolean withRowSize;
+    @Nullable
+    private FileTable fileTable;
+    private long windowSize;
+
+    @Nullable
+    private String[] afterKey;
+    @Nullable
+    private Rows page;
+    private int rowsInPage;
+    private boolean isPageScan;
+    private boolean isLastPage;
+    private int keyIndex;
+    /** Key of the current row, rows are read forward only so it is kept before moving on. */
+    private long lastRowId;
+    @Nullable
+    private String[] lastKey;
+
+    /**
+     * @param afterKey    Only read rows after this key, or {@code null} to read all rows.
+     * @param pageSize    Maximum number of rows per page, or 0 to read all rows with one query.
+     * @param withRowSize Append the approximate size in bytes of mapped values to each row, see
+     *                    {@link #getRowSizeIndex()}.
+     */
+    PagedQuery(RowSource source, TableMapping tableMapping, TableKey key,
+               @Nullable String[] afterKey, int pageSize, boolean withRowSize) {
+        this(source, tableMapping, key, null, afterKey, pageSize, withRowSize);
+    }
+
+    /**
+     * Like {@link #PagedQuery(RowSource, TableMapping, TableKey, String[], int, boolean)}, but
+     * only reads rows in the given rowid range.
+     */
+    PagedQuery(RowSource source, TableMapping tableMapping, TableKey key,
+               @Nullable RowIdRange range, @Nullable String[] afterKey, int pageSize,
+               boolean withRowSize) {
+        this(source, tableMapping, key, range, afterKey, pageSize, withRowSize, null);
+    }
+
+    /**
+     * @param fileTable Read rows directly from the database file, or {@code null} to query them.
+     */
+    PagedQuery(RowSource source, TableMapping tableMapping, TableKey key,
+               @Nullable RowIdRange range, @Nullable String[] afterKey, int pageSize,
+               boolean withRowSize, @Nullable FileTable fileTable) {
+        this.source = source;
+        this.tableMapping = tableMapping;
+        this.key = key;
+        this.range = range;
+        this.afterKey = afterKey;
+        this.pageSize = pageSize;
+        this.withRowSize = withRowSize;
+        this.fileTable = fileTable;
+    }
+
+    /**
+     * Sets the size in bytes of the window buffering each page query, see {@link ReadPlan}. By
+     * default the window size of the source is used.
+     */
+    void setWindowSize(long windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Moves to the next row, querying the next page if required. Returns {@code false} if there
+     * are no more rows.
+     */
+    boolean moveToNext() {
+        while (true) {
+            if (page == null) {
+                if (isLastPage) {
+                    return false;
+                }
+                isPageScan = fileTable != null;
+                if (isPageScan) {
+                    page = fileTable.scan(range, afterKey, withRowSize);
+                } else {
+                    page = tableMapping.queryPage(source, key, range, afterKey, pageSize,
+                            withRowSize, windowSize);
+                }
+                keyIndex = page.getColumnCount() - key.getSelectionSize() - (withRowSize ? 1 : 0);
+                rowsInPage = 0;
+            }
+            if (moveToNextInPage()) {
+                rowsInPage++;
+                if (key.isRowId) {
+                    lastRowId = page.getLong(keyIndex); // avoid allocating for each row
+                } else {
+                    lastKey = key.readKey(page, keyIndex);
+                }
+                return true;
+            }
+            // page is exhausted, continue after its last row
+            if (isPageScan) {
+                isLastPage = fileTable != null; // otherwise scanning failed
+            } else {
+                isLastPage = pageSize <= 0 || rowsInPage < pageSize;
+            }
+            if (rowsInPage > 0) {
+                afterKey = key.isRowId ? new String[]{Long.toString(lastRowId)} : lastKey;
+            }
+            page.close();
+            page = null;
+        }
+    }
+
+    private boolean moveToNextInPage() {
+        if (!isPageScan) {
+            return page.moveToNext();
+        }
+        try {
+            return page.moveToNext();
+        } catch (DatabaseFile.UnsupportedFormatException e) {
+            // query the remaining rows instead
+            fileTable = null;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the page positioned at the current row.
+     */
+    Row getRow() {
+        if (page == null) {
+            throw new IllegalStateException("Not positioned at a row");
+        }
+        return page;
+    }
+
+    /**
+     * Returns the rowid of the current row, only if the key is the rowid.
+     */
+    long getRowId() {
+        if (!key.isRowId) {
+            throw new IllegalStateException("Key is not the rowid");
+        }
+        getRow(); // throws if not positioned at a row
+        return lastRowId;
+    }
+
+    /**
+     * Returns the key values of the last row that was read, or if no row was read the key rows
+     * are read after (may be {@code null}). Also works after {@link #close()}.
+     */
+    @Nullable
+    String[] getLastKey() {
+        if (rowsInPage == 0) {
+            return afterKey;
+        }
+        return key.isRowId ? new String[]{Long.toString(lastRowId)} : lastKey;
+    }
+
+    int getRowSizeIndex() {
+        return withRowSize ? keyIndex + key.getSelectionSize() : -1;
+    }
+
+    void close() {
+        if (page != null) {
+            page.close();
+            page = null;
+        }
+        isLastPage = true;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import java.util.Locale;
+
+/**
+ * How a table is read: the number of rows per page and, if the {@link RowSource} supports it, the
+ * size of the CursorWindow buffering a page, see
+ * {@link SqlMigration#setAdaptiveWindowSize(boolean)}.
+ * <p/>
+ * A page query larger than its CursorWindow is slow: each time the window is refilled, SQLite has
+ * to step through all rows of the page up to the new position again. So the row size is sampled
+ * and either the window is sized to fit a page (API 28 and newer), or pages are made small enough
+ * to fit the default window.
+ */
+public class ReadPlan {
+
+    /** The default CursorWindow size on most devices. */
+    public static final long DEFAULT_WINDOW_SIZE = 2 * 1024 * 1024;
+    public static final long MIN_WINDOW_SIZE = 128 * 1024;
+    public static final long MAX_WINDOW_SIZE = 16 * 1024 * 1024;
+    /** Number of rows from the start of a table to estimate the row size from. */
+    public static final int SAMPLE_ROWS = 100;
+
+    /** A CursorWindow stores a slot of 12 bytes per value and an offset of 4 bytes per row. */
+    private static final int FIELD_SLOT_SIZE = 12;
+    private static final int ROW_SLOT_SIZE = 4;
+    private static final long WINDOW_ALIGNMENT = 4096;
+
+    private final String tableName;
+    private final int sampledRows;
+    private final long rowSize;
+    private final int pageSize;
+    private final long windowSize;
+
+    private ReadPlan(String tableName, int sampledRows, long rowSize, int pageSize,
+                     long windowSize) {
+        this.tableName = tableName;
+        this.sampledRows = sampledRows;
+        this.rowSize = rowSize;
+        this.pageSize = pageSize;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reads pages of the given size using the default window.
+     */
+    static ReadPlan fixed(String tableName, int pageSize) {
+        return new ReadPlan(tableName, 0, 0, pageSize, 0);
+    }
+
+    /**
+     * Estimates the size of rows in a CursorWindow from the first {@link #SAMPLE_ROWS} rows of the
+     * table. If the source {@link RowSource#supportsWindowSize() supports it}, the window is sized
+     * to fit a page of {@code pageSize} rows (within {@link #MIN_WINDOW_SIZE} and
+     * {@link #MAX_WINDOW_SIZE}), otherwise pages are made smaller to fit the default window.
+     *
+     * @param pageSize Maximum number of rows per page, if 0 (no paging) nothing is sampled.
+     */
+    static ReadPlan sample(RowSource source, TableMapping tableMapping, TableKey key,
+                           int pageSize) {
+        String tableName = tableMapping.getTableName();
+        if (pageSize <= 0) {
+            return fixed(tableName, pageSize);
+        }
+        StringBuilder sql = new StringBuilder("SELECT count(*), avg(size) FROM (SELECT ");
+        tableMapping.appendRowSize(sql, false); // streamed values are mostly left out
+        sql.append(" AS size FROM \"").append(tableName).append("\" LIMIT ")
+                .append(SAMPLE_ROWS).append(")");
+        int sampledRows;
+        double valueSize;
+        Rows rows = source.query(sql.toString(), null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            sampledRows = rows.getInt(0);
+            valueSize = rows.getDouble(1);
+        } finally {
+            rows.close();
+        }
+        if (sampledRows == 0) {
+            return fixed(tableName, pageSize); // empty table
+        }
+
+        int fieldCount = tableMapping.getColumns().length + key.getSelectionSize();
+        long rowSize = (long) Math.ceil(valueSize) + FIELD_SLOT_SIZE * fieldCount + ROW_SLOT_SIZE;
+        // leave room for rows larger than average
+        long maxWindowSize = source.supportsWindowSize() ? MAX_WINDOW_SIZE : DEFAULT_WINDOW_SIZE;
+        int rowsPerPage = (int) Math.max(1, Math.min(pageSize, maxWindowSize * 4 / 5 / rowSize));
+        if (!source.supportsWindowSize()) {
+            return new ReadPlan(tableName, sampledRows, rowSize, rowsPerPage, 0);
+        }
+        long windowSize = rowSize * rowsPerPage * 5 / 4;
+        windowSize = (windowSize + WINDOW_ALIGNMENT - 1) / WINDOW_ALIGNMENT * WINDOW_ALIGNMENT;
+        windowSize = Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, windowSize));
+        return new ReadPlan(tableName, sampledRows, rowSize, rowsPerPage, windowSize);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the number of rows the row size was estimated from, 0 if it was not sampled.
+     */
+    public int getSampledRows() {
+        return sampledRows;
+    }
+
+    /**
+     * Returns the estimated size in bytes of a row in a CursorWindow, 0 if it was not sampled.
+     */
+    public long getRowSize() {
+        return rowSize;
+    }
+
+    /**
+     * Returns the maximum number of rows per page, 0 if the table is read with a single query.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the size in bytes of the CursorWindow of each page query, 0 if the default window
+     * of the source is used.
+     */
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(tableName).append(": ");
+        if (sampledRows > 0) {
+            builder.append(String.format(Locale.US, "%d bytes per row (%d rows sampled), ",
+                    rowSize, sampledRows));
+        }
+        builder.append(pageSize).append(" rows per page, ");
+        if (windowSize > 0) {
+            builder.append(windowSize / 1024).append(" KB window");
+        } else {
+            builder.append("default window");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+/**
+ * The values of the current row of a query, see {@link Rows}. Getters behave like those of
+ * {@link android.database.Cursor}: numeric getters return 0 for NULL values,
+ * {@link #getString(int)} and {@link #getBlob(int)} return {@code null}.
+ */
+public interface Row {
+
+    int getColumnCount();
+
+    boolean isNull(int columnIndex);
+
+    short getShort(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    float getFloat(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    @Nullable
+    String getString(int columnIndex);
+
+    @Nullable
+    byte[] getBlob(int columnIndex);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A range of rowids of a table, both ends are included.
+ *
+ * @see TableMapping#splitRowIdRanges
+ */
+class RowIdRange {
+
+    final long first;
+    final long last;
+
+    RowIdRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Appends an expression selecting rows in this range, only those after {@code afterRowId}
+     * if given.
+     */
+    void appendWhere(StringBuilder sql, @Nullable String afterRowId) {
+        if (afterRowId != null) {
+            // rowid is always an integer, see TableKey
+            sql.append("rowid > ").append(Long.parseLong(afterRowId));
+        } else {
+            sql.append("rowid >= ").append(first);
+        }
+        sql.append(" AND rowid <= ").append(last);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + first + ", " + last + "]";
+    }
+}
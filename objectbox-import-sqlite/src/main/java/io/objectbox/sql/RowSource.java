@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+
+/**
+ * A SQLite database to read rows from. {@link AndroidRowSource} reads an Android
+ * {@link SQLiteDatabase}, other implementations allow to migrate on a plain JVM, e.g. using JDBC.
+ */
+public interface RowSource {
+
+    /**
+     * Runs the SQL query, binding the given arguments as strings.
+     */
+    Rows query(String sql, @Nullable String[] args);
+
+    /**
+     * Like {@link #query(String, String[])}, but buffers up to {@code windowSize} bytes of rows at
+     * once if {@link #supportsWindowSize()}, otherwise the size is ignored.
+     */
+    Rows query(String sql, @Nullable String[] args, long windowSize);
+
+    /**
+     * Runs a SQL statement that returns no rows, e.g. to create a trigger. Throws if the database
+     * was opened read-only.
+     */
+    void execute(String sql);
+
+    /**
+     * Returns if the number of bytes of rows a query buffers at once can be set, see
+     * {@link #query(String, String[], long)}.
+     */
+    boolean supportsWindowSize();
+
+    /**
+     * Returns if {@link #openReadOnly()} is supported, so multiple threads can read at the same
+     * time using their own connection.
+     */
+    boolean supportsReadOnlyConnections();
+
+    /**
+     * Opens a separate read-only connection to the same database, close it once done.
+     */
+    RowSource openReadOnly();
+
+    /**
+     * Closes the connection if it was opened by this source, e.g. by {@link #openReadOnly()}. A
+     * database or connection passed in by the caller stays open and is closed by the caller.
+     */
+    void close();
+}
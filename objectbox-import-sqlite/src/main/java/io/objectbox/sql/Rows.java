@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+/**
+ * The result of a query, read row by row from first to last. Initially positioned before the first
+ * row.
+ *
+ * @see RowSource#query(String, String[])
+ */
+public interface Rows extends Row {
+
+    /**
+     * Moves to the next row, returns {@code false} if there are no more rows.
+     */
+    boolean moveToNext();
+
+    /**
+     * Returns the index of the column with the given name, or -1 if there is no such column.
+     */
+    int getColumnIndex(String columnName);
+
+    void close();
+}
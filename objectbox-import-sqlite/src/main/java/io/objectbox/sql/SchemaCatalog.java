@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the schema of a SQLite database. The list of tables is read from {@code sqlite_master}
+ * once, columns and foreign keys of a table are read with {@code PRAGMA table_info} and
+ * {@code PRAGMA foreign_key_list} the first time the table is looked up.
+ * <p/>
+ * If the schema of the database changes, call {@link #invalidate()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SchemaCatalog {
+
+    private final RowSource source;
+
+    /** Table name to CREATE TABLE statement, read on first access. */
+    @Nullable
+    private Map<String, String> tableSql;
+    /** Table name to its root page in the database file, read with {@link #tableSql}. */
+    @Nullable
+    private Map<String, Integer> rootPages;
+    private final Map<String, TableInfo> tableInfos = new HashMap<>();
+
+    public SchemaCatalog(SQLiteDatabase database) {
+        this(new AndroidRowSource(database));
+    }
+
+    public SchemaCatalog(RowSource source) {
+        this.source = source;
+    }
+
+    public boolean hasTable(String tableName) {
+        return tableSql().containsKey(tableName);
+    }
+
+    public Set<String> getTableNames() {
+        return Collections.unmodifiableSet(tableSql().keySet());
+    }
+
+    /**
+     * Returns the CREATE TABLE statement of the table, or {@code null} if there is no such table.
+     */
+    @Nullable
+    public String getTableSql(String tableName) {
+        return tableSql().get(tableName);
+    }
+
+    /**
+     * Returns the names of all columns of the table, in table order.
+     */
+    public List<String> getColumnNames(String tableName) {
+        return Collections.unmodifiableList(tableInfo(tableName).columnNames);
+    }
+
+    /**
+     * Returns the index of the column in the table, or -1 if the column does not exist. Like
+     * SQLite, ignores the case of column names.
+     */
+    public int indexOfColumn(String tableName, String columnName) {
+        Integer index = tableInfo(tableName).columnIndexes.get(columnName.toLowerCase(Locale.US));
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns all foreign keys of the table, including composite (multi-column) foreign keys.
+     */
+    public Set<ForeignKey> getForeignKeys(String tableName) {
+        return Collections.unmodifiableSet(tableInfo(tableName).foreignKeys);
+    }
+
+    public boolean isWithoutRowId(String tableName) {
+        return TableKey.isWithoutRowIdSql(getTableSql(tableName));
+    }
+
+    /**
+     * Returns the PRIMARY KEY columns of the table, in key order.
+     */
+    public List<String> getPrimaryKeyColumns(String tableName) {
+        return Collections.unmodifiableList(tableInfo(tableName).primaryKeyColumns);
+    }
+
+    /**
+     * Returns the declared type of the column, or {@code null} if it has none.
+     */
+    @Nullable
+    String getColumnType(String tableName, int columnIndex) {
+        return tableInfo(tableName).columnTypes.get(columnIndex);
+    }
+
+    /**
+     * Returns the default value expression of the column, or {@code null} if it has none.
+     */
+    @Nullable
+    String getColumnDefault(String tableName, int columnIndex) {
+        return tableInfo(tableName).columnDefaults.get(columnIndex);
+    }
+
+    /**
+     * Returns the number of the root page of the table B-tree in the database file, 0 for virtual
+     * tables.
+     */
+    int getRootPage(String tableName) {
+        tableSql();
+        Integer rootPage = rootPages.get(tableName);
+        if (rootPage == null) {
+            throw new IllegalArgumentException("There is no table called '" + tableName + "'");
+        }
+        return rootPage;
+    }
+
+    TableKey getKey(String tableName) {
+        TableInfo tableInfo = tableInfo(tableName);
+        if (tableInfo.key == null) {
+            tableInfo.key = isWithoutRowId(tableName)
+                    ? TableKey.ofPrimaryKey(tableName, tableInfo.primaryKeyColumns)
+                    : TableKey.ROW_ID;
+        }
+        return tableInfo.key;
+    }
+
+    /**
+     * Returns the columns, PRIMARY KEY and foreign keys of the table, reads them on first access.
+     */
+    TableInfo getTableInfo(String tableName) {
+        return tableInfo(tableName);
+    }
+
+    /**
+     * Uses the given columns, PRIMARY KEY and foreign keys of the table instead of reading them,
+     * e.g. loaded from a {@link MigrationPlan}.
+     */
+    void putTableInfo(String tableName, TableInfo tableInfo) {
+        tableInfos.put(tableName, tableInfo);
+    }
+
+    /**
+     * Drops all cached schema information, it is read again on next access.
+     */
+    public void invalidate() {
+        tableSql = null;
+        rootPages = null;
+        tableInfos.clear();
+    }
+
+    private Map<String, String> tableSql() {
+        if (tableSql == null) {
+            Map<String, String> tables = new HashMap<>();
+            Map<String, Integer> pages = new HashMap<>();
+            Rows cursor = source.query(
+                    "SELECT name, sql, rootpage FROM sqlite_master WHERE type='table'", null);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                while (cursor.moveToNext()) {
+                    tables.put(cursor.getString(0), cursor.getString(1));
+                    pages.put(cursor.getString(0), cursor.getInt(2));
+                }
+            } finally {
+                cursor.close();
+            }
+            tableSql = tables;
+            rootPages = pages;
+        }
+        return tableSql;
+    }
+
+    private TableInfo tableInfo(String tableName) {
+        TableInfo tableInfo = tableInfos.get(tableName);
+        if (tableInfo == null) {
+            if (!hasTable(tableName)) {
+                throw new IllegalArgumentException("There is no table called '" + tableName + "'");
+            }
+            tableInfo = new TableInfo();
+            readColumns(tableName, tableInfo);
+            readForeignKeys(tableName, tableInfo.foreignKeys);
+            tableInfos.put(tableName, tableInfo);
+        }
+        return tableInfo;
+    }
+
+    private void readColumns(String tableName, TableInfo tableInfo) {
+        List<Integer> primaryKeyPositions = new ArrayList<>();
+        List<String> primaryKeyColumns = new ArrayList<>();
+        Rows cursor = source.query("PRAGMA table_info(\"" + tableName + "\")", null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            final int cidColumnIndex = cursor.getColumnIndex("cid");
+            final int nameColumnIndex = cursor.getColumnIndex("name");
+            final int typeColumnIndex = cursor.getColumnIndex("type");
+            final int defaultColumnIndex = cursor.getColumnIndex("dflt_value");
+            final int pkColumnIndex = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameColumnIndex);
+                tableInfo.columnNames.add(name);
+                tableInfo.columnTypes.add(cursor.getString(typeColumnIndex));
+                tableInfo.columnDefaults.add(cursor.getString(defaultColumnIndex));
+                tableInfo.columnIndexes.put(name.toLowerCase(Locale.US),
+                        cursor.getInt(cidColumnIndex));
+                int pk = cursor.getInt(pkColumnIndex);
+                if (pk > 0) {
+                    primaryKeyPositions.add(pk);
+                    primaryKeyColumns.add(name);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        // pk is the 1-based position of the column in the PRIMARY KEY
+        for (int position = 1; position <= primaryKeyColumns.size(); position++) {
+            tableInfo.primaryKeyColumns.add(
+                    primaryKeyColumns.get(primaryKeyPositions.indexOf(position)));
+        }
+    }
+
+    private void readForeignKeys(String tableName, Set<ForeignKey> foreignKeys) {
+        Rows cursor = source.query("PRAGMA foreign_key_list(\"" + tableName + "\")", null);
+        // foreign key ID to its columns, in the order of seq
+        Map<Integer, List<String>> columnsFromById = new LinkedHashMap<>();
+        Map<Integer, List<String>> columnsToById = new HashMap<>();
+        Map<Integer, String> tablesToById = new HashMap<>();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            final int idColumnIndex = cursor.getColumnIndex("id");
+            final int seqColumnIndex = cursor.getColumnIndex("seq");
+            final int tableColumnIndex = cursor.getColumnIndex("table");
+            final int fromColumnIndex = cursor.getColumnIndex("from");
+            final int toColumnIndex = cursor.getColumnIndex("to");
+
+            while (cursor.moveToNext()) {
+                final int id = cursor.getInt(idColumnIndex);
+                final int seq = cursor.getInt(seqColumnIndex);
+                List<String> columnsFrom = columnsFromById.get(id);
+                List<String> columnsTo = columnsToById.get(id);
+                if (columnsFrom == null) {
+                    columnsFrom = new ArrayList<>();
+                    columnsTo = new ArrayList<>();
+                    columnsFromById.put(id, columnsFrom);
+                    columnsToById.put(id, columnsTo);
+                    tablesToById.put(id, cursor.getString(tableColumnIndex));
+                }
+                // rows of a foreign key are usually ordered by seq, but do not rely on it
+                while (columnsFrom.size() <= seq) {
+                    columnsFrom.add(null);
+                    columnsTo.add(null);
+                }
+                columnsFrom.set(seq, cursor.getString(fromColumnIndex));
+                columnsTo.set(seq, cursor.getString(toColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map.Entry<Integer, List<String>> entry : columnsFromById.entrySet()) {
+            int id = entry.getKey();
+            foreignKeys.add(new ForeignKey(entry.getValue(), tablesToById.get(id),
+                    columnsToById.get(id)));
+        }
+    }
+
+    static class TableInfo {
+        final List<String> columnNames = new ArrayList<>();
+        final List<String> columnTypes = new ArrayList<>();
+        final List<String> columnDefaults = new ArrayList<>();
+        /** Lower case column name to index. */
+        final Map<String, Integer> columnIndexes = new HashMap<>();
+        final List<String> primaryKeyColumns = new ArrayList<>();
+        final Set<ForeignKey> foreignKeys = new HashSet<>();
+        @Nullable
+        TableKey key;
+    }
+}
@@ -15,16 +15,22 @@
 
 package io.objectbox.sql;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,16 +49,70 @@ import io.objectbox.relation.ToOne;
 @SuppressWarnings("WeakerAccess")
 public class SqlMigration {
 
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final RowSource source;
+    /** Only set if migrating from an Android database, passed to {@link PostMigrationStep}. */
+    @Nullable
     private final SQLiteDatabase database;
     private final BoxStore boxStore;
     private final BoxStoreHelper boxStoreHelper;
+    private final SchemaCatalog schemaCatalog;
 
     private final Map<String, TableMapping> tableMap = new HashMap<>();
+    /** Plans of the tables read by the last migration, by table name. */
+    private final Map<String, ReadPlan> readPlans = new LinkedHashMap<>();
+    /**
+     * Indexes of columns referenced by foreign keys, by table and columns. Kept to update them
+     * with captured changes, see {@link #applyChanges()}.
+     */
+    private final Map<String, ForeignKeyIndex> foreignKeyIndexes = new HashMap<>();
+
+    private int batchSize = 1;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int chunkMaxRows;
+    private long chunkMaxBytes;
+    @Nullable
+    private File checkpointFile;
+    private boolean incremental;
+    private long idTranslationMemory;
+    @Nullable
+    private File idTranslationDirectory;
+    private int readerThreads;
+    private int pipelineCapacity;
+    private int maxTablePartitions = 1;
+    private long minRowsPerPartition;
+    @Nullable
+    private File directReadFile;
+    private boolean adaptiveWindowSize;
+    @Nullable
+    private MigrationListener listener;
+    private long progressIntervalNanos;
+    @Nullable
+    private File planCacheFile;
+    private boolean planCacheUsed;
 
     public SqlMigration(SQLiteDatabase database, BoxStore boxStore) {
+        this(new AndroidRowSource(database), database, boxStore);
+    }
+
+    /**
+     * Migrates from any source of rows, e.g. using JDBC on a plain JVM.
+     */
+    public SqlMigration(RowSource source, BoxStore boxStore) {
+        this(source, null, boxStore);
+    }
+
+    private SqlMigration(RowSource source, @Nullable SQLiteDatabase database, BoxStore boxStore) {
+        this.source = source;
         this.database = database;
         this.boxStore = boxStore;
         this.boxStoreHelper = new BoxStoreHelper(boxStore);
+        this.schemaCatalog = new SchemaCatalog(source);
+    }
+
+    public RowSource getRowSource() {
+        return source;
     }
 
     /**
@@ -68,7 +128,7 @@ public class SqlMigration {
      * @see #autoDetect(boolean, boolean)
      */
     public TableMapping.Builder mapTableToEntity(String tableName, Class entityClass) {
-        return new TableMapping.Builder(database, boxStore, tableMap, tableName, entityClass);
+        return new TableMapping.Builder(schemaCatalog, boxStore, tableMap, tableName, entityClass);
     }
 
     /**
@@ -80,8 +140,12 @@ public class SqlMigration {
         if (tableMapping == null) {
             throw new IllegalStateException("No mapping for " + tableName);
         }
-        return new TableMapping.Builder(database, boxStore, tableMap, tableName,
-                tableMapping.getEntityClass(), tableMapping.getColumnMap());
+        TableMapping.Builder builder = new TableMapping.Builder(schemaCatalog, boxStore, tableMap,
+                tableName, tableMapping.getEntityClass(), tableMapping.getColumnMap());
+        if (tableMapping.getHighWaterMarkColumn() != null) {
+            builder.highWaterMark(tableMapping.getHighWaterMarkColumn());
+        }
+        return builder;
     }
 
     /**
@@ -93,6 +157,14 @@ public class SqlMigration {
         return tableMap.remove(tableName);
     }
 
+    /**
+     * Returns the cached schema of the SQLite database used to detect and verify mappings. If the
+     * schema is changed after this migration was created, call {@link SchemaCatalog#invalidate()}.
+     */
+    public SchemaCatalog getSchemaCatalog() {
+        return schemaCatalog;
+    }
+
     @VisibleForTesting
     public Map<String, TableMapping> getTableMap() {
         return tableMap;
@@ -106,6 +178,334 @@ public class SqlMigration {
         tableMap.putAll(customTableMap);
     }
 
+    /**
+     * Sets how many entities are put at once. Mapped entities are collected in a buffer which is
+     * put with a single {@link Box#put(Collection)} call once it is full. This is much faster than
+     * putting each entity separately, but keeps up to {@code batchSize} entities in memory.
+     * <p/>
+     * Defaults to 1, which puts each entity right after mapping it using
+     * {@link TableMapping#mapRow(Row, Object, Box)}. Otherwise only
+     * {@link TableMapping#mapRow(Row, Object)} is called.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many rows are read with a single query. Each table is read page by page, ordered by
+     * rowid (or the PRIMARY KEY for tables created WITHOUT ROWID). The next page is queried
+     * starting after the last row of the previous one, so reading is equally fast for the first
+     * and the last page of a large table. Pass 0 to read each table with a single query.
+     * <p/>
+     * Defaults to {@link #DEFAULT_PAGE_SIZE}.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Commits migrated data in chunks of at most {@code maxRows} rows or about {@code maxBytes}
+     * bytes of column values, whichever limit is reached first. Pass 0 to not limit rows or bytes.
+     * By default (both 0) migration runs in a single transaction.
+     * <p/>
+     * Smaller transactions keep the database file from growing as much. If migration fails, only
+     * the current chunk is rolled back. Use {@link #setCheckpointFile(File)} to continue such a
+     * migration later on.
+     */
+    public void setChunkSize(int maxRows, long maxBytes) {
+        if (maxRows < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Chunk size must not be negative");
+        }
+        this.chunkMaxRows = maxRows;
+        this.chunkMaxBytes = maxBytes;
+    }
+
+    /**
+     * Sets a file to record the progress of a chunked migration in, see
+     * {@link #setChunkSize(int, long)}. After each chunk is committed the key of the last
+     * migrated row of the table is recorded, see {@link #setPageSize(int)}. If
+     * {@link #migrate(PostMigrationStep)} is called again, e.g. after the app process was killed,
+     * it continues with the next row. Once migration has completed, further calls do nothing
+     * until the file is deleted (unless migrating {@link #setIncremental(boolean) incrementally}).
+     * <p/>
+     * If the app process is killed after a chunk was committed, but before progress was recorded,
+     * the chunk is migrated again. Entities with an assignable ID are then overwritten, others are
+     * put a second time.
+     */
+    public void setCheckpointFile(@Nullable File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Turns on incremental migration: each call to {@link #migrate(PostMigrationStep)} only
+     * migrates rows that were added or changed since the last call. Requires a
+     * {@link #setCheckpointFile(File) checkpoint file}, which records the high-water mark of each
+     * table after its rows were committed. Off by default.
+     * <p/>
+     * Tables with a {@link TableMapping.Builder#highWaterMark(String) high-water mark} are read
+     * ordered by their mark column, continuing after the mark of the last migrated row. The
+     * first call migrates all rows, rows with a NULL mark only then. Tables without a mark use the
+     * rowid as mark, so only new rows are migrated again. Throws if a table without a mark was
+     * created WITHOUT ROWID. The {@link PostMigrationStep} runs after each call.
+     * <p/>
+     * Entities with an assignable ID mapped from the row key are overwritten by rows that changed
+     * (upsert), otherwise changed rows are put as new entities. Deleted rows are not detected.
+     * Can not be combined with {@link #setPipelined(int, int) pipelined} migration. Do not switch
+     * incremental migration on or off for an existing checkpoint file.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Translates foreign keys to the IDs ObjectBox assigns, for entities whose ID property is not
+     * mapped from a column (e.g. because IDs are not assignable). While migrating such a table the
+     * rowid of each row and the ID of its entity are recorded. ToOnes referencing the table are
+     * set to the new ID: when mapping rows if the table was migrated before, otherwise (e.g. for a
+     * table referencing itself) once all tables were migrated, by getting, updating and putting
+     * the entities of the referencing table again. Foreign keys to rowids that were not migrated
+     * are set to no target.
+     * <p/>
+     * IDs are kept in memory until they use {@code maxMemoryBytes} (16 bytes per row), further
+     * IDs are written to files in {@code directory} (the temp directory if {@code null}) which are
+     * memory-mapped to look up IDs and deleted after migration. Pass 0 to turn off translation
+     * (the default).
+     * <p/>
+     * Only tables with a rowid can be translated. Can not be combined with
+     * {@link #setPipelined(int, int) pipelined}, {@link #setIncremental(boolean) incremental}
+     * migration or a {@link #setCheckpointFile(File) checkpoint file}, as recorded IDs are only
+     * kept during a single call to {@link #migrate(PostMigrationStep)}.
+     */
+    public void setIdTranslation(long maxMemoryBytes, @Nullable File directory) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("Memory must not be negative");
+        }
+        this.idTranslationMemory = maxMemoryBytes;
+        this.idTranslationDirectory = directory;
+    }
+
+    /**
+     * Reads and maps rows on {@code readerThreads} separate threads, while the thread calling
+     * {@link #migrate(PostMigrationStep)} puts the mapped entities. So reading from SQLite and
+     * writing to ObjectBox happen at the same time. Pass 0 to read on the calling thread (the
+     * default).
+     * <p/>
+     * Readers hand over entities in batches of {@link #setBatchSize(int) batch size} entities, so
+     * set a batch size larger than 1. Up to {@code capacity} batches are buffered, if it is full
+     * readers wait for the writer. Each table is read by a single reader. Only
+     * {@link TableMapping#mapRow(Row, Object)} is called, from reader threads.
+     * <p/>
+     * Tables that do not depend on each other are read at the same time. A table with foreign keys
+     * is only read once the tables it references were migrated. If the source supports it, each
+     * reader opens its own read-only connection, otherwise readers share the connection of the
+     * source. For Android databases this requires write-ahead logging, see
+     * {@link AndroidRowSource#supportsReadOnlyConnections()}.
+     * <p/>
+     * If reading or writing fails, migration stops and the transaction is rolled back. Can not be
+     * combined with {@link #setChunkSize(int, long) chunks}.
+     */
+    public void setPipelined(int readerThreads, int capacity) {
+        if (readerThreads < 0) {
+            throw new IllegalArgumentException("Reader threads must not be negative");
+        }
+        if (readerThreads > 0 && capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.readerThreads = readerThreads;
+        this.pipelineCapacity = capacity;
+    }
+
+    /**
+     * Splits large tables into up to {@code maxPartitions} rowid ranges of at least
+     * {@code minRowsPerPartition} rows, so multiple readers can read a single table at the same
+     * time. Only used for {@link #setPipelined(int, int) pipelined} migration, and not for tables
+     * created WITHOUT ROWID. Ranges evenly split the span from the smallest to the largest rowid
+     * of a table. Pass 1 to read each table with a single reader (the default).
+     * <p/>
+     * A table that references a partitioned table is only read once all of its ranges were
+     * migrated.
+     */
+    public void setTablePartitions(int maxPartitions, long minRowsPerPartition) {
+        if (maxPartitions < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1");
+        }
+        if (minRowsPerPartition < 0) {
+            throw new IllegalArgumentException("Rows per partition must not be negative");
+        }
+        this.maxTablePartitions = maxPartitions;
+        this.minRowsPerPartition = minRowsPerPartition;
+    }
+
+    /**
+     * Reads tables directly from the given SQLite database file instead of querying them, which
+     * skips SQLite and the copying of values into a CursorWindow. The file is mapped into memory
+     * and table B-trees are parsed by this library. The database must not be written to during
+     * migration.
+     * <p/>
+     * Falls back to querying if the file can not be read directly: if it has a write-ahead log or
+     * a hot rollback journal (it was not closed cleanly), is encrypted or its text encoding is not
+     * UTF-8. Tables created WITHOUT ROWID, virtual tables and tables with generated columns are
+     * always queried. If an unsupported page is found while reading a table, the remaining rows of
+     * the table are queried. Pass {@code null} to always query (the default).
+     */
+    public void setDirectReadFile(@Nullable File databaseFile) {
+        this.directReadFile = databaseFile;
+    }
+
+    /**
+     * Sizes pages and their CursorWindow per table, based on the size of rows sampled before
+     * reading a table. On API 28 and newer the window of each page query is sized to fit a page
+     * of {@link #setPageSize(int) page size} rows, between {@link ReadPlan#MIN_WINDOW_SIZE} and
+     * {@link ReadPlan#MAX_WINDOW_SIZE}. On older API levels, or if the source does not support
+     * it, pages of large rows are made smaller to fit the default window. A page that does not
+     * fit its window is slow to read, as the query has to step to the position of the next row
+     * again each time the window is refilled.
+     * <p/>
+     * The chosen sizes are reported by {@link #getReadPlans()}. Off by default.
+     */
+    public void setAdaptiveWindowSize(boolean adaptiveWindowSize) {
+        this.adaptiveWindowSize = adaptiveWindowSize;
+    }
+
+    /**
+     * Returns how each table was read by the last call to {@link #migrate(PostMigrationStep)},
+     * by table name in the order tables were read, see {@link #setAdaptiveWindowSize(boolean)}.
+     */
+    public Map<String, ReadPlan> getReadPlans() {
+        return Collections.unmodifiableMap(readPlans);
+    }
+
+    /**
+     * Reports the progress of each table to the given listener: when it is started, at most once
+     * every {@code progressIntervalMillis} while it is migrated and when it has ended. Before
+     * migrating a table its rows are counted. {@link TableMetrics} splits the time spent into
+     * reading rows, mapping them and putting entities. Pass {@code null} to not report progress
+     * (the default), then no time is measured.
+     */
+    public void setMigrationListener(@Nullable MigrationListener listener,
+                                     long progressIntervalMillis) {
+        if (progressIntervalMillis < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative");
+        }
+        this.listener = listener;
+        this.progressIntervalNanos = progressIntervalMillis * 1000000;
+    }
+
+    /**
+     * Sets a file to cache the mapping found by {@link #autoDetect(boolean, boolean)} in. The
+     * file also stores the columns, PRIMARY KEY and foreign keys of mapped tables. If the file
+     * exists, and neither the CREATE TABLE statements of the database nor the entities and
+     * properties of the model have changed since it was written, the mapping is loaded from the
+     * file instead. This skips looking up entity properties and fields and querying the schema of
+     * each table. Otherwise the mapping is detected and the file is replaced.
+     * <p/>
+     * Only detected mappings are cached, customize them after calling
+     * {@link #autoDetect(boolean, boolean)} as usual. Pass {@code null} to always detect (the
+     * default).
+     */
+    public void setPlanCacheFile(@Nullable File planCacheFile) {
+        this.planCacheFile = planCacheFile;
+    }
+
+    /**
+     * Returns if the last call to {@link #autoDetect(boolean, boolean)} loaded the mapping from
+     * the {@link #setPlanCacheFile(File) plan cache file}.
+     */
+    public boolean isPlanCacheUsed() {
+        return planCacheUsed;
+    }
+
+    /**
+     * Returns new metrics for the table, or {@code null} if there is no listener.
+     */
+    @Nullable
+    private TableMetrics newMetrics(TableMapping tableMapping, ReadPlan plan) {
+        if (listener == null) {
+            return null;
+        }
+        return new TableMetrics(tableMapping.getTableName(), plan,
+                tableMapping.countRows(source), listener, progressIntervalNanos);
+    }
+
+    /**
+     * Returns the key to read the table by: ordered by its high-water mark first if migrating
+     * incrementally, the rowid if the table has no mark.
+     */
+    private TableKey getReadKey(TableMapping tableMapping) {
+        TableKey key = schemaCatalog.getKey(tableMapping.getTableName());
+        if (!incremental) {
+            return key;
+        }
+        String markColumn = tableMapping.getHighWaterMarkColumn();
+        return key.withMark(markColumn != null ? markColumn : "rowid");
+    }
+
+    /**
+     * Returns if all rows of the table were migrated according to the checkpoint. Tables are
+     * never complete when migrating incrementally, new rows are read after their mark.
+     */
+    private boolean isTableComplete(MigrationCheckpoint checkpoint, TableMapping tableMapping) {
+        return !incremental && checkpoint.isTableComplete(tableMapping.getTableName());
+    }
+
+    /**
+     * Returns how to read the table, samples its rows if adaptive window size is turned on. Tables
+     * read directly from the file are not sampled, they are not read through a CursorWindow.
+     */
+    private ReadPlan planRead(TableMapping tableMapping, TableKey key,
+                              @Nullable FileTable fileTable) {
+        ReadPlan plan = adaptiveWindowSize && fileTable == null
+                ? ReadPlan.sample(source, tableMapping, key, pageSize)
+                : ReadPlan.fixed(tableMapping.getTableName(), pageSize);
+        readPlans.put(tableMapping.getTableName(), plan);
+        return plan;
+    }
+
+    /**
+     * Maps the {@link #setDirectReadFile(File) direct read file}, returns {@code null} if there is
+     * none or it can not be read directly.
+     */
+    @Nullable
+    private DatabaseFile openDirectReadFile() {
+        if (directReadFile == null) {
+            return null;
+        }
+        try {
+            return DatabaseFile.open(directReadFile);
+        } catch (IOException e) {
+            return null;
+        } catch (DatabaseFile.UnsupportedFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the table of the file prepared for reading, or {@code null} if there is no file or
+     * the table has to be queried.
+     */
+    @Nullable
+    private FileTable prepareFileTable(@Nullable DatabaseFile file, TableMapping tableMapping,
+                                       TableKey key) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return FileTable.prepare(file, schemaCatalog, tableMapping, key);
+        } catch (DatabaseFile.UnsupportedFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Calls {@link #autoDetect(boolean, boolean)}, defaults to throwing if entity or property can
      * not be mapped.
@@ -131,15 +531,39 @@ public class SqlMigration {
      *                                entities have properties that should not be mapped.
      */
     public void autoDetect(boolean throwIfEntityUnmapped, boolean throwIfPropertyUnmapped) {
+        planCacheUsed = false;
+        if (planCacheFile == null) {
+            MigrationPlan plan = detect(null);
+            checkUnmapped(plan, throwIfEntityUnmapped, throwIfPropertyUnmapped);
+            return;
+        }
+        String fingerprint = MigrationPlan.fingerprint(schemaCatalog, boxStore);
+        MigrationPlan plan = MigrationPlan.load(planCacheFile, fingerprint);
+        if (plan != null && plan.apply(schemaCatalog, boxStore, tableMap)) {
+            planCacheUsed = true;
+        } else {
+            plan = detect(fingerprint);
+            plan.save(planCacheFile);
+        }
+        checkUnmapped(plan, throwIfEntityUnmapped, throwIfPropertyUnmapped);
+    }
+
+    /**
+     * Detects table mappings and adds them to the table map.
+     *
+     * @param fingerprint If not {@code null}, the returned plan can be saved with it.
+     */
+    private MigrationPlan detect(@Nullable String fingerprint) {
         Collection<Class> entityClasses = boxStore.getAllEntityClasses();
+        List<TableMapping> detected = new ArrayList<>();
         List<String> unmappedEntities = new ArrayList<>();
-        Map<Property, String> unmappedProperties = new HashMap<>();
+        List<String> unmappedProperties = new ArrayList<>();
         for (Class entityClass : entityClasses) {
             String tableName = entityClass.getSimpleName();
-            if (tableExistsWithName(database, tableName)) {
+            if (schemaCatalog.hasTable(tableName)) {
                 TableMapping tableMapping = new TableMapping(tableName, entityClass);
 
-                Set<ForeignKey> foreignKeysOfTable = getForeignKeysOf(database, tableName);
+                Set<ForeignKey> foreignKeysOfTable = schemaCatalog.getForeignKeys(tableName);
 
                 // add mapping for each property that a column can be found for
                 EntityInfo entityInfo = boxStoreHelper.getEntityInfo(entityClass);
@@ -147,20 +571,20 @@ public class SqlMigration {
                 for (Property property : properties) {
                     // look for direct mapping of property name -> column name
                     String columnName = property.name;
-                    int indexOfColumn = indexOfColumnIn(database, columnName, tableName);
+                    int indexOfColumn = schemaCatalog.indexOfColumn(tableName, columnName);
                     // fall back if no match found
                     if (indexOfColumn == -1) {
                         if (property.isId) {
                             // for @Id property try again with '_id'
                             columnName = "_id";
-                            indexOfColumn = indexOfColumnIn(database, columnName, tableName);
+                            indexOfColumn = schemaCatalog.indexOfColumn(tableName, columnName);
                         } else if (property.name.endsWith("Id")) {
                             // for potential to-one target ID property, try again without 'Id' suffix
                             String columnFrom = property.name.substring(0, property.name.length() - 2);
                             // ensure that column stores a foreign key
                             if (isForeignKeyColumn(foreignKeysOfTable, columnFrom)) {
                                 columnName = columnFrom;
-                                indexOfColumn = indexOfColumnIn(database, columnName, tableName);
+                                indexOfColumn = schemaCatalog.indexOfColumn(tableName, columnName);
                                 // check if there actually is a ToOne
                                 try {
                                     Field field = entityClass.getDeclaredField(columnFrom);
@@ -173,6 +597,9 @@ public class SqlMigration {
                                     }
                                 } catch (NoSuchFieldException ignored) {
                                 }
+                            } else if (detectCompositeForeignKey(tableMapping, foreignKeysOfTable,
+                                    entityClass, columnFrom)) {
+                                continue;
                             }
                         }
                     }
@@ -188,19 +615,72 @@ public class SqlMigration {
                         tableMapping.putColumnMapping(new ColumnMapping(columnName, indexOfColumn,
                                 property, field, ColumnMapping.DEFAULT_MAPPER));
                     } else {
-                        unmappedProperties.put(property, tableName);
+                        unmappedProperties.add(tableName + "." + property.name);
                     }
                 }
 
+                tableMapping.compile();
                 tableMap.put(tableName, tableMapping);
+                detected.add(tableMapping);
             } else {
                 unmappedEntities.add(tableName);
             }
         }
+        return MigrationPlan.of(fingerprint != null ? fingerprint : "", detected, schemaCatalog,
+                unmappedEntities, unmappedProperties);
+    }
 
-        if (throwIfEntityUnmapped && !unmappedEntities.isEmpty()) {
+    /**
+     * Maps all columns of a composite foreign key to the ToOne of the given name, if the table has
+     * exactly one composite foreign key referencing the table of the target entity of the ToOne.
+     * Returns if it did.
+     */
+    private boolean detectCompositeForeignKey(TableMapping tableMapping,
+                                              Set<ForeignKey> foreignKeysOfTable,
+                                              Class entityClass, String toOneName) {
+        Field field;
+        try {
+            field = entityClass.getDeclaredField(toOneName);
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+        if (!ToOne.class.isAssignableFrom(field.getType())
+                || !(field.getGenericType() instanceof ParameterizedType)) {
+            return false;
+        }
+        Type targetType = ((ParameterizedType) field.getGenericType())
+                .getActualTypeArguments()[0];
+        if (!(targetType instanceof Class)) {
+            return false;
+        }
+        String tableTo = ((Class) targetType).getSimpleName();
+        ForeignKey match = null;
+        for (ForeignKey foreignKey : foreignKeysOfTable) {
+            if (foreignKey.isComposite() && foreignKey.tableTo.equalsIgnoreCase(tableTo)) {
+                if (match != null) {
+                    return false; // ambiguous, map manually
+                }
+                match = foreignKey;
+            }
+        }
+        if (match == null) {
+            return false;
+        }
+        field.setAccessible(true); // to set private fields
+        String tableName = tableMapping.getTableName();
+        for (String columnFrom : match.columnsFrom) {
+            tableMapping.putColumnMapping(new ColumnMapping(columnFrom,
+                    schemaCatalog.indexOfColumn(tableName, columnFrom), null, field,
+                    ColumnMapping.FOREIGN_KEY_MAPPER));
+        }
+        return true;
+    }
+
+    private static void checkUnmapped(MigrationPlan plan, boolean throwIfEntityUnmapped,
+                                      boolean throwIfPropertyUnmapped) {
+        if (throwIfEntityUnmapped && !plan.unmappedEntities.isEmpty()) {
             StringBuilder entities = new StringBuilder();
-            for (String unmappedEntity : unmappedEntities) {
+            for (String unmappedEntity : plan.unmappedEntities) {
                 if (entities.length() > 0) {
                     entities.append(",");
                 }
@@ -209,136 +689,639 @@ public class SqlMigration {
             throw new IllegalStateException("Failed to map entities to a table of the same name: "
                     + entities);
         }
-        if (throwIfPropertyUnmapped && !unmappedProperties.isEmpty()) {
+        if (throwIfPropertyUnmapped && !plan.unmappedProperties.isEmpty()) {
             StringBuilder properties = new StringBuilder();
-            for (Map.Entry<Property, String> entry : unmappedProperties.entrySet()) {
+            for (String unmappedProperty : plan.unmappedProperties) {
                 if (properties.length() > 0) {
                     properties.append(",");
                 }
-                properties.append(entry.getValue()).append(".").append(entry.getKey().name);
+                properties.append(unmappedProperty);
             }
             throw new IllegalStateException("Failed to map properties to a column of the same name: "
                     + properties);
         }
     }
 
-    static boolean isForeignKeyColumn(Set<ForeignKey> foreignKeysOfTable, String columnFrom) {
-        for (ForeignKey foreignKey : foreignKeysOfTable) {
-            if (foreignKey.columnFrom.equals(columnFrom)) {
-                return true;
+    /**
+     * Builds a {@link ForeignKeyIndex} for each column referenced by a foreign key column mapped
+     * with a {@link ColumnMapping.ForeignKeyMapper}, if it is not the column the ID of the target
+     * entity is mapped from. Each referenced column is read once, even if referenced by multiple
+     * foreign keys. Composite foreign keys always use an index over all their referenced columns.
+     *
+     * @param keepCapturedIndexes Keep indexes of mapped tables built before, which are updated
+     *                            with their captured changes instead. Indexes of other tables are
+     *                            built again, they might have new rows.
+     */
+    private void prepareForeignKeys(boolean keepCapturedIndexes) {
+        Map<String, ForeignKeyIndex> indexes = foreignKeyIndexes;
+        if (keepCapturedIndexes) {
+            Iterator<ForeignKeyIndex> iterator = indexes.values().iterator();
+            while (iterator.hasNext()) {
+                if (!tableMap.containsKey(iterator.next().tableTo)) {
+                    iterator.remove();
+                }
+            }
+        } else {
+            indexes.clear();
+        }
+        for (TableMapping tableMapping : tableMap.values()) {
+            Set<ForeignKey> foreignKeys = schemaCatalog.getForeignKeys(tableMapping.getTableName());
+            for (ColumnMapping columnMapping : tableMapping.getColumnMap().values()) {
+                if (!(columnMapping.getMapper() instanceof ColumnMapping.ForeignKeyMapper)) {
+                    continue;
+                }
+                ForeignKeyIndex index = null;
+                ColumnMapping[] foreignKeyColumns = null;
+                ForeignKey foreignKey = getForeignKey(foreignKeys, columnMapping.getColumnName());
+                List<String> columnsTo = foreignKey != null
+                        ? getReferencedColumns(foreignKey) : null;
+                if (columnsTo == null && foreignKey != null && foreignKey.isComposite()) {
+                    throw new IllegalStateException("Columns referenced by foreign key "
+                            + foreignKey.columnsFrom + " of table '" + tableMapping.getTableName()
+                            + "' not found in table '" + foreignKey.tableTo + "'");
+                }
+                if (columnsTo != null) {
+                    String idColumn = getIdColumn(foreignKey.tableTo);
+                    if (foreignKey.isComposite()) {
+                        foreignKeyColumns = getForeignKeyColumns(tableMapping, foreignKey);
+                    }
+                    if (foreignKey.isComposite() || !columnsTo.get(0).equalsIgnoreCase(idColumn)) {
+                        String indexKey = foreignKey.tableTo + "." + columnsTo;
+                        index = indexes.get(indexKey);
+                        if (index == null) {
+                            index = ForeignKeyIndex.build(source, schemaCatalog,
+                                    foreignKey.tableTo, columnsTo, idColumn);
+                            indexes.put(indexKey, index);
+                        }
+                    }
+                }
+                columnMapping.setForeignKeyIndex(index);
+                columnMapping.setForeignKeyColumns(foreignKeyColumns);
             }
         }
-        return false;
     }
 
-    static boolean tableExistsWithName(SQLiteDatabase database, String tableName) {
-        Cursor cursor = database.query("sqlite_master", new String[]{"name"},
-                "type='table' AND name=?", new String[]{tableName},
-                null, null, null, "1");
-        if (cursor == null) {
-            return false;
+    /**
+     * Returns the mappings of all columns of a composite foreign key, which must all be mapped to
+     * the same ToOne.
+     */
+    private static ColumnMapping[] getForeignKeyColumns(TableMapping tableMapping,
+                                                        ForeignKey foreignKey) {
+        ColumnMapping[] columns = new ColumnMapping[foreignKey.columnsFrom.size()];
+        for (int i = 0; i < columns.length; i++) {
+            String columnFrom = foreignKey.columnsFrom.get(i);
+            ColumnMapping columnMapping = tableMapping.getColumnMap().get(columnFrom);
+            if (columnMapping == null
+                    || !(columnMapping.getMapper() instanceof ColumnMapping.ForeignKeyMapper)
+                    || (i > 0 && !columnMapping.getField().equals(columns[0].getField()))) {
+                throw new IllegalStateException("All columns of foreign key "
+                        + foreignKey.columnsFrom + " of table '" + tableMapping.getTableName()
+                        + "' must be mapped to the same ToOne, but '" + columnFrom + "' is not");
+            }
+            columns[i] = columnMapping;
         }
-        boolean isTableExisting = cursor.getCount() > 0;
-        cursor.close();
-        return isTableExisting;
+        return columns;
     }
 
     /**
-     * Returns -1 if the column does not exist.
+     * Returns the foreign key the column is part of. A single column foreign key is returned
+     * before a composite foreign key including the column.
      */
-    static int indexOfColumnIn(SQLiteDatabase database, String columnName, String tableName) {
-        Cursor cursor = database.query("\"" + tableName + "\"", null, null, null,
-                null, null, null, "1");
-        if (cursor == null) {
-            return -1;
+    @Nullable
+    private static ForeignKey getForeignKey(Set<ForeignKey> foreignKeysOfTable,
+                                            String columnFrom) {
+        ForeignKey composite = null;
+        for (ForeignKey foreignKey : foreignKeysOfTable) {
+            if (!foreignKey.isComposite() && foreignKey.columnFrom.equals(columnFrom)) {
+                return foreignKey;
+            }
+            if (foreignKey.isComposite() && foreignKey.columnsFrom.contains(columnFrom)) {
+                composite = foreignKey;
+            }
         }
-        int columnIndex = cursor.getColumnIndex(columnName);
-        cursor.close();
-        return columnIndex;
+        return composite;
     }
 
-    static Set<ForeignKey> getForeignKeysOf(SQLiteDatabase database, String tableName) {
-        Set<ForeignKey> foreignKeys = new HashSet<>();
+    /**
+     * Returns the columns a foreign key references, the PRIMARY KEY columns if none are named.
+     * Returns {@code null} if the columns can not be resolved.
+     */
+    @Nullable
+    private List<String> getReferencedColumns(ForeignKey foreignKey) {
+        if (!schemaCatalog.hasTable(foreignKey.tableTo)) {
+            return null;
+        }
+        if (foreignKey.columnTo == null) {
+            List<String> primaryKeyColumns =
+                    schemaCatalog.getPrimaryKeyColumns(foreignKey.tableTo);
+            return primaryKeyColumns.size() == foreignKey.columnsFrom.size()
+                    ? primaryKeyColumns : null;
+        }
+        for (String columnTo : foreignKey.columnsTo) {
+            if (columnTo == null
+                    || schemaCatalog.indexOfColumn(foreignKey.tableTo, columnTo) == -1) {
+                return null;
+            }
+        }
+        return foreignKey.columnsTo;
+    }
 
-        Cursor cursor = database.rawQuery("PRAGMA foreign_key_list(\"" + tableName + "\")", null);
-        //noinspection TryFinallyCanBeTryWithResources
-        try {
-            final int idColumnIndex = cursor.getColumnIndex("id");
-            final int seqColumnIndex = cursor.getColumnIndex("seq");
-            final int tableColumnIndex = cursor.getColumnIndex("table");
-            final int fromColumnIndex = cursor.getColumnIndex("from");
-            final int toColumnIndex = cursor.getColumnIndex("to");
-
-            // get IDs of multi-column foreign keys
-            Set<Integer> multiColumnForeignKeys = new HashSet<>();
-            final int count = cursor.getCount();
-            for (int position = 0; position < count; position++) {
-                cursor.moveToPosition(position);
-                final int seq = cursor.getInt(seqColumnIndex);
-                if (seq != 0) {
-                    multiColumnForeignKeys.add(cursor.getInt(idColumnIndex));
-                }
+    /**
+     * Returns the column the ID of the entity of the table is mapped from. If the table is not
+     * mapped or its ID is not mapped, the ID is assumed to be the rowid: returns its alias column
+     * (INTEGER PRIMARY KEY) if there is one, otherwise "rowid".
+     */
+    private String getIdColumn(String tableName) {
+        TableMapping tableMapping = tableMap.get(tableName);
+        ColumnMapping idMapping = tableMapping != null ? getIdMapping(tableMapping) : null;
+        if (idMapping != null) {
+            return idMapping.getColumnName();
+        }
+        List<String> primaryKeyColumns = schemaCatalog.getPrimaryKeyColumns(tableName);
+        if (primaryKeyColumns.size() == 1 && !schemaCatalog.isWithoutRowId(tableName)) {
+            String column = primaryKeyColumns.get(0);
+            String type = schemaCatalog.getColumnType(tableName,
+                    schemaCatalog.indexOfColumn(tableName, column));
+            if ("INTEGER".equalsIgnoreCase(type)) {
+                return column;
             }
+        }
+        return "rowid";
+    }
 
-            for (int position = 0; position < count; position++) {
-                cursor.moveToPosition(position);
-                final int id = cursor.getInt(idColumnIndex);
-                if (multiColumnForeignKeys.contains(id)) {
-                    continue; // skip, multi-column foreign keys are not supported
+    /**
+     * Adds the tables whose entity ID is not mapped to the ID translation and sets up foreign key
+     * columns referencing them. Columns referencing a table that is migrated before their own
+     * table are translated when mapping rows. Others are returned to be rewritten after all tables
+     * were migrated, the IDs of their tables are recorded as well to find the migrated entities.
+     */
+    private Map<TableMapping, Map<ColumnMapping, IdTranslation.Table>> prepareIdTranslation(
+            @Nullable IdTranslation idTranslation, List<TableMapping> tableOrder) {
+        Map<TableMapping, Map<ColumnMapping, IdTranslation.Table>> toOnesToRewrite =
+                new LinkedHashMap<>();
+        if (idTranslation == null) {
+            return toOnesToRewrite;
+        }
+        for (TableMapping tableMapping : tableOrder) {
+            if (getIdMapping(tableMapping) == null) {
+                checkRowIdTable(tableMapping);
+                idTranslation.addTable(tableMapping.getTableName());
+            }
+        }
+        for (int i = 0; i < tableOrder.size(); i++) {
+            TableMapping tableMapping = tableOrder.get(i);
+            Set<ForeignKey> foreignKeys = schemaCatalog.getForeignKeys(tableMapping.getTableName());
+            for (ColumnMapping columnMapping : tableMapping.getColumnMap().values()) {
+                if (!(columnMapping.getMapper() instanceof ColumnMapping.ForeignKeyMapper)) {
+                    continue;
                 }
-                foreignKeys.add(new ForeignKey(
-                        cursor.getString(fromColumnIndex),
-                        cursor.getString(tableColumnIndex),
-                        cursor.getString(toColumnIndex)
-                ));
+                ForeignKey foreignKey = getForeignKey(foreignKeys, columnMapping.getColumnName());
+                // only the first column of a composite foreign key sets the ToOne
+                IdTranslation.Table target = foreignKey != null
+                        && foreignKey.columnFrom.equals(columnMapping.getColumnName())
+                        ? idTranslation.getTable(foreignKey.tableTo) : null;
+                if (target != null && !isMigratedBefore(foreignKey.tableTo, tableOrder, i)) {
+                    Map<ColumnMapping, IdTranslation.Table> columns =
+                            toOnesToRewrite.get(tableMapping);
+                    if (columns == null) {
+                        columns = new LinkedHashMap<>();
+                        toOnesToRewrite.put(tableMapping, columns);
+                    }
+                    columns.put(columnMapping, target);
+                    target = null; // keep rowid until rewritten
+                }
+                columnMapping.setIdTranslation(target);
+            }
+        }
+        for (TableMapping tableMapping : toOnesToRewrite.keySet()) {
+            if (idTranslation.getTable(tableMapping.getTableName()) == null) {
+                checkRowIdTable(tableMapping);
+                idTranslation.addTable(tableMapping.getTableName());
             }
-        } finally {
-            cursor.close();
         }
+        return toOnesToRewrite;
+    }
 
-        return foreignKeys;
+    private void checkRowIdTable(TableMapping tableMapping) {
+        if (!schemaCatalog.getKey(tableMapping.getTableName()).isRowId) {
+            throw new IllegalStateException("ID translation requires a rowid, but table '"
+                    + tableMapping.getTableName() + "' is WITHOUT ROWID");
+        }
+    }
+
+    private static boolean isMigratedBefore(String tableName, List<TableMapping> tableOrder,
+                                            int index) {
+        for (int i = 0; i < index; i++) {
+            if (tableOrder.get(i).getTableName().equals(tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void clearIdTranslation() {
+        for (TableMapping tableMapping : tableMap.values()) {
+            for (ColumnMapping columnMapping : tableMapping.getColumnMap().values()) {
+                columnMapping.setIdTranslation(null);
+            }
+        }
+    }
+
+    /**
+     * Sets the target ID of ToOnes that still reference a rowid to the new ID of their target,
+     * reads and puts the migrated entities page by page, each page in its own transaction.
+     */
+    private void rewriteToOnes(Map<TableMapping, Map<ColumnMapping, IdTranslation.Table>> toOnes,
+                               @Nullable IdTranslation idTranslation) {
+        if (idTranslation == null) {
+            return;
+        }
+        int chunkSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        long[] chunk = new long[chunkSize];
+        for (Map.Entry<TableMapping, Map<ColumnMapping, IdTranslation.Table>> entry
+                : toOnes.entrySet()) {
+            TableMapping tableMapping = entry.getKey();
+            final Map<ColumnMapping, IdTranslation.Table> columns = entry.getValue();
+            IdTranslation.Table ids = idTranslation.getTable(tableMapping.getTableName());
+            final Box box = tableMapping.box(boxStore);
+            for (long position = 0; position < ids.size(); position += chunkSize) {
+                int count = ids.getNewIds(position, chunk, chunkSize);
+                final long[] entityIds = count == chunkSize ? chunk : Arrays.copyOf(chunk, count);
+                boxStore.runInTx(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Object> entities = new ArrayList<>(entityIds.length);
+                        //noinspection unchecked Type is not known
+                        for (Object entity : (List<Object>) box.get(entityIds)) {
+                            if (entity == null) {
+                                continue;
+                            }
+                            for (Map.Entry<ColumnMapping, IdTranslation.Table> column
+                                    : columns.entrySet()) {
+                                ToOne toOne = (ToOne) column.getKey().getValue(entity);
+                                long rowId = toOne.getTargetId();
+                                if (rowId != 0) {
+                                    toOne.setTargetId(column.getValue().translate(rowId));
+                                }
+                            }
+                            entities.add(entity);
+                        }
+                        //noinspection unchecked Type is not known
+                        box.put(entities);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Returns the mapping of the column the ID of the entity is mapped from, or {@code null}.
+     */
+    @Nullable
+    private static ColumnMapping getIdMapping(TableMapping tableMapping) {
+        for (ColumnMapping columnMapping : tableMapping.getColumnMap().values()) {
+            Property property = columnMapping.getProperty();
+            if (property != null && property.isId) {
+                return columnMapping;
+            }
+        }
+        return null;
+    }
+
+    static boolean isForeignKeyColumn(Set<ForeignKey> foreignKeysOfTable, String columnFrom) {
+        for (ForeignKey foreignKey : foreignKeysOfTable) {
+            if (!foreignKey.isComposite() && foreignKey.columnFrom.equals(columnFrom)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Runs migration using current mapping. A given {@link PostMigrationStep} will be executed
      * after all migration work is done, but still within the migration transaction.
+     * <p/>
+     * Tables are migrated in a fixed order: a table comes after the tables its foreign keys
+     * reference, otherwise tables are ordered by name.
+     * <p/>
+     * If {@link #setChunkSize(int, long) chunks} are used, each chunk is committed in its own
+     * transaction and the {@link PostMigrationStep} runs in a separate, last transaction.
+     * <p/>
+     * If {@link #setIncremental(boolean) incremental}, only migrates rows added or changed since
+     * the last call.
      */
     public void migrate(@Nullable final PostMigrationStep postMigrationStep) {
-        boxStore.runInTx(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    migrateImpl();
-                } catch (InstantiationException e) {
-                    throw new RuntimeException(e);
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
+        readPlans.clear();
+        if (incremental) {
+            if (checkpointFile == null) {
+                throw new IllegalStateException("Incremental migration requires a checkpoint file");
+            }
+            if (readerThreads > 0) {
+                throw new IllegalStateException(
+                        "Pipelined migration does not support incremental migration");
+            }
+            for (TableMapping tableMapping : tableMap.values()) {
+                String tableName = tableMapping.getTableName();
+                if (tableMapping.getHighWaterMarkColumn() == null
+                        && schemaCatalog.isWithoutRowId(tableName)) {
+                    // new rows of the table could not be found
+                    throw new IllegalStateException("Table '" + tableName + "' was created"
+                            + " WITHOUT ROWID, incremental migration requires a high-water mark");
                 }
-                if (postMigrationStep != null) {
-                    postMigrationStep.run(database, boxStore);
+            }
+        }
+        if (idTranslationMemory > 0
+                && (readerThreads > 0 || incremental || checkpointFile != null)) {
+            throw new IllegalStateException("ID translation does not support pipelined or"
+                    + " incremental migration or a checkpoint file");
+        }
+        if ((chunkMaxRows > 0 || chunkMaxBytes > 0) && readerThreads > 0) {
+            throw new IllegalStateException("Pipelined migration does not support chunks");
+        }
+        prepareForeignKeys(false);
+        final IdTranslation idTranslation = idTranslationMemory > 0
+                ? new IdTranslation(idTranslationMemory, idTranslationDirectory) : null;
+        try {
+            if (chunkMaxRows > 0 || chunkMaxBytes > 0) {
+                migrateInChunks(postMigrationStep, idTranslation);
+                return;
+            }
+            final MigrationCheckpoint checkpoint = incremental
+                    ? new MigrationCheckpoint(checkpointFile) : null;
+            boxStore.runInTx(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (readerThreads > 0) {
+                            migratePipelined();
+                        } else {
+                            migrateImpl(checkpoint, idTranslation);
+                        }
+                    } catch (InstantiationException e) {
+                        throw new RuntimeException(e);
+                    } catch (IllegalAccessException e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (postMigrationStep != null) {
+                        postMigrationStep.run(database, boxStore);
+                    }
                 }
+            });
+            if (checkpoint != null) {
+                checkpoint.save(); // transaction is committed, record high-water marks
             }
-        });
+        } finally {
+            if (idTranslation != null) {
+                clearIdTranslation(); // do not keep references to recorded IDs
+                idTranslation.close();
+            }
+        }
     }
 
-    private void migrateImpl() throws InstantiationException, IllegalAccessException {
-        for (TableMapping tableMapping : tableMap.values()) {
+    /**
+     * @param checkpoint    If migrating incrementally, to continue after and record the
+     *                      high-water mark of each table, otherwise {@code null}.
+     * @param idTranslation To record IDs assigned by ObjectBox in, or {@code null}.
+     */
+    private void migrateImpl(@Nullable MigrationCheckpoint checkpoint,
+                             @Nullable IdTranslation idTranslation)
+            throws InstantiationException, IllegalAccessException {
+        // re-used for all tables to avoid growing a new buffer each time
+        List<Object> batch = batchSize > 1 ? new ArrayList<>(batchSize) : null;
+        DatabaseFile file = openDirectReadFile();
+        List<TableMapping> tableOrder = new TableGraph(tableMap.values(), schemaCatalog).getOrder();
+        Map<TableMapping, Map<ColumnMapping, IdTranslation.Table>> toOnesToRewrite =
+                prepareIdTranslation(idTranslation, tableOrder);
+        for (TableMapping tableMapping : tableOrder) {
+            String tableName = tableMapping.getTableName();
+            if (checkpoint != null && isTableComplete(checkpoint, tableMapping)) {
+                continue;
+            }
+            Box box = tableMapping.box(boxStore);
+            TableKey key = getReadKey(tableMapping);
+
+            FileTable fileTable = prepareFileTable(file, tableMapping, key);
+            ReadPlan plan = planRead(tableMapping, key, fileTable);
+            PagedQuery query = new PagedQuery(source, tableMapping, key, null,
+                    checkpoint != null ? checkpoint.getLastKey(tableName) : null,
+                    plan.getPageSize(), false, fileTable);
+            query.setWindowSize(plan.getWindowSize());
+            TableMetrics metrics = newMetrics(tableMapping, plan);
+            if (metrics != null) {
+                metrics.start();
+            }
+            try {
+                TableMigrator migrator = new TableMigrator(tableMapping, box, query, batch,
+                        batchSize, metrics);
+                if (idTranslation != null) {
+                    migrator.setIdTranslation(idTranslation.getTable(tableName));
+                }
+                migrator.migrateRows(0, 0);
+                if (checkpoint != null) {
+                    String[] lastKey = migrator.getLastKey();
+                    if (lastKey != null) {
+                        checkpoint.setLastKey(tableName, lastKey);
+                    }
+                    checkpoint.setTableComplete(tableName);
+                }
+            } finally {
+                query.close();
+                if (batch != null) {
+                    batch.clear(); // drop references if mapping failed
+                }
+            }
+            if (metrics != null) {
+                metrics.end();
+            }
+        }
+        rewriteToOnes(toOnesToRewrite, idTranslation);
+    }
+
+    private void migratePipelined() {
+        TableGraph tableGraph = new TableGraph(tableMap.values(), schemaCatalog);
+        boolean ownConnections = readerThreads > 1 && source.supportsReadOnlyConnections();
+        DatabaseFile file = openDirectReadFile();
+        Map<String, List<MigrationPipeline.ReadTask>> tasksByTable = new HashMap<>();
+        List<MigrationPipeline.ReadTask> tasks = new ArrayList<>(tableMap.size());
+        for (TableMapping tableMapping : tableGraph.getOrder()) {
+            String tableName = tableMapping.getTableName();
+            Box box = tableMapping.box(boxStore);
+            TableKey key = schemaCatalog.getKey(tableName);
+            FileTable fileTable = prepareFileTable(file, tableMapping, key);
+            ReadPlan plan = planRead(tableMapping, key, fileTable);
+            TableMetrics metrics = newMetrics(tableMapping, plan);
+
+            List<RowIdRange> ranges = null;
+            if (maxTablePartitions > 1 && key.isRowId) {
+                ranges = tableMapping.splitRowIdRanges(source, maxTablePartitions,
+                        minRowsPerPartition);
+            }
+            List<MigrationPipeline.ReadTask> tableTasks = new ArrayList<>();
+            if (ranges == null || ranges.size() < 2) {
+                tableTasks.add(new MigrationPipeline.TableReadTask(source, ownConnections,
+                        tableMapping, box, key, null, plan, batchSize, fileTable, metrics));
+            } else {
+                for (RowIdRange range : ranges) {
+                    tableTasks.add(new MigrationPipeline.TableReadTask(source, ownConnections,
+                            tableMapping, box, key, range, plan, batchSize, fileTable, metrics));
+                }
+            }
+            if (metrics != null) {
+                metrics.setReadTaskCount(tableTasks.size());
+            }
+
+            // a table is only migrated once all of its ranges are
+            for (String tableTo : tableGraph.getDependencies(tableName)) {
+                List<MigrationPipeline.ReadTask> dependencies = tasksByTable.get(tableTo);
+                if (dependencies == null) {
+                    continue; // in a cycle
+                }
+                for (MigrationPipeline.ReadTask task : tableTasks) {
+                    for (MigrationPipeline.ReadTask dependency : dependencies) {
+                        task.dependOn(dependency);
+                    }
+                }
+            }
+            tasksByTable.put(tableName, tableTasks);
+            tasks.addAll(tableTasks);
+        }
+        new MigrationPipeline(readerThreads, pipelineCapacity).run(tasks);
+    }
+
+
+    private void migrateInChunks(@Nullable final PostMigrationStep postMigrationStep,
+                                 @Nullable IdTranslation idTranslation) {
+        MigrationCheckpoint checkpoint = checkpointFile != null
+                ? new MigrationCheckpoint(checkpointFile) : new MigrationCheckpoint();
+        if (checkpoint.isComplete() && !incremental) {
+            return;
+        }
+
+        List<Object> batch = batchSize > 1 ? new ArrayList<>(batchSize) : null;
+        boolean countBytes = chunkMaxBytes > 0;
+        DatabaseFile file = openDirectReadFile();
+        List<TableMapping> tableOrder = new TableGraph(tableMap.values(), schemaCatalog).getOrder();
+        Map<TableMapping, Map<ColumnMapping, IdTranslation.Table>> toOnesToRewrite =
+                prepareIdTranslation(idTranslation, tableOrder);
+        for (TableMapping tableMapping : tableOrder) {
+            String tableName = tableMapping.getTableName();
+            if (isTableComplete(checkpoint, tableMapping)) {
+                continue;
+            }
             Box box = tableMapping.box(boxStore);
+            TableKey key = getReadKey(tableMapping);
 
-            Cursor query = tableMapping.query(database);
-            //noinspection TryFinallyCanBeTryWithResources unsure if desugar runs on Java level 1.7
+            FileTable fileTable = prepareFileTable(file, tableMapping, key);
+            ReadPlan plan = planRead(tableMapping, key, fileTable);
+            PagedQuery query = new PagedQuery(source, tableMapping, key, null,
+                    checkpoint.getLastKey(tableName), plan.getPageSize(), countBytes, fileTable);
+            query.setWindowSize(plan.getWindowSize());
+            TableMetrics metrics = newMetrics(tableMapping, plan);
+            if (metrics != null) {
+                metrics.start();
+            }
             try {
-                while (query.moveToNext()) {
-                    Object entity = tableMapping.newEntity();
-                    tableMapping.mapRow(query, entity, box);
+                final TableMigrator migrator = new TableMigrator(tableMapping, box, query, batch,
+                        batchSize, metrics);
+                if (idTranslation != null) {
+                    migrator.setIdTranslation(idTranslation.getTable(tableName));
+                }
+                while (migrator.hasMoreRows()) {
+                    boxStore.runInTx(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                migrator.migrateRows(chunkMaxRows, chunkMaxBytes);
+                            } catch (InstantiationException e) {
+                                throw new RuntimeException(e);
+                            } catch (IllegalAccessException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                    // chunk is committed, record progress
+                    String[] lastKey = migrator.getLastKey();
+                    if (lastKey != null) {
+                        checkpoint.setLastKey(tableName, lastKey);
+                    }
+                    if (!migrator.hasMoreRows()) {
+                        checkpoint.setTableComplete(tableName);
+                    }
+                    checkpoint.save();
                 }
             } finally {
                 query.close();
+                if (batch != null) {
+                    batch.clear(); // drop references if mapping failed
+                }
+            }
+            if (metrics != null) {
+                metrics.end();
             }
         }
+        rewriteToOnes(toOnesToRewrite, idTranslation);
+
+        if (postMigrationStep != null) {
+            boxStore.runInTx(new Runnable() {
+                @Override
+                public void run() {
+                    postMigrationStep.run(database, boxStore);
+                }
+            });
+        }
+        checkpoint.setComplete();
+        checkpoint.save();
+    }
+
+    /**
+     * Installs triggers on all mapped tables which record each inserted, updated or deleted row in
+     * a changelog table ({@value ChangeCapture#LOG_TABLE}) of the SQLite database, see
+     * {@link #applyChanges()}. Updates are only recorded if a mapped column changed. Install
+     * before migrating, so no change is missed, and again after the mapping changed.
+     * <p/>
+     * Deleted rows are removed by their rowid, so the ID property of each entity must be mapped
+     * from the INTEGER PRIMARY KEY column of its table (and be assignable). The database must be
+     * writable, e.g. not a {@code JdbcRowSource} opened read-only.
+     *
+     * @throws IllegalStateException if the ID property of an entity is not mapped from the rowid.
+     */
+    public void installChangeCapture() {
+        new ChangeCapture(source, boxStore).install(schemaCatalog, tableMap.values());
+    }
+
+    /**
+     * Applies changes recorded since {@link #installChangeCapture()} or the last call: removes
+     * entities of deleted rows and maps and puts inserted or updated rows using the current
+     * mapping. Reads the changelog in batches of {@link #setPageSize(int) page size} rows, each
+     * batch is applied in its own transaction and then deleted from the changelog. Returns the
+     * number of changelog rows that were applied.
+     * <p/>
+     * If applying a batch fails, its changelog rows are kept and applied again by the next call.
+     * <p/>
+     * Foreign keys referencing a column other than the ID (see {@link ForeignKeyIndex}) are
+     * translated with an index built by {@link #migrate} or the first call, which is then updated
+     * with the changes of referenced tables. Indexes of tables that are not mapped (so changes are
+     * not captured) are built again by each call.
+     */
+    public int applyChanges() {
+        prepareForeignKeys(true);
+        return new ChangeCapture(source, boxStore).apply(tableMap, foreignKeyIndexes.values(),
+                pageSize);
+    }
+
+    /**
+     * Drops the triggers installed by {@link #installChangeCapture()} and the changelog table,
+     * changes that were not applied are discarded.
+     */
+    public void removeChangeCapture() {
+        new ChangeCapture(source, boxStore).uninstall(schemaCatalog, tableMap.values());
     }
 
     public interface PostMigrationStep {
-        void run(SQLiteDatabase database, BoxStore boxStore);
+        /**
+         * @param database {@code null} if not migrating from an Android database, use
+         *                 {@link #getRowSource()} instead.
+         */
+        void run(@Nullable SQLiteDatabase database, BoxStore boxStore);
     }
 }
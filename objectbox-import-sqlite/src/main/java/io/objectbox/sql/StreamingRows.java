@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Rows of a table with {@link ColumnMapping.StreamingMapper streaming} columns. Remembers where
+ * they were queried from, so values that were left out of a row because they are too large can be
+ * read in chunks.
+ */
+class StreamingRows implements Rows {
+
+    private final Rows rows;
+    private final RowSource source;
+    private final String tableName;
+
+    StreamingRows(Rows rows, RowSource source, String tableName) {
+        this.rows = rows;
+        this.source = source;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Returns a stream reading the value of the column of the row with the given rowid in chunks.
+     */
+    InputStream openBlob(String columnName, long rowId, long length, int chunkSize) {
+        return new BlobInputStream(source, tableName, columnName, rowId, length, chunkSize);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return rows.moveToNext();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return rows.getColumnIndex(columnName);
+    }
+
+    @Override
+    public void close() {
+        rows.close();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return rows.getColumnCount();
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return rows.isNull(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return rows.getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return rows.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return rows.getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return rows.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return rows.getDouble(columnIndex);
+    }
+
+    @Nullable
+    @Override
+    public String getString(int columnIndex) {
+        return rows.getString(columnIndex);
+    }
+
+    @Nullable
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return rows.getBlob(columnIndex);
+    }
+
+    /**
+     * Reads a value chunk by chunk, each with a {@code substr()} query. Android does not offer
+     * SQLite's incremental BLOB I/O.
+     */
+    private static class BlobInputStream extends InputStream {
+
+        private final RowSource source;
+        private final String tableName;
+        /** Query of a chunk, up to the start offset. */
+        private final String chunkSql;
+        private final long rowId;
+        private final long length;
+        private final int chunkSize;
+
+        @Nullable
+        private byte[] chunk;
+        private int chunkPosition;
+        /** Bytes queried so far. */
+        private long queried;
+
+        BlobInputStream(RowSource source, String tableName, String columnName, long rowId,
+                        long length, int chunkSize) {
+            this.source = source;
+            this.tableName = tableName;
+            this.chunkSql = "SELECT substr(CAST(\"" + columnName + "\" AS BLOB), ";
+            this.rowId = rowId;
+            this.length = length;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            //noinspection ConstantConditions filled
+            return chunk[chunkPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            //noinspection ConstantConditions filled
+            int read = Math.min(count, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, buffer, offset, read);
+            chunkPosition += read;
+            return read;
+        }
+
+        /**
+         * Queries the next chunk if the current one was read, returns {@code false} at the end of
+         * the value.
+         */
+        private boolean fill() throws IOException {
+            if (chunk != null && chunkPosition < chunk.length) {
+                return true;
+            }
+            if (queried >= length) {
+                return false;
+            }
+            // rowid and offsets are integers, do not rely on type affinity of bound strings
+            Rows rows = source.query(chunkSql + (queried + 1) + ", " + chunkSize + ") FROM \""
+                    + tableName + "\" WHERE rowid = " + rowId, null);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                chunk = rows.moveToNext() ? rows.getBlob(0) : null;
+            } finally {
+                rows.close();
+            }
+            if (chunk == null || chunk.length == 0) {
+                throw new IOException("Row " + rowId + " was changed while reading it");
+            }
+            chunkPosition = 0;
+            queried += chunk.length;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The graph of mapped tables, where a table depends on the tables its foreign keys reference.
+ * Foreign keys to tables that are not mapped and to the table itself are ignored.
+ */
+class TableGraph {
+
+    /** Table name to names of tables it depends on, sorted by name. */
+    private final Map<String, Set<String>> dependencies = new TreeMap<>();
+    private final Map<String, TableMapping> tableMappings = new TreeMap<>();
+
+    TableGraph(Collection<TableMapping> mappings, SchemaCatalog schemaCatalog) {
+        for (TableMapping tableMapping : mappings) {
+            tableMappings.put(tableMapping.getTableName(), tableMapping);
+        }
+        for (String tableName : tableMappings.keySet()) {
+            Set<String> tablesTo = new TreeSet<>();
+            for (ForeignKey foreignKey : schemaCatalog.getForeignKeys(tableName)) {
+                if (!foreignKey.tableTo.equals(tableName)
+                        && tableMappings.containsKey(foreignKey.tableTo)) {
+                    tablesTo.add(foreignKey.tableTo);
+                }
+            }
+            dependencies.put(tableName, tablesTo);
+        }
+    }
+
+    /**
+     * Returns the names of the mapped tables the given table references.
+     */
+    Set<String> getDependencies(String tableName) {
+        Set<String> tablesTo = dependencies.get(tableName);
+        if (tablesTo == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(tablesTo);
+    }
+
+    /**
+     * Returns all table mappings ordered so each table comes after the tables it references. Of
+     * tables that could come next, the one with the smallest name is picked, so the order is always
+     * the same. If tables reference each other in a cycle, the cycle is broken at the table with
+     * the smallest name of a cycle that does not depend on other remaining tables.
+     */
+    List<TableMapping> getOrder() {
+        List<TableMapping> order = new ArrayList<>(tableMappings.size());
+        Set<String> remaining = new TreeSet<>(tableMappings.keySet());
+        Set<String> added = new TreeSet<>();
+        while (!remaining.isEmpty()) {
+            String next = null;
+            for (String tableName : remaining) {
+                if (added.containsAll(dependencies.get(tableName))) {
+                    next = tableName;
+                    break;
+                }
+            }
+            if (next == null) {
+                next = breakCycle(remaining);
+            }
+            remaining.remove(next);
+            added.add(next);
+            order.add(tableMappings.get(next));
+        }
+        return order;
+    }
+
+    /**
+     * Returns the table of a cycle to add next, if each remaining table depends on another one.
+     * A table of a cycle that only depends on tables of the same cycle reaches fewer tables than
+     * any table depending on that cycle, so the table that reaches the fewest tables is picked.
+     */
+    private String breakCycle(Set<String> remaining) {
+        String next = null;
+        int nextReached = Integer.MAX_VALUE;
+        for (String tableName : remaining) {
+            int reached = getReachable(tableName, remaining).size();
+            if (reached < nextReached) {
+                next = tableName;
+                nextReached = reached;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the table and the remaining tables it depends on directly or indirectly.
+     */
+    private Set<String> getReachable(String tableName, Set<String> remaining) {
+        Set<String> reached = new TreeSet<>();
+        reached.add(tableName);
+        List<String> pending = new ArrayList<>();
+        pending.add(tableName);
+        while (!pending.isEmpty()) {
+            for (String tableTo : dependencies.get(pending.remove(pending.size() - 1))) {
+                if (remaining.contains(tableTo) && reached.add(tableTo)) {
+                    pending.add(tableTo);
+                }
+            }
+        }
+        return reached;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The unique key rows of a table are ordered by when reading it page by page. This is the rowid,
+ * or the PRIMARY KEY columns for tables created WITHOUT ROWID.
+ * <p/>
+ * Key values are kept as SQL literals of their storage class, like {@code 42}, {@code 'text'} or
+ * {@code X'00FF'}, so the next page continues after exactly the last row, whatever the type of
+ * the key columns. REAL values are written as an exact expression, as parsing a decimal literal
+ * may round differently, see {@link #realLiteral(double)}.
+ *
+ * @see SchemaCatalog#getKey(String)
+ */
+class TableKey {
+
+    static final TableKey ROW_ID = new TableKey(new String[]{"rowid"}, true);
+
+    /** Table options after the column definitions may be combined, e.g. with STRICT. */
+    private static final Pattern WITHOUT_ROWID = Pattern.compile(
+            ".*\\)\\s*((WITHOUT\\s+ROWID|STRICT)\\s*,\\s*)*WITHOUT\\s+ROWID"
+                    + "(\\s*,\\s*(WITHOUT\\s+ROWID|STRICT))*\\s*;?\\s*", Pattern.DOTALL);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /** Quoted column names, or just "rowid". */
+    final String[] columns;
+    final boolean isRowId;
+
+    private TableKey(String[] columns, boolean isRowId) {
+        this.columns = columns;
+        this.isRowId = isRowId;
+    }
+
+    static TableKey ofPrimaryKey(String tableName, List<String> primaryKeyColumns) {
+        if (primaryKeyColumns.isEmpty()) {
+            throw new IllegalStateException("Table '" + tableName
+                    + "' has neither a rowid nor a PRIMARY KEY");
+        }
+        String[] columns = new String[primaryKeyColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = "\"" + primaryKeyColumns.get(i) + "\"";
+        }
+        return new TableKey(columns, false);
+    }
+
+    /**
+     * Returns a key ordering rows by the given high-water mark column first, then by this key.
+     * If the column is "rowid", returns this key.
+     */
+    TableKey withMark(String markColumn) {
+        if ("rowid".equalsIgnoreCase(markColumn)) {
+            if (!isRowId) {
+                throw new IllegalStateException("Table has no rowid");
+            }
+            return this;
+        }
+        String[] markColumns = new String[columns.length + 1];
+        markColumns[0] = "\"" + markColumn + "\"";
+        System.arraycopy(columns, 0, markColumns, 1, columns.length);
+        return new TableKey(markColumns, false);
+    }
+
+    static boolean isWithoutRowIdSql(@Nullable String createTableSql) {
+        return createTableSql != null
+                && WITHOUT_ROWID.matcher(createTableSql.toUpperCase(Locale.US)).matches();
+    }
+
+    /**
+     * Appends an expression selecting rows with a key greater than the given key values (SQL
+     * literals, see {@link #readKey(Row, int)}). For composite keys this expands to
+     * {@code (a > x) OR (a = x AND b > y) ...}, as row values are not supported by older SQLite.
+     * A null key value (only a high-water mark column may be NULL) sorts before all other values.
+     */
+    void appendAfter(StringBuilder sql, String[] afterKey) {
+        if (isRowId) {
+            // rowid is always an integer
+            sql.append("rowid > ").append(Long.parseLong(afterKey[0]));
+            return;
+        }
+        sql.append('(');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(" OR ");
+            }
+            sql.append('(');
+            for (int j = 0; j < i; j++) {
+                if (afterKey[j] == null) {
+                    sql.append(columns[j]).append(" IS NULL AND ");
+                } else {
+                    sql.append(columns[j]).append(" = ").append(afterKey[j]).append(" AND ");
+                }
+            }
+            if (afterKey[i] == null) {
+                sql.append(columns[i]).append(" IS NOT NULL)");
+            } else {
+                sql.append(columns[i]).append(" > ").append(afterKey[i]).append(')');
+            }
+        }
+        sql.append(')');
+    }
+
+    /**
+     * Appends the key columns to select. Unless the key is the rowid, the storage class of each
+     * key value is selected after them, so {@link #readKey(Row, int)} can read it exactly.
+     */
+    void appendSelection(StringBuilder sql) {
+        appendColumns(sql);
+        if (!isRowId) {
+            for (String column : columns) {
+                sql.append(", typeof(").append(column).append(')');
+            }
+        }
+    }
+
+    /**
+     * Returns the number of columns appended by {@link #appendSelection(StringBuilder)}.
+     */
+    int getSelectionSize() {
+        return isRowId ? 1 : columns.length * 2;
+    }
+
+    /**
+     * Reads the key values selected by {@link #appendSelection(StringBuilder)} as SQL literals,
+     * {@code null} for NULL values.
+     *
+     * @param index Index of the first key column in the row.
+     */
+    String[] readKey(Row row, int index) {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < values.length; i++) {
+            int valueIndex = index + i;
+            String type = row.getString(index + columns.length + i);
+            if ("integer".equals(type)) {
+                values[i] = Long.toString(row.getLong(valueIndex));
+            } else if ("real".equals(type)) {
+                values[i] = realLiteral(row.getDouble(valueIndex));
+            } else if ("text".equals(type)) {
+                values[i] = "'" + row.getString(valueIndex).replace("'", "''") + "'";
+            } else if ("blob".equals(type)) {
+                values[i] = blobLiteral(row.getBlob(valueIndex));
+            } else {
+                values[i] = null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns an expression for exactly the given value. A decimal literal is not used as SQLite
+     * may parse it to a slightly different value, so the next page could start at the same row
+     * again. Instead the value is written as an integer (at most 53 bits, so it converts exactly)
+     * times or divided by powers of two, which is exact as well.
+     */
+    static String realLiteral(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "9e999" : "-9e999"; // too large, parsed as infinity
+        }
+        if (value == 0) {
+            return "0.0";
+        }
+        int exponent = Math.max(Math.getExponent(value), Double.MIN_EXPONENT) - 52;
+        long mantissa = (long) Math.scalb(value, -exponent);
+        while ((mantissa & 1) == 0) {
+            mantissa >>= 1;
+            exponent++;
+        }
+        StringBuilder literal = new StringBuilder("(CAST(").append(mantissa).append(" AS REAL)");
+        while (exponent != 0) {
+            int step = Math.min(Math.abs(exponent), 62);
+            literal.append(exponent > 0 ? " * " : " / ").append(1L << step);
+            exponent += exponent > 0 ? -step : step;
+        }
+        return literal.append(')').toString();
+    }
+
+    private static String blobLiteral(byte[] value) {
+        StringBuilder literal = new StringBuilder(value.length * 2 + 3).append("X'");
+        for (byte b : value) {
+            literal.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+        return literal.append('\'').toString();
+    }
+
+    void appendColumns(StringBuilder sql) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+    }
+}
@@ -21,7 +21,12 @@ import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,17 +43,67 @@ public class TableMapping {
     private final Class entityClass;
 
     private final Map<String, ColumnMapping> columnMap;
+    @Nullable
+    private final EntityRowMapper rowMapper;
+    /** Column of the high-water mark, see {@link Builder#highWaterMark(String)}. */
+    @Nullable
+    private final String highWaterMarkColumn;
+
+    /** Comma separated list of mapped columns, built by {@link #compile()}. */
+    @Nullable
+    private String projection;
+    /**
+     * Column mappings ordered by table column index, which is also the projection order. Iterated
+     * without allocating an iterator.
+     */
+    @Nullable
+    private ColumnMapping[] columns;
+    /** If set, rows are {@link StreamingRows}, built by {@link #compile()}. */
+    private boolean hasStreamingColumns;
+    /** If a subclass still overrides {@link #mapRow(Cursor, Object)}. */
+    private final boolean overridesCursorMapRow;
+    /** If a subclass still overrides {@link #mapRow(Cursor, Object, Box)}. */
+    private final boolean overridesCursorMapRowAndPut;
 
     private TableMapping(Builder builder) {
         this.tableName = builder.tableName;
         this.entityClass = builder.entityClass;
         this.columnMap = builder.columnMap;
+        this.rowMapper = EntityRowMapper.Lookup.forEntity(entityClass);
+        this.highWaterMarkColumn = builder.highWaterMarkColumn;
+        this.overridesCursorMapRow = overridesCursorMapRow(getClass(), 2);
+        this.overridesCursorMapRowAndPut = overridesCursorMapRow(getClass(), 3);
+        for (ColumnMapping columnMapping : columnMap.values()) {
+            bindAccessor(columnMapping);
+        }
+        compile();
     }
 
     public TableMapping(String tableName, Class entityClass) {
         this.tableName = tableName;
         this.entityClass = entityClass;
         this.columnMap = new HashMap<>();
+        this.rowMapper = EntityRowMapper.Lookup.forEntity(entityClass);
+        this.highWaterMarkColumn = null;
+        this.overridesCursorMapRow = overridesCursorMapRow(getClass(), 2);
+        this.overridesCursorMapRowAndPut = overridesCursorMapRow(getClass(), 3);
+    }
+
+    /**
+     * Returns if the class declares a mapRow method taking a Cursor and the given number of
+     * parameters. Compares class names, so it does not load Cursor where Android is missing.
+     */
+    private static boolean overridesCursorMapRow(Class<?> type, int parameterCount) {
+        for (; type != TableMapping.class; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                if (method.getName().equals("mapRow") && parameterTypes.length == parameterCount
+                        && parameterTypes[0].getName().equals("android.database.Cursor")) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -57,33 +112,414 @@ public class TableMapping {
      */
     @Nullable
     public ColumnMapping putColumnMapping(ColumnMapping columnMapping) {
+        projection = null;
+        columns = null;
+        bindAccessor(columnMapping);
         return columnMap.put(columnMapping.getColumnName(), columnMapping);
     }
 
+    /**
+     * If there is a generated {@link EntityRowMapper} for the entity, uses its accessor for the
+     * field of the column mapping instead of reflection.
+     */
+    private void bindAccessor(ColumnMapping columnMapping) {
+        if (rowMapper != null) {
+            FieldAccessor accessor = rowMapper.accessorFor(columnMapping.getField().getName());
+            if (accessor != null) {
+                columnMapping.bindAccessor(accessor);
+            }
+        }
+    }
+
+    /**
+     * Returns the generated row mapper of the entity, or {@code null} if there is none and
+     * reflection is used.
+     */
+    @Nullable
+    public EntityRowMapper getRowMapper() {
+        return rowMapper;
+    }
+
     public Box box(BoxStore boxStore) {
         return boxStore.boxFor(entityClass);
     }
 
+    /**
+     * Queries all rows, but only the mapped columns.
+     *
+     * @see ColumnMapping#getColumnIndex()
+     */
+    public Rows query(RowSource source) {
+        return wrap(source.query("SELECT " + projection() + " FROM \"" + tableName + "\"", null),
+                source);
+    }
+
+    /**
+     * Wraps rows of a table with streaming columns, so values left out can be read later on.
+     */
+    private Rows wrap(Rows rows, RowSource source) {
+        return hasStreamingColumns ? new StreamingRows(rows, source, tableName) : rows;
+    }
+
+    /**
+     * Like {@link #query(RowSource)}, for an Android database.
+     *
+     * @deprecated Use {@link #query(RowSource)} with an {@link AndroidRowSource}, which also
+     * supports streaming columns.
+     */
+    @Deprecated
     public Cursor query(SQLiteDatabase db) {
-        return db.query("\"" + tableName + "\"", null, null, null, null, null, null);
+        if (projection == null) {
+            compile();
+        }
+        if (hasStreamingColumns) {
+            throw new IllegalStateException("Table '" + tableName
+                    + "' has streaming columns, use query(RowSource)");
+        }
+        return db.rawQuery("SELECT " + projection + " FROM \"" + tableName + "\"", null);
+    }
+
+    /**
+     * Prepares mapping rows, so nothing has to be looked up for each row: orders column mappings
+     * by their index in the table into a flat array, builds the list of mapped columns to query
+     * and resolves the mapper of each column. Done when building, and again on first use after
+     * {@link #putColumnMapping(ColumnMapping)}.
+     * <p/>
+     * Only querying mapped columns avoids reading values of large columns that are not migrated
+     * anyway. The index of each column mapping is bound to its position in the projection.
+     */
+    void compile() {
+        ColumnMapping[] columns = columnMap.values().toArray(new ColumnMapping[columnMap.size()]);
+        Arrays.sort(columns, new Comparator<ColumnMapping>() {
+            @Override
+            public int compare(ColumnMapping left, ColumnMapping right) {
+                int leftIndex = left.getTableColumnIndex();
+                int rightIndex = right.getTableColumnIndex();
+                return leftIndex < rightIndex ? -1 : (leftIndex == rightIndex ? 0 : 1);
+            }
+        });
+        StringBuilder columnNames = new StringBuilder();
+        int streamingColumns = 0;
+        for (int index = 0; index < columns.length; index++) {
+            ColumnMapping columnMapping = columns[index];
+            if (index > 0) {
+                columnNames.append(", ");
+            }
+            if (columnMapping.isStreaming()) {
+                // leave out values too large for the row, see StreamingMapper
+                int maxInlineSize = ((ColumnMapping.StreamingMapper) columnMapping.getMapper())
+                        .getMaxInlineSize();
+                columnNames.append("CASE WHEN ");
+                appendByteLength(columnNames, columnMapping.getColumnName());
+                columnNames.append(" > ").append(maxInlineSize).append(" THEN NULL ELSE ");
+                columnNames.append('"').append(columnMapping.getColumnName()).append("\" END");
+                streamingColumns++;
+            } else {
+                columnNames.append('"').append(columnMapping.getColumnName()).append('"');
+            }
+            columnMapping.bindColumnIndex(index);
+            columnMapping.compile();
+        }
+        if (streamingColumns > 0) {
+            // append the length of each streamed value, then the rowid to read it by
+            int index = columns.length;
+            int rowIdIndex = columns.length + streamingColumns;
+            for (ColumnMapping columnMapping : columns) {
+                if (columnMapping.isStreaming()) {
+                    columnNames.append(", ");
+                    appendByteLength(columnNames, columnMapping.getColumnName());
+                    columnMapping.bindStreamingIndexes(index++, rowIdIndex);
+                }
+            }
+            columnNames.append(", rowid");
+        }
+        this.projection = columnNames.toString();
+        this.columns = columns;
+        this.hasStreamingColumns = streamingColumns > 0;
+    }
+
+    /**
+     * Appends an expression for the length of a value in bytes. {@code length()} counts characters
+     * of TEXT values, but for BLOBs it does not have to load the value.
+     */
+    private static void appendByteLength(StringBuilder sql, String columnName) {
+        String column = "\"" + columnName + "\"";
+        sql.append("(CASE WHEN typeof(").append(column).append(") = 'text' THEN length(CAST(")
+                .append(column).append(" AS BLOB)) ELSE length(").append(column).append(") END)");
+    }
+
+    /**
+     * Returns if rows contain values of columns mapped with a
+     * {@link ColumnMapping.StreamingMapper}, which are read differently.
+     */
+    boolean hasStreamingColumns() {
+        if (columns == null) {
+            compile();
+        }
+        return hasStreamingColumns;
+    }
+
+    private String projection() {
+        if (projection == null) {
+            compile();
+        }
+        return projection;
+    }
+
+    /**
+     * Returns the column mappings in projection order.
+     */
+    ColumnMapping[] getColumns() {
+        if (columns == null) {
+            compile();
+        }
+        return columns;
+    }
+
+    /**
+     * Queries up to {@code limit} rows ordered by the given key, only those after {@code afterKey}
+     * if given. Only mapped columns are queried and the key columns are appended after them, see
+     * {@link TableKey#appendSelection(StringBuilder)}. If {@code withRowSize} is set, the
+     * approximate size in bytes of all mapped values of a row is appended after that.
+     *
+     * @param range Only query rows in this range, or {@code null} for all rows. Requires the key
+     *              to be the rowid.
+     * @param limit Maximum number of rows, or 0 for no limit.
+     * @param windowSize Bytes of rows to buffer at once, or 0 for the default of the source, see
+     *                   {@link RowSource#query(String, String[], long)}.
+     */
+    Rows queryPage(RowSource source, TableKey key, @Nullable RowIdRange range,
+                     @Nullable String[] afterKey, int limit, boolean withRowSize,
+                     long windowSize) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String projection = projection();
+        if (!projection.isEmpty()) {
+            sql.append(projection).append(", ");
+        }
+        key.appendSelection(sql);
+        if (withRowSize) {
+            sql.append(", ");
+            appendRowSize(sql, true);
+        }
+        sql.append(" FROM \"").append(tableName).append("\"");
+        if (range != null) {
+            if (!key.isRowId) {
+                throw new IllegalArgumentException("Only rowid ranges are supported");
+            }
+            sql.append(" WHERE ");
+            range.appendWhere(sql, afterKey != null ? afterKey[0] : null);
+        } else if (afterKey != null) {
+            sql.append(" WHERE ");
+            key.appendAfter(sql, afterKey);
+        }
+        sql.append(" ORDER BY ");
+        key.appendColumns(sql);
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return wrap(source.query(sql.toString(), null, windowSize), source);
+    }
+
+    /**
+     * Queries the rows with the given rowids, but only the mapped columns. Rows that do not exist
+     * are left out.
+     *
+     * @param count Number of rowids to use from the start of the array.
+     */
+    Rows queryRowIds(RowSource source, long[] rowIds, int count) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(projection())
+                .append(" FROM \"").append(tableName).append("\" WHERE rowid IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(rowIds[i]);
+        }
+        sql.append(')');
+        return wrap(source.query(sql.toString(), null), source);
+    }
+
+    /**
+     * Appends an expression for the approximate size in bytes of all mapped values of a row.
+     *
+     * @param withStreamingColumns Also count values of columns mapped with a
+     *                             {@link ColumnMapping.StreamingMapper}, which are mostly not
+     *                             read with the row.
+     */
+    void appendRowSize(StringBuilder sql, boolean withStreamingColumns) {
+        boolean first = true;
+        for (ColumnMapping columnMapping : columnMap.values()) {
+            if (columnMapping.isStreaming() && !withStreamingColumns) {
+                continue;
+            }
+            if (!first) {
+                sql.append(" + ");
+            }
+            first = false;
+            sql.append("ifnull(");
+            appendByteLength(sql, columnMapping.getColumnName());
+            sql.append(", 0)");
+        }
+        if (first) {
+            sql.append("0");
+        }
+    }
+
+    /**
+     * Counts all rows of the table.
+     */
+    long countRows(RowSource source) {
+        Rows rows = source.query("SELECT count(*) FROM \"" + tableName + "\"", null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            return rows.getLong(0);
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Splits the rows of the table into up to {@code maxRanges} rowid ranges with about the same
+     * number of rows, but at least {@code minRowsPerRange} rows each. Returns a single range for
+     * small tables and an empty list for empty tables.
+     * <p/>
+     * Ranges split the span of rowids from the smallest to the largest rowid evenly, so the table
+     * is only queried once. Rows are only balanced if rowids are about evenly distributed, large
+     * gaps in rowids (e.g. after deleting many rows) leave some ranges with fewer rows.
+     */
+    List<RowIdRange> splitRowIdRanges(RowSource source, int maxRanges, long minRowsPerRange) {
+        String table = "\"" + tableName + "\"";
+        long rowCount;
+        long minRowId;
+        long maxRowId;
+        Rows rows = source.query("SELECT count(*), min(rowid), max(rowid) FROM " + table, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            rows.moveToNext();
+            rowCount = rows.getLong(0);
+            minRowId = rows.getLong(1);
+            maxRowId = rows.getLong(2);
+        } finally {
+            rows.close();
+        }
+        List<RowIdRange> ranges = new ArrayList<>();
+        if (rowCount == 0) {
+            return ranges;
+        }
+        long rangeCount = Math.max(1, Math.min(maxRanges, rowCount / Math.max(1, minRowsPerRange)));
+        // divide bounds separately, the span of rowids might not fit into a long
+        long step = maxRowId / rangeCount - minRowId / rangeCount;
+        long first = minRowId;
+        for (int i = 1; i < rangeCount; i++) {
+            long nextFirst = minRowId + step * i;
+            if (nextFirst > first && nextFirst <= maxRowId) {
+                ranges.add(new RowIdRange(first, nextFirst - 1));
+                first = nextFirst;
+            }
+        }
+        ranges.add(new RowIdRange(first, maxRowId));
+        return ranges;
     }
 
     public Object newEntity() throws IllegalAccessException, InstantiationException {
+        if (rowMapper != null) {
+            return rowMapper.newEntity();
+        }
         return entityClass.newInstance();
     }
 
     /**
-     * Maps a row based on the current column map to an entity and then puts it into the box.
-     * You might want to override this method to add custom behavior for mapping a row to an entity.
+     * Maps a row based on the current column map to an entity, but does not put it. You might want
+     * to override this method to add custom behavior for mapping a row to an entity. It is used
+     * both when putting each entity separately and when putting entities in batches.
+     *
+     * @see SqlMigration#setBatchSize(int)
      */
-    public void mapRow(Cursor row, Object entity, Box box) {
-        for (ColumnMapping columnMapping : columnMap.values()) {
-            columnMapping.mapValue(row, entity);
+    public void mapRow(Row row, Object entity) {
+        if (overridesCursorMapRow) {
+            //noinspection deprecation
+            mapRow(getCursor(row), entity);
+        } else {
+            mapColumns(row, entity);
         }
+    }
+
+    /**
+     * Maps a row using {@link #mapRow(Row, Object)} and then puts the entity into the box.
+     * Only used if batching is turned off, override {@link #mapRow(Row, Object)} instead.
+     */
+    public void mapRow(Row row, Object entity, Box box) {
+        if (overridesCursorMapRowAndPut) {
+            //noinspection deprecation
+            mapRow(getCursor(row), entity, box);
+            return;
+        }
+        mapRow(row, entity);
         //noinspection unchecked Type is not known
         box.put(entity);
     }
 
+    /**
+     * Like {@link #mapRow(Row, Object)}, for a row of a cursor. Still called for rows queried from
+     * an Android database if a subclass overrides it.
+     *
+     * @deprecated Override {@link #mapRow(Row, Object)} instead, which is also called for other
+     * row sources.
+     */
+    @Deprecated
+    public void mapRow(Cursor row, Object entity) {
+        if (overridesCursorMapRow) {
+            mapColumns(new CursorRows(row), entity); // called by the subclass
+        } else {
+            mapRow(new CursorRows(row), entity);
+        }
+    }
+
+    /**
+     * Like {@link #mapRow(Row, Object, Box)}, for a row of a cursor. Still called for rows
+     * queried from an Android database if a subclass overrides it.
+     *
+     * @deprecated Override {@link #mapRow(Row, Object)} instead, which is also called for other
+     * row sources.
+     */
+    @Deprecated
+    public void mapRow(Cursor row, Object entity, Box box) {
+        if (overridesCursorMapRowAndPut) {
+            // called by the subclass
+            //noinspection deprecation
+            mapRow(row, entity);
+            //noinspection unchecked Type is not known
+            box.put(entity);
+        } else {
+            mapRow(new CursorRows(row), entity, box);
+        }
+    }
+
+    /**
+     * Returns the cursor of a row queried from an Android database, for a subclass that overrides
+     * a deprecated mapRow method.
+     */
+    private Cursor getCursor(Row row) {
+        if (!(row instanceof CursorRows)) {
+            throw new IllegalStateException("Table '" + tableName + "' overrides mapRow(Cursor)"
+                    + " and can only map rows of a Cursor, override mapRow(Row) instead");
+        }
+        return ((CursorRows) row).getCursor();
+    }
+
+    private void mapColumns(Row row, Object entity) {
+        ColumnMapping[] columns = this.columns;
+        if (columns == null) {
+            compile();
+            columns = this.columns;
+        }
+        //noinspection ForLoopReplaceableByForEach avoid allocating an iterator for each row
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].mapValue(row, entity);
+        }
+    }
+
     @VisibleForTesting
     public String getTableName() {
         return tableName;
@@ -99,8 +535,17 @@ public class TableMapping {
         return columnMap;
     }
 
+    /**
+     * Returns the column of the high-water mark for incremental migration, or {@code null} if the
+     * table is only migrated once.
+     */
+    @Nullable
+    public String getHighWaterMarkColumn() {
+        return highWaterMarkColumn;
+    }
+
     public static class Builder {
-        private final SQLiteDatabase database;
+        private final SchemaCatalog schemaCatalog;
         private final Map<String, TableMapping> tableMap;
 
         private final String tableName;
@@ -110,22 +555,36 @@ public class TableMapping {
         private final EntityInfo entityInfo;
 
         private final Map<String, ColumnMapping> columnMap = new HashMap<>();
+        @Nullable
+        private String highWaterMarkColumn;
 
         public Builder(SQLiteDatabase database, BoxStore boxStore, Map<String,
                 TableMapping> tableMap, String tableName, Class entityClass) {
-            this(database, boxStore, tableMap, tableName, entityClass, null);
+            this(new SchemaCatalog(database), boxStore, tableMap, tableName, entityClass, null);
         }
 
         public Builder(SQLiteDatabase database, BoxStore boxStore, Map<String,
                 TableMapping> tableMap, String tableName, Class entityClass,
                        @Nullable Map<String, ColumnMapping> columnMap) {
-            if (!SqlMigration.tableExistsWithName(database, tableName)) {
+            this(new SchemaCatalog(database), boxStore, tableMap, tableName, entityClass,
+                    columnMap);
+        }
+
+        public Builder(SchemaCatalog schemaCatalog, BoxStore boxStore, Map<String,
+                TableMapping> tableMap, String tableName, Class entityClass) {
+            this(schemaCatalog, boxStore, tableMap, tableName, entityClass, null);
+        }
+
+        public Builder(SchemaCatalog schemaCatalog, BoxStore boxStore, Map<String,
+                TableMapping> tableMap, String tableName, Class entityClass,
+                       @Nullable Map<String, ColumnMapping> columnMap) {
+            if (!schemaCatalog.hasTable(tableName)) {
                 throw new IllegalArgumentException("There is no table called '" + tableName + "'");
             }
             if (!boxStore.getAllEntityClasses().contains(entityClass)) {
                 throw new IllegalArgumentException("There is no entity '" + entityClass + "'");
             }
-            this.database = database;
+            this.schemaCatalog = schemaCatalog;
             this.tableMap = tableMap;
             this.tableName = tableName;
             this.entityClass = entityClass;
@@ -133,7 +592,7 @@ public class TableMapping {
                 this.columnMap.putAll(columnMap);
             }
 
-            foreignKeys = SqlMigration.getForeignKeysOf(database, tableName);
+            foreignKeys = schemaCatalog.getForeignKeys(tableName);
             entityInfo = new BoxStoreHelper(boxStore).getEntityInfo(entityClass);
         }
 
@@ -169,7 +628,7 @@ public class TableMapping {
          */
         public Builder mapColumnToProperty(String columnName, Property property,
                                            @Nullable ColumnMapping.Mapper mapper) {
-            int indexOfColumn = SqlMigration.indexOfColumnIn(database, columnName, tableName);
+            int indexOfColumn = schemaCatalog.indexOfColumn(tableName, columnName);
             if (indexOfColumn == -1) {
                 throw new IllegalArgumentException("There is no column '" + columnName
                         + "' in table '" + tableName + "'");
@@ -211,7 +670,7 @@ public class TableMapping {
          * </pre>
          */
         public Builder mapForeignKeyColumnToToOne(String columnName, String toOneName) {
-            int indexOfColumn = SqlMigration.indexOfColumnIn(database, columnName, tableName);
+            int indexOfColumn = schemaCatalog.indexOfColumn(tableName, columnName);
             if (indexOfColumn == -1) {
                 throw new IllegalArgumentException("There is no column '" + columnName
                         + "' in table '" + tableName + "'");
@@ -237,6 +696,101 @@ public class TableMapping {
             return this;
         }
 
+        /**
+         * Maps the columns of a composite (multi-column) foreign key to a ToOne property. The
+         * target ID is looked up by the values of all columns, see
+         * {@link ColumnMapping.ForeignKeyMapper}.
+         *
+         * <pre>
+         * // FOREIGN KEY(customer_region, customer_number) REFERENCES Customer(region, number)
+         * migration.mapTableToEntity("orders", Order.class)
+         *         .mapForeignKeyColumnsToToOne(
+         *                 new String[]{"customer_region", "customer_number"}, "customer")
+         *         .build();
+         * </pre>
+         */
+        public Builder mapForeignKeyColumnsToToOne(String[] columnNames, String toOneName) {
+            ForeignKey foreignKey = null;
+            for (ForeignKey candidate : foreignKeys) {
+                if (candidate.columnsFrom.size() == columnNames.length
+                        && candidate.columnsFrom.containsAll(Arrays.asList(columnNames))) {
+                    foreignKey = candidate;
+                }
+            }
+            if (foreignKey == null) {
+                throw new IllegalArgumentException(Arrays.toString(columnNames)
+                        + " are not the columns of a FOREIGN KEY");
+            }
+            if (!foreignKey.isComposite()) {
+                return mapForeignKeyColumnToToOne(foreignKey.columnFrom, toOneName);
+            }
+            Field field;
+            try {
+                field = entityClass.getDeclaredField(toOneName);
+                if (!ToOne.class.isAssignableFrom(field.getType())) {
+                    throw new IllegalArgumentException("Field '" + toOneName + "' is not a ToOne");
+                }
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Failed to access field '" + toOneName
+                        + "' of entity '" + entityInfo.getEntityName() + "'");
+            }
+            field.setAccessible(true); // to set private fields
+
+            // in the order of the foreign key, so the first column maps the ToOne
+            for (String columnName : foreignKey.columnsFrom) {
+                ColumnMapping foreignKeyMapping = new ColumnMapping(columnName,
+                        schemaCatalog.indexOfColumn(tableName, columnName), null, field,
+                        ColumnMapping.FOREIGN_KEY_MAPPER);
+                columnMap.put(foreignKeyMapping.getColumnName(), foreignKeyMapping);
+            }
+            return this;
+        }
+
+        /**
+         * Caches up to {@code maxSize} values converted by the converter of the property the
+         * column is mapped to, see {@link ConversionCache}. Use this for columns with few distinct
+         * values, like enums, if converted values are immutable.
+         * <pre>
+         * migration.mapTableToEntity("orders", Order.class)
+         *         .mapColumnToProperty("mode", Order_.mode)
+         *         .cacheConversions("mode", 16)
+         *         .build();
+         * </pre>
+         */
+        public Builder cacheConversions(String columnName, int maxSize) {
+            ColumnMapping columnMapping = columnMap.get(columnName);
+            if (columnMapping == null) {
+                throw new IllegalArgumentException("No mapping for column " + columnName);
+            }
+            columnMapping.setConversionCache(new ConversionCache(maxSize));
+            return this;
+        }
+
+        /**
+         * Sets the column of the high-water mark of the table for incremental migration, see
+         * {@link SqlMigration#setIncremental(boolean)}. Its value must grow with each inserted or
+         * updated row, like the rowid or an {@code updated_at} timestamp. The column does not have
+         * to be mapped.
+         * <pre>
+         * migration.modifyTableMapping("orders")
+         *         .highWaterMark("updated_at")
+         *         .build();
+         * </pre>
+         */
+        public Builder highWaterMark(String columnName) {
+            if ("rowid".equalsIgnoreCase(columnName)) {
+                if (schemaCatalog.isWithoutRowId(tableName)) {
+                    throw new IllegalArgumentException("Table '" + tableName
+                            + "' was created WITHOUT ROWID");
+                }
+            } else if (schemaCatalog.indexOfColumn(tableName, columnName) == -1) {
+                throw new IllegalArgumentException("There is no column '" + columnName
+                        + "' in table '" + tableName + "'");
+            }
+            this.highWaterMarkColumn = columnName;
+            return this;
+        }
+
         /**
          * Removes the column mapping. Throws if there is no mapping for that column.
          */
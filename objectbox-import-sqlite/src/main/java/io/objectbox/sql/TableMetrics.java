@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import java.util.Locale;
+
+/**
+ * Progress and timing of migrating a table, reported to a {@link MigrationListener}.
+ * <p/>
+ * Time is split into phases: reading rows from SQLite (including page queries), mapping rows to
+ * entities (including converters and {@link ColumnMapping.Mapper mappers}) and putting entities.
+ * With a {@link SqlMigration#setBatchSize(int) batch size} of 1 entities are put while mapping,
+ * so put time is part of map time. With {@link SqlMigration#setPipelined(int, int) pipelined}
+ * migration read and map time is summed over all readers of the table, so phases overlap and
+ * can add up to more than the elapsed time.
+ * <p/>
+ * Only updated on the thread calling {@link SqlMigration#migrate(SqlMigration.PostMigrationStep)}.
+ */
+public class TableMetrics {
+
+    private final String tableName;
+    private final ReadPlan readPlan;
+    private final long estimatedRowCount;
+    private final MigrationListener listener;
+    private final long progressIntervalNanos;
+
+    private int readTaskCount = 1;
+    private long rowCount;
+    private long readNanos;
+    private long mapNanos;
+    private long putNanos;
+    private boolean started;
+    private boolean ended;
+    private long startNanos;
+    private long endNanos;
+    private long lastProgressNanos;
+
+    TableMetrics(String tableName, ReadPlan readPlan, long estimatedRowCount,
+                 MigrationListener listener, long progressIntervalNanos) {
+        this.tableName = tableName;
+        this.readPlan = readPlan;
+        this.estimatedRowCount = estimatedRowCount;
+        this.listener = listener;
+        this.progressIntervalNanos = progressIntervalNanos;
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    void start() {
+        started = true;
+        startNanos = System.nanoTime();
+        lastProgressNanos = startNanos;
+        listener.onTableStart(this);
+    }
+
+    void setReadTaskCount(int readTaskCount) {
+        this.readTaskCount = readTaskCount;
+    }
+
+    void addRows(long rows) {
+        rowCount += rows;
+    }
+
+    /**
+     * Adds the time since {@code startNanos} to reading, returns the current time to start the
+     * next phase with.
+     */
+    long lapRead(long startNanos) {
+        long now = System.nanoTime();
+        readNanos += now - startNanos;
+        return now;
+    }
+
+    long lapMap(long startNanos) {
+        long now = System.nanoTime();
+        mapNanos += now - startNanos;
+        return now;
+    }
+
+    long lapPut(long startNanos) {
+        long now = System.nanoTime();
+        putNanos += now - startNanos;
+        return now;
+    }
+
+    /**
+     * Adds read and map time measured on another thread.
+     */
+    void addReadAndMap(long readNanos, long mapNanos) {
+        this.readNanos += readNanos;
+        this.mapNanos += mapNanos;
+    }
+
+    /**
+     * Notifies the listener if the progress interval has passed since the last notification.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     */
+    void progress(long nowNanos) {
+        if (nowNanos - lastProgressNanos >= progressIntervalNanos) {
+            lastProgressNanos = nowNanos;
+            listener.onTableProgress(this);
+        }
+    }
+
+    void end() {
+        ended = true;
+        endNanos = System.nanoTime();
+        listener.onTableEnd(this);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the page and window size the table is read with.
+     */
+    public ReadPlan getReadPlan() {
+        return readPlan;
+    }
+
+    /**
+     * Returns the number of tasks reading the table, more than one if it is split into rowid
+     * ranges, see {@link SqlMigration#setTablePartitions(int, long)}.
+     */
+    public int getReadTaskCount() {
+        return readTaskCount;
+    }
+
+    /**
+     * Returns the number of rows of the table counted before migrating it. If a
+     * {@link SqlMigration#setCheckpointFile(java.io.File) checkpoint} is resumed, this includes
+     * rows migrated before.
+     */
+    public long getEstimatedRowCount() {
+        return estimatedRowCount;
+    }
+
+    /**
+     * Returns the number of rows migrated so far.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getMapNanos() {
+        return mapNanos;
+    }
+
+    public long getPutNanos() {
+        return putNanos;
+    }
+
+    /**
+     * Returns the time since the table was started, until it ended if it did.
+     */
+    public long getElapsedNanos() {
+        if (!started) {
+            return 0;
+        }
+        return (ended ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    public double getRowsPerSecond() {
+        long elapsedNanos = getElapsedNanos();
+        return elapsedNanos > 0 ? rowCount * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s: %d/%d rows in %d ms (%.0f rows/s), read %d ms, map %d ms, put %d ms",
+                tableName, rowCount, estimatedRowCount, getElapsedNanos() / 1000000,
+                getRowsPerSecond(), readNanos / 1000000, mapNanos / 1000000, putNanos / 1000000);
+    }
+}
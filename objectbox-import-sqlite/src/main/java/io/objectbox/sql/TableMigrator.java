@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 ObjectBox Ltd. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.objectbox.sql;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import io.objectbox.Box;
+
+/**
+ * Reads the rows of a table page by page, maps them to entities and puts them into the box of the
+ * table mapping. Rows can be migrated in multiple steps, e.g. one per transaction.
+ */
+class TableMigrator {
+
+    private final TableMapping tableMapping;
+    private final Box box;
+    private final PagedQuery query;
+    @Nullable
+    private final List<Object> batch;
+    private final int batchSize;
+    @Nullable
+    private final TableMetrics metrics;
+    @Nullable
+    private IdTranslation.Table idTranslation;
+    /** Rowids of the batched entities, only if recording IDs. */
+    @Nullable
+    private long[] batchRowIds;
+
+    @Nullable
+    private String[] lastKey;
+    private boolean hasMoreRows = true;
+
+    /**
+     * @param batch Buffer for batched puts, or {@code null} to put each entity separately.
+     * @param metrics Records progress and time per phase, or {@code null} to not measure.
+     */
+    TableMigrator(TableMapping tableMapping, Box box, PagedQuery query,
+                  @Nullable List<Object> batch, int batchSize, @Nullable TableMetrics metrics) {
+        this.tableMapping = tableMapping;
+        this.box = box;
+        this.query = query;
+        this.batch = batch;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records the rowid of each row and the ID of its entity after it was put. Requires the query
+     * to be ordered by rowid.
+     */
+    void setIdTranslation(@Nullable IdTranslation.Table idTranslation) {
+        this.idTranslation = idTranslation;
+        this.batchRowIds = idTranslation != null && batch != null ? new long[batchSize] : null;
+    }
+
+    /**
+     * Migrates rows until {@code maxRows} rows or about {@code maxBytes} bytes were read, or there
+     * are no more rows. Pass 0 to not limit rows or bytes. Any batched entities are put before
+     * returning.
+     */
+    void migrateRows(int maxRows, long maxBytes)
+            throws InstantiationException, IllegalAccessException {
+        int rows = 0;
+        long bytes = 0;
+        int rowSizeIndex = query.getRowSizeIndex();
+        TableMetrics metrics = this.metrics;
+        long time = metrics != null ? System.nanoTime() : 0;
+        while (query.moveToNext()) {
+            if (metrics != null) {
+                time = metrics.lapRead(time);
+            }
+            Row row = query.getRow();
+            Object entity = tableMapping.newEntity();
+            if (batch == null) {
+                tableMapping.mapRow(row, entity, box);
+                if (idTranslation != null) {
+                    //noinspection unchecked Type is not known
+                    idTranslation.put(query.getRowId(), box.getId(entity));
+                }
+            } else {
+                tableMapping.mapRow(row, entity);
+                if (batchRowIds != null) {
+                    batchRowIds[batch.size()] = query.getRowId();
+                }
+                batch.add(entity);
+            }
+            if (metrics != null) {
+                time = metrics.lapMap(time);
+            }
+            if (batch != null && batch.size() == batchSize) {
+                time = putBatch(time);
+            }
+            rows++;
+            if (rowSizeIndex != -1) {
+                bytes += row.getLong(rowSizeIndex);
+            }
+            if (metrics != null) {
+                metrics.addRows(1);
+                metrics.progress(time);
+            }
+            if ((maxRows > 0 && rows >= maxRows) || (maxBytes > 0 && bytes >= maxBytes)) {
+                putBatch(time);
+                lastKey = query.getLastKey();
+                return; // there might be more rows
+            }
+        }
+        if (metrics != null) {
+            time = metrics.lapRead(time);
+        }
+        putBatch(time);
+        lastKey = query.getLastKey();
+        hasMoreRows = false;
+    }
+
+    /**
+     * Puts batched entities, returns the time after putting if measuring time.
+     */
+    private long putBatch(long time) {
+        if (batch == null || batch.isEmpty()) {
+            return time;
+        }
+        //noinspection unchecked Type is not known
+        box.put(batch);
+        if (batchRowIds != null) {
+            // put has set the IDs assigned by ObjectBox
+            for (int i = 0; i < batch.size(); i++) {
+                //noinspection unchecked Type is not known
+                idTranslation.put(batchRowIds[i], box.getId(batch.get(i)));
+            }
+        }
+        batch.clear();
+        return metrics != null ? metrics.lapPut(time) : time;
+    }
+
+    /**
+     * Returns {@code false} once all rows of the query were migrated.
+     */
+    boolean hasMoreRows() {
+        return hasMoreRows;
+    }
+
+    /**
+     * Returns the key of the last migrated row, or if no row was migrated the key the query started
+     * after (may be {@code null}).
+     */
+    @Nullable
+    String[] getLastKey() {
+        return lastKey;
+    }
+}